@@ -0,0 +1,113 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.benchmarks;
+
+import nl.utwente.mapper.metrics.AdaptiveLocalAlignment;
+import nl.utwente.mapper.metrics.MethodSequence;
+import nl.utwente.mapper.metrics.NeedlemanWunsch;
+import nl.utwente.mapper.metrics.functions.AdaptiveSubstitution;
+import org.objectweb.asm.tree.MethodNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the alignment kernels and the substitution function on a synthetic method and a copy of it in which 10%
+ * of the instructions were mutated.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class AlignmentBenchmark {
+
+    private static final double MUTATION_RATE = 0.1;
+
+    @Param({"10", "100", "1000", "10000"})
+    public int size;
+
+    @Param({"UNIFORM", "SKEWED"})
+    public Synthetic.Distribution distribution;
+
+    private MethodNode sourceNode;
+    private MethodNode targetNode;
+    private MethodSequence source;
+    private MethodSequence target;
+
+    private AdaptiveSubstitution substitution;
+    private AdaptiveLocalAlignment localAlignment;
+    private NeedlemanWunsch needlemanWunsch;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(size);
+        int[] instructions = Synthetic.instructions(random, size, distribution);
+
+        sourceNode = Synthetic.method(instructions);
+        targetNode = Synthetic.method(Synthetic.mutate(random, instructions, MUTATION_RATE));
+        source = MethodSequence.encode("synthetic/Source", sourceNode);
+        target = MethodSequence.encode("synthetic/Target", targetNode);
+
+        substitution = new AdaptiveSubstitution(AdaptiveSubstitution.countSequences(Arrays.asList(source, target)));
+        localAlignment = new AdaptiveLocalAlignment(-0.5f, substitution);
+        needlemanWunsch = new NeedlemanWunsch(-0.5f, substitution);
+    }
+
+    @Benchmark
+    public float localAlignment() {
+        return localAlignment.compare(source, target);
+    }
+
+    @Benchmark
+    public float needlemanWunsch() {
+        return needlemanWunsch.compare(source, target);
+    }
+
+    /**
+     * Scores every instruction of the source against the instruction at the same index of the target.
+     */
+    @Benchmark
+    public float substitution() {
+        int length = Math.min(sourceNode.instructions.size(), targetNode.instructions.size());
+        float score = 0;
+        for (int i = 0; i < length; i++) {
+            score += substitution.compare(sourceNode, i, targetNode, i);
+        }
+        return score;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.benchmarks;
+
+import nl.utwente.mapper.metrics.MethodSequence;
+import nl.utwente.mapper.util.JarLoader;
+import org.objectweb.asm.tree.ClassNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures loading a synthetic jar, which is generated once per trial. Every class has 10 methods of 100
+ * instructions each.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class JarLoaderBenchmark {
+
+    private static final int METHODS = 10;
+    private static final int INSTRUCTIONS = 100;
+
+    @Param({"10", "100", "1000"})
+    public int classes;
+
+    @Param({"UNIFORM", "SKEWED"})
+    public Synthetic.Distribution distribution;
+
+    private File jar;
+    private ExecutorService executor;
+
+    @Setup
+    public void setUp() throws IOException {
+        jar = File.createTempFile("synthetic", ".jar");
+        Synthetic.writeJar(jar, new Random(classes), classes, METHODS, INSTRUCTIONS, distribution);
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+        if (!jar.delete()) {
+            jar.deleteOnExit();
+        }
+    }
+
+    @Benchmark
+    public Map<String, ClassNode> readJar() throws IOException {
+        return JarLoader.readJar(jar);
+    }
+
+    @Benchmark
+    public Map<String, ClassNode> readJarParallel() throws IOException {
+        return JarLoader.readJar(jar, executor);
+    }
+
+    @Benchmark
+    public List<MethodSequence> readSequences() throws IOException {
+        return JarLoader.readSequences(jar);
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.benchmarks;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Generates synthetic bytecode for the benchmarks. Methods are described by the indices of their instructions in a
+ * fixed palette of common opcodes, so a source method and a mutated copy of it can be emitted as a pair.
+ *
+ * <p>
+ * The generated bytecode is meant to be parsed, not run: it is well-formed but would not pass verification.
+ */
+public final class Synthetic {
+
+    /**
+     * How the instructions of a generated method are drawn from the palette.
+     */
+    public enum Distribution {
+        /**
+         * Every opcode of the palette is equally likely.
+         */
+        UNIFORM,
+
+        /**
+         * The opcodes follow a Zipf distribution, with loads, stores and invocations being the most common like in
+         * real bytecode.
+         */
+        SKEWED
+    }
+
+    private static final int[] PALETTE = {
+            ALOAD, ILOAD, GETFIELD, INVOKEVIRTUAL, ASTORE, ISTORE, INVOKESTATIC, ICONST_0, DUP, PUTFIELD,
+            GETSTATIC, LDC, BIPUSH, ICONST_1, IADD, NEW, CHECKCAST, POP, AALOAD, ARRAYLENGTH,
+            IINC, ISUB, IMUL, ACONST_NULL, ATHROW
+    };
+
+    private Synthetic() {
+    }
+
+    /**
+     * Draws the instructions of a method.
+     *
+     * @param random the source of randomness
+     * @param size the amount of instructions
+     * @param distribution how the instructions are drawn
+     * @return the palette indices of the instructions
+     */
+    static int[] instructions(Random random, int size, Distribution distribution) {
+        double[] cumulative = new double[PALETTE.length];
+        double total = 0;
+        for (int i = 0; i < PALETTE.length; i++) {
+            total += distribution == Distribution.UNIFORM ? 1 : 1.0 / (i + 1);
+            cumulative[i] = total;
+        }
+
+        int[] instructions = new int[size];
+        for (int i = 0; i < size; i++) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+            instructions[i] = index >= 0 ? index : -index - 1;
+        }
+        return instructions;
+    }
+
+    /**
+     * Returns a copy of the given instructions in which roughly the given fraction of the instructions is replaced,
+     * removed or preceded by an inserted instruction, in equal proportions.
+     *
+     * @param random the source of randomness
+     * @param instructions the palette indices of the instructions to mutate
+     * @param rate the fraction of the instructions to mutate
+     * @return the palette indices of the mutated instructions
+     */
+    static int[] mutate(Random random, int[] instructions, double rate) {
+        int[] mutated = new int[instructions.length * 2];
+        int size = 0;
+        for (int instruction : instructions) {
+            if (random.nextDouble() >= rate) {
+                mutated[size++] = instruction;
+                continue;
+            }
+
+            switch (random.nextInt(3)) {
+                case 0:
+                    mutated[size++] = random.nextInt(PALETTE.length);
+                    break;
+                case 1:
+                    break;
+                default:
+                    mutated[size++] = random.nextInt(PALETTE.length);
+                    mutated[size++] = instruction;
+                    break;
+            }
+        }
+        return Arrays.copyOf(mutated, size);
+    }
+
+    /**
+     * Builds a static method from the given instructions.
+     *
+     * @param instructions the palette indices of the instructions
+     * @return the method
+     */
+    static MethodNode method(int[] instructions) {
+        MethodNode method = new MethodNode(ACC_PUBLIC | ACC_STATIC, "m", "()V", null, null);
+        emit(method, instructions);
+        return method;
+    }
+
+    /**
+     * Writes a jar of classes which each contain the given amount of methods.
+     *
+     * @param file the file to write the jar to
+     * @param random the source of randomness
+     * @param classes the amount of classes
+     * @param methods the amount of methods per class
+     * @param size the amount of instructions per method
+     * @param distribution how the instructions are drawn
+     * @throws IOException in case the jar could not be written
+     */
+    static void writeJar(File file, Random random, int classes, int methods, int size, Distribution distribution)
+            throws IOException {
+        try (JarOutputStream jar = new JarOutputStream(new FileOutputStream(file))) {
+            for (int c = 0; c < classes; c++) {
+                String name = "synthetic/C" + c;
+                ClassWriter writer = new ClassWriter(0);
+                writer.visit(V1_8, ACC_PUBLIC, name, null, "java/lang/Object", null);
+                for (int m = 0; m < methods; m++) {
+                    MethodVisitor method = writer.visitMethod(ACC_PUBLIC | ACC_STATIC, "m" + m, "()V", null, null);
+                    emit(method, instructions(random, size, distribution));
+                }
+                writer.visitEnd();
+
+                jar.putNextEntry(new JarEntry(name + ".class"));
+                jar.write(writer.toByteArray());
+                jar.closeEntry();
+            }
+        }
+    }
+
+    private static void emit(MethodVisitor method, int[] instructions) {
+        method.visitCode();
+        for (int instruction : instructions) {
+            int opcode = PALETTE[instruction];
+            switch (opcode) {
+                case ALOAD:
+                case ILOAD:
+                case ASTORE:
+                case ISTORE:
+                    method.visitVarInsn(opcode, 1);
+                    break;
+                case GETFIELD:
+                case PUTFIELD:
+                case GETSTATIC:
+                    method.visitFieldInsn(opcode, "synthetic/Owner", "f", "I");
+                    break;
+                case INVOKEVIRTUAL:
+                case INVOKESTATIC:
+                    method.visitMethodInsn(opcode, "synthetic/Owner", "m", "()V", false);
+                    break;
+                case LDC:
+                    method.visitLdcInsn("constant");
+                    break;
+                case BIPUSH:
+                    method.visitIntInsn(opcode, 1);
+                    break;
+                case NEW:
+                case CHECKCAST:
+                    method.visitTypeInsn(opcode, "java/lang/Object");
+                    break;
+                case IINC:
+                    method.visitIincInsn(1, 1);
+                    break;
+                default:
+                    method.visitInsn(opcode);
+                    break;
+            }
+        }
+        method.visitInsn(RETURN);
+        method.visitMaxs(16, 16);
+        method.visitEnd();
+    }
+}
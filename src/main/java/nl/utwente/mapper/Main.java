@@ -23,41 +23,51 @@
  */
 package nl.utwente.mapper;
 
-import nl.utwente.mapper.metrics.AdaptiveLocalAlignment;
-import nl.utwente.mapper.metrics.functions.AdaptiveSubstitution;
-import nl.utwente.mapper.util.JarLoader;
-import org.objectweb.asm.tree.ClassNode;
-import org.objectweb.asm.tree.MethodNode;
+import nl.utwente.mapper.cli.BatchMapper;
+import nl.utwente.mapper.cli.MatchWriter;
+import nl.utwente.mapper.cli.Options;
 
-import java.io.File;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 
 public class Main {
 
     /**
-     * Sample usage of the Adaptive Local Alignment algorithm.
+     * Maps the methods of a source jar onto the methods of a target jar, as described by {@link Options#USAGE}.
+     * Exits with status 2 on invalid arguments and with status 1 if the run failed.
      */
     public static void main(String[] args) {
-        File source = new File(Main.class.getClassLoader().getResource("PATH_TO_SOURCE_JAR").getFile());
-        File target = new File(Main.class.getClassLoader().getResource("PATH_TO_TARGET_JAR").getFile());
-
+        Options options;
         try {
-            Map<String, ClassNode> sourceMap = JarLoader.readJar(source);
-            Map<String, ClassNode> targetMap = JarLoader.readJar(target);
-
-            MethodNode sourceMethod = sourceMap.get("SOURCE_CLASS_NAME").methods.get(1);
-            MethodNode targetMethod = targetMap.get("TARGET_CLASS_NAME").methods.get(1);
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("error: " + e.getMessage());
+            System.err.println(Options.USAGE);
+            System.exit(2);
+            return;
+        }
 
-            Set<ClassNode> classes = new HashSet<>(sourceMap.values());
-            classes.addAll(targetMap.values());
+        if (options.help()) {
+            System.out.println(Options.USAGE);
+            return;
+        }
 
-            AdaptiveLocalAlignment localAlignment = new AdaptiveLocalAlignment(-0.5f, new AdaptiveSubstitution(classes));
-            System.out.println("Similarity score: " + localAlignment.compare(sourceMethod, targetMethod));
-        } catch (IOException e) {
-            e.printStackTrace();
+        // Only the output file is closed; System.out is merely flushed, as it is not ours to close.
+        try (OutputStream file = options.output() == null ? null : new FileOutputStream(options.output())) {
+            MatchWriter writer = new MatchWriter(new BufferedWriter(new OutputStreamWriter(
+                    file == null ? System.out : file, StandardCharsets.UTF_8)), options.format(), options.history());
+            new BatchMapper(options).run(writer);
+            writer.flush();
+        } catch (IOException | IllegalArgumentException | IllegalStateException e) {
+            System.err.println("error: " + e.getMessage());
+            System.exit(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.exit(1);
         }
     }
 }
@@ -0,0 +1,551 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.cli;
+
+import nl.utwente.mapper.mapping.HistoryMapper;
+import nl.utwente.mapper.mapping.JarMapper;
+import nl.utwente.mapper.mapping.MethodMatch;
+import nl.utwente.mapper.mapping.ParallelScorer;
+import nl.utwente.mapper.mapping.ScoreConsumer;
+import nl.utwente.mapper.metrics.AdaptiveLocalAlignment;
+import nl.utwente.mapper.metrics.CachingSimilarity;
+import nl.utwente.mapper.metrics.InstrumentedSimilarity;
+import nl.utwente.mapper.metrics.MethodSequence;
+import nl.utwente.mapper.metrics.MethodSimilarity;
+import nl.utwente.mapper.metrics.NeedlemanWunsch;
+import nl.utwente.mapper.metrics.QuantizedLocalAlignment;
+import nl.utwente.mapper.metrics.QuantizedNeedlemanWunsch;
+import nl.utwente.mapper.metrics.functions.AdaptiveSubstitution;
+import nl.utwente.mapper.metrics.functions.BytecodeSubstitution;
+import nl.utwente.mapper.metrics.functions.OperandSubstitution;
+import nl.utwente.mapper.monitoring.Counter;
+import nl.utwente.mapper.monitoring.MappingListener;
+import nl.utwente.mapper.monitoring.MappingMetrics;
+import nl.utwente.mapper.monitoring.Phase;
+import nl.utwente.mapper.util.JarLoader;
+import nl.utwente.mapper.util.SequenceCache;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Runs a complete mapping as configured by command line {@link Options}, and writes the results as they are
+ * produced. The jars are loaded as opcode sequences only, without building ClassNodes. With a cache directory, the
+ * sequences and opcode counts of every jar are kept in a {@link SequenceCache}, so later runs over the same jars skip
+ * parsing and merge the cached counts.
+ *
+ * <p>
+ * The memory budget limits the amount of threads which score at the same time. After loading, the memory held by
+ * the sequences and the candidate heaps is estimated, and every scoring thread is assumed to need the rows and
+ * substitution profiles of an alignment against the longest target method.
+ */
+public final class BatchMapper {
+
+    /**
+     * The estimated memory used by a sequence besides its symbols: the object headers, the array header and the
+     * strings of its owner, name and descriptor.
+     */
+    private static final long SEQUENCE_OVERHEAD = 160;
+
+    /**
+     * The estimated memory used per retained candidate, both in its heap and as an edge of the assignment step.
+     */
+    private static final long CANDIDATE_BYTES = 40;
+
+    /**
+     * The estimated memory used per cached score: the entry of the cache, its key and the score with its symbols. The
+     * symbols themselves are shared with the sequences.
+     */
+    private static final long SCORE_CACHE_BYTES = 160;
+
+    /**
+     * The amount of runs started in this JVM, which distinguishes the names of their metrics.
+     */
+    private static final AtomicInteger RUNS = new AtomicInteger();
+
+    private final Options options;
+    private final MappingMetrics metrics;
+    private final MappingListener listener;
+
+    /**
+     * Constructs a new batch mapper.
+     *
+     * @param options the options of the run
+     */
+    public BatchMapper(Options options) {
+        this.options = checkNotNull(options);
+        this.metrics = options.metrics() ? new MappingMetrics() : null;
+        this.listener = metrics == null ? MappingListener.NONE : metrics;
+    }
+
+    /**
+     * Runs the mapping, writing the assigned matches or, in pairs mode, every pair reaching the minimum score.
+     *
+     * @param writer the writer to write the results to
+     * @throws IOException in case the jars could not be read or the results could not be written
+     * @throws InterruptedException in case the thread was interrupted while waiting for the scoring tasks
+     */
+    public void run(MatchWriter writer) throws IOException, InterruptedException {
+        ObjectName name = register();
+        try {
+            if (options.history()) {
+                runHistory(writer);
+            } else {
+                runMapping(writer);
+            }
+        } finally {
+            unregister(name);
+        }
+    }
+
+    /**
+     * Exposes the metrics through JMX for the duration of the run, if they are enabled. Failing to do so does not
+     * stop the run, as the metrics are still printed at its end.
+     */
+    private ObjectName register() {
+        if (metrics == null) {
+            return null;
+        }
+
+        try {
+            return metrics.register("batch-" + RUNS.incrementAndGet());
+        } catch (JMException e) {
+            System.err.println("Could not register the metrics with JMX: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void unregister(ObjectName name) {
+        if (name == null) {
+            return;
+        }
+
+        try {
+            metrics.unregister(name);
+        } catch (JMException e) {
+            System.err.println("Could not unregister the metrics from JMX: " + e.getMessage());
+        }
+    }
+
+    private void runMapping(MatchWriter writer) throws IOException, InterruptedException {
+        List<MethodSequence> sources = null;
+        List<MethodSequence> targets = null;
+        List<ClassNode> sourceClasses = null;
+        List<ClassNode> targetClasses = null;
+        List<SequenceCache.CachedJar> cachedJars = null;
+
+        ExecutorService loader = Executors.newFixedThreadPool(options.threads());
+        try {
+            long start = System.nanoTime();
+            if (options.operands()) {
+                sourceClasses = loadClasses(options.source(), loader);
+                targetClasses = loadClasses(options.target(), loader);
+            } else if (options.cache() != null) {
+                SequenceCache cache = new SequenceCache(options.cache());
+                List<SequenceCache.CachedJar> sourceJars = loadCached(options.source(), cache, loader);
+                List<SequenceCache.CachedJar> targetJars = loadCached(options.target(), cache, loader);
+                sources = sequences(sourceJars);
+                targets = sequences(targetJars);
+                cachedJars = new ArrayList<>(sourceJars);
+                cachedJars.addAll(targetJars);
+            } else {
+                sources = load(options.source(), loader);
+                targets = load(options.target(), loader);
+            }
+            listener.phase(Phase.LOAD, System.nanoTime() - start);
+        } finally {
+            loader.shutdownNow();
+        }
+
+        long start = System.nanoTime();
+        long[] occurrences;
+        BytecodeSubstitution substitution;
+        if (options.operands()) {
+            List<ClassNode> all = new ArrayList<>(sourceClasses);
+            all.addAll(targetClasses);
+            occurrences = OperandSubstitution.countTokens(all);
+            substitution = new OperandSubstitution(occurrences);
+            sources = encode(sourceClasses, substitution);
+            targets = encode(targetClasses, substitution);
+        } else if (cachedJars != null) {
+            occurrences = SequenceCache.merge(cachedJars);
+            substitution = new AdaptiveSubstitution(occurrences);
+        } else {
+            List<MethodSequence> all = new ArrayList<>(sources);
+            all.addAll(targets);
+            occurrences = AdaptiveSubstitution.countSequences(all);
+            substitution = new AdaptiveSubstitution(occurrences);
+        }
+        listener.phase(Phase.FREQUENCIES, System.nanoTime() - start);
+        listener.count(Counter.CLASSES_LOADED, classes(sources) + classes(targets));
+        listener.count(Counter.METHODS_ENCODED, sources.size() + targets.size());
+
+        int threads = threads(sources, targets, occurrences);
+        if (threads < options.threads()) {
+            System.err.println("Scoring on " + threads + " instead of " + options.threads()
+                    + " threads to stay within the memory budget");
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            ParallelScorer scorer = new ParallelScorer(metric(substitution, executor, threads), executor, threads);
+            if (options.pairs()) {
+                writePairs(scorer, sources, targets, writer);
+            } else {
+                new JarMapper(scorer, options.candidates(), listener)
+                        .map(sources, targets, match -> writer.write(match.source(), match.target(), match.score()));
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (metrics != null) {
+            System.err.println(metrics);
+        }
+    }
+
+    /**
+     * Maps every version of a history onto the next, writing the matches of each step as soon as it is done. The
+     * memory budget is not applied, as the amount of aligned methods differs per step.
+     */
+    private void runHistory(MatchWriter writer) throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(options.threads());
+        try {
+            HistoryMapper history = new HistoryMapper(
+                    substitution -> metric(substitution, executor, options.threads()), executor, options.threads(),
+                    options.candidates(), listener);
+            for (File jar : options.versions()) {
+                HistoryMapper.Step step = history.next(jar);
+                if (step == null) {
+                    continue;
+                }
+
+                String source = step.source().getName();
+                String target = step.target().getName();
+                for (MethodMatch match : step.matches()) {
+                    writer.write(source, target, match.source(), match.target(), match.score());
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (metrics != null) {
+            System.err.println(metrics);
+        }
+    }
+
+    /**
+     * Creates the similarity metric of the run, reporting to the metrics if they are enabled.
+     */
+    private MethodSimilarity metric(BytecodeSubstitution substitution, ExecutorService executor, int threads) {
+        MethodSimilarity similarity = similarity(options, substitution, executor, threads);
+        if (metrics != null) {
+            similarity = new InstrumentedSimilarity(similarity, metrics);
+        }
+        return cached(options, similarity, listener);
+    }
+
+    private void writePairs(ParallelScorer scorer, List<MethodSequence> sources, List<MethodSequence> targets,
+                            MatchWriter writer) throws InterruptedException {
+        float minScore = options.minScore();
+        long start = System.nanoTime();
+        scorer.score(sources, targets, new ScoreConsumer() {
+            @Override
+            public void accept(int source, int target, float score) {
+                if (score >= minScore) {
+                    writer.write(sources.get(source), targets.get(target), score);
+                }
+            }
+
+            @Override
+            public float threshold(int source) {
+                return minScore;
+            }
+        });
+        listener.phase(Phase.ALIGNMENT, System.nanoTime() - start);
+    }
+
+    /**
+     * Creates the similarity metric selected by the given options. Metrics which can split a single very large pair
+     * over several threads do so on the given executor.
+     *
+     * @param options the options selecting the algorithm and its gap settings
+     * @param substitution the substitution function of the metric
+     * @param executor the executor the scoring runs on
+     * @param threads the amount of threads of the executor the run may use
+     * @return the similarity metric
+     */
+    public static MethodSimilarity similarity(Options options, BytecodeSubstitution substitution,
+                                              ExecutorService executor, int threads) {
+        switch (options.algorithm()) {
+            case LOCAL:
+                return new AdaptiveLocalAlignment(options.gapOpen(), options.gap(), substitution, executor, threads);
+            case GLOBAL:
+                return options.band() > 0
+                        ? new NeedlemanWunsch(options.gap(), substitution, options.band())
+                        : new NeedlemanWunsch(options.gapOpen(), options.gap(), substitution);
+            case QUANTIZED_LOCAL:
+                return new QuantizedLocalAlignment(options.gap(), substitution);
+            case QUANTIZED_GLOBAL:
+                return new QuantizedNeedlemanWunsch(options.gap(), substitution);
+            default:
+                throw new AssertionError(options.algorithm());
+        }
+    }
+
+    /**
+     * Wraps a similarity metric in a score cache if the given options enable one. The cache wraps the metric as a
+     * whole, so only the alignments the cache misses reach it.
+     *
+     * @param options the options deciding the size of the cache
+     * @param similarity the metric to cache the scores of
+     * @param listener the listener to report the hits and misses of the cache to
+     * @return the cached metric, or the given metric if the cache is disabled
+     */
+    public static MethodSimilarity cached(Options options, MethodSimilarity similarity, MappingListener listener) {
+        return options.scoreCache() == 0 ? similarity
+                : new CachingSimilarity(similarity, options.scoreCache(), listener);
+    }
+
+    /**
+     * Returns the amount of threads which fit in the memory budget, at most the amount of threads requested.
+     */
+    private int threads(List<MethodSequence> sources, List<MethodSequence> targets, long[] occurrences) {
+        long fixed = sequenceBytes(sources) + sequenceBytes(targets) + candidateBytes(options, sources)
+                + scoreCacheBytes(options);
+        long available = options.memory() - fixed;
+
+        // A single thread scores every pair on its own, so it needs no wavefront and may still fit when two don't.
+        int threads = 0;
+        if (options.threads() > 1) {
+            long perThread = threadBytes(options, sources, targets, occurrences, options.threads());
+            threads = (int) Math.min(options.threads(), Math.max(0, available) / perThread);
+        }
+        if (threads < 2) {
+            long single = threadBytes(options, sources, targets, occurrences, 1);
+            checkState(available >= single, "The memory budget of %s bytes is too small, at least %s bytes are needed",
+                    options.memory(), fixed + single);
+            threads = 1;
+        }
+        return threads;
+    }
+
+    /**
+     * Estimates the memory held by the given sequences.
+     *
+     * @param sequences the loaded sequences
+     * @return the estimated size of the sequences in bytes
+     */
+    public static long sequenceBytes(List<MethodSequence> sequences) {
+        long bytes = 0;
+        for (MethodSequence sequence : sequences) {
+            bytes += 2L * sequence.size() + SEQUENCE_OVERHEAD;
+        }
+        return bytes;
+    }
+
+    /**
+     * Counts the classes the given sequences were loaded from, which are the classes declaring at least one method
+     * with code.
+     *
+     * @param sequences the loaded sequences
+     * @return the amount of distinct owners of the sequences
+     */
+    public static int classes(List<MethodSequence> sequences) {
+        Set<String> owners = new HashSet<>();
+        for (MethodSequence sequence : sequences) {
+            owners.add(sequence.owner());
+        }
+        return owners.size();
+    }
+
+    /**
+     * Estimates the memory used to retain the candidates of the given source methods for the assignment step.
+     *
+     * @param options the options deciding the amount of candidates
+     * @param sources the source methods
+     * @return the estimated size of the candidates in bytes
+     */
+    public static long candidateBytes(Options options, List<MethodSequence> sources) {
+        return (long) sources.size() * options.candidates() * CANDIDATE_BYTES;
+    }
+
+    /**
+     * Estimates the memory used by the score cache when it is full.
+     *
+     * @param options the options deciding the size of the cache
+     * @return the estimated size of the cache in bytes
+     */
+    public static long scoreCacheBytes(Options options) {
+        return options.scoreCache() * SCORE_CACHE_BYTES;
+    }
+
+    /**
+     * Estimates the memory a single scoring thread needs to align the longest of the given sources against the
+     * longest of the given targets. When such a pair is split over several threads, the borders of its tiles and the
+     * rows of the tile the thread helps with are included.
+     *
+     * @param options the options deciding the algorithm
+     * @param sources the source methods
+     * @param targets the target methods
+     * @param occurrences the opcode occurrences of the sources and targets
+     * @param threads the amount of threads actually scoring, which decides whether pairs are split over threads
+     * @return the estimated memory of a scoring thread in bytes
+     */
+    public static long threadBytes(Options options, List<MethodSequence> sources, List<MethodSequence> targets,
+                                   long[] occurrences, int threads) {
+        int longest = longest(targets);
+
+        // The local alignments keep a profile per distinct source symbol, all of them keep two or three rows.
+        int rows = 3;
+        Options.Algorithm algorithm = options.algorithm();
+        if (algorithm == Options.Algorithm.LOCAL || algorithm == Options.Algorithm.QUANTIZED_LOCAL) {
+            for (long occurrence : occurrences) {
+                if (occurrence > 0) {
+                    rows++;
+                }
+            }
+        }
+        long bytes = (long) rows * (longest + 1) * Float.BYTES;
+
+        if (algorithm == Options.Algorithm.LOCAL && options.gapOpen() == options.gap() && threads > 1) {
+            bytes += AdaptiveLocalAlignment.wavefrontBytes(longest(sources), longest);
+        }
+        return bytes;
+    }
+
+    private static int longest(List<MethodSequence> sequences) {
+        int longest = 0;
+        for (MethodSequence sequence : sequences) {
+            longest = Math.max(longest, sequence.size());
+        }
+        return longest;
+    }
+
+    /**
+     * Loads the sequences of a jar, or of all jars in a directory in the order of their names.
+     */
+    private static List<MethodSequence> load(File file, ExecutorService executor) throws IOException {
+        List<MethodSequence> sequences = new ArrayList<>();
+        for (File jar : jars(file)) {
+            sequences.addAll(JarLoader.readSequences(jar, executor));
+        }
+        return sequences;
+    }
+
+    /**
+     * Loads the sequences and opcode counts of a jar, or of all jars in a directory in the order of their names,
+     * through the cache. Only jars which are not cached yet are parsed.
+     */
+    private static List<SequenceCache.CachedJar> loadCached(File file, SequenceCache cache, ExecutorService executor)
+            throws IOException {
+        List<SequenceCache.CachedJar> cached = new ArrayList<>();
+        for (File jar : jars(file)) {
+            cached.add(cache.load(jar, executor));
+        }
+        return cached;
+    }
+
+    private static List<MethodSequence> sequences(List<SequenceCache.CachedJar> jars) {
+        List<MethodSequence> sequences = new ArrayList<>();
+        for (SequenceCache.CachedJar jar : jars) {
+            sequences.addAll(jar.sequences());
+        }
+        return sequences;
+    }
+
+    /**
+     * Loads the classes of a jar, or of all jars in a directory in the order of their names.
+     */
+    private static List<ClassNode> loadClasses(File file, ExecutorService executor) throws IOException {
+        List<ClassNode> classes = new ArrayList<>();
+        for (File jar : jars(file)) {
+            classes.addAll(new TreeMap<>(JarLoader.readJar(jar, executor)).values());
+        }
+        return classes;
+    }
+
+    /**
+     * Encodes every method with code of the given classes.
+     */
+    private static List<MethodSequence> encode(List<ClassNode> classes, BytecodeSubstitution substitution) {
+        List<MethodSequence> sequences = new ArrayList<>();
+        for (ClassNode classNode : classes) {
+            for (MethodNode methodNode : classNode.methods) {
+                if (methodNode.instructions.size() > 0) {
+                    sequences.add(substitution.encode(classNode.name, methodNode));
+                }
+            }
+        }
+        return sequences;
+    }
+
+    /**
+     * Returns the jars denoted by a command line argument: either the jar itself, or all jars in a directory in the
+     * order of their names.
+     *
+     * @param file a jar or a directory of jars
+     * @return the jars to load
+     * @throws IllegalArgumentException in case the directory contains no jars
+     */
+    public static List<File> jars(File file) {
+        if (!file.isDirectory()) {
+            return Collections.singletonList(file);
+        }
+
+        File[] jars = file.listFiles((directory, name) -> name.endsWith(".jar"));
+        checkArgument(jars != null && jars.length > 0, "No jars found in %s", file);
+        Arrays.sort(jars);
+        return Arrays.asList(jars);
+    }
+
+    @Override
+    public String toString() {
+        return "BatchMapper [options=" + options + "]";
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.cli;
+
+import nl.utwente.mapper.metrics.MethodSequence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Writes scored method pairs as CSV or as JSON lines, one pair per line. Every method is written as its owner, name
+ * and descriptor. When mapping a history, the versions of the two methods are written before them.
+ *
+ * <p>
+ * Pairs are written as they are received, so the writer can be called from the scoring threads directly. As these
+ * callbacks cannot throw checked exceptions, write errors are thrown as {@link UncheckedIOException}s.
+ *
+ * <p>
+ * This class is thread-safe.
+ */
+public final class MatchWriter implements Closeable {
+
+    private static final String CSV_HEADER =
+            "source_owner,source_name,source_desc,target_owner,target_name,target_desc,score";
+
+    private static final String CSV_VERSIONS = "source_version,target_version";
+
+    private final Writer out;
+    private final Options.Format format;
+    private final boolean versions;
+
+    /**
+     * Constructs a new writer. The CSV header is written immediately.
+     *
+     * @param out the writer to write to, which should be buffered
+     * @param format the format to write in
+     * @throws IOException in case the header could not be written
+     */
+    public MatchWriter(Writer out, Options.Format format) throws IOException {
+        this(out, format, false);
+    }
+
+    /**
+     * Constructs a new writer which optionally writes the versions of every pair. The CSV header is written
+     * immediately.
+     *
+     * @param out the writer to write to, which should be buffered
+     * @param format the format to write in
+     * @param versions whether to write the versions of the methods
+     * @throws IOException in case the header could not be written
+     */
+    public MatchWriter(Writer out, Options.Format format, boolean versions) throws IOException {
+        this.out = checkNotNull(out);
+        this.format = checkNotNull(format);
+        this.versions = versions;
+        if (format == Options.Format.CSV) {
+            out.write(versions ? CSV_VERSIONS + ',' + CSV_HEADER : CSV_HEADER);
+            out.write('\n');
+        }
+    }
+
+    /**
+     * Writes a scored pair.
+     *
+     * @param source the source method
+     * @param target the target method
+     * @param score the score of the pair
+     * @throws UncheckedIOException in case the pair could not be written
+     */
+    public void write(MethodSequence source, MethodSequence target, float score) {
+        write(null, null, source, target, score);
+    }
+
+    /**
+     * Writes a scored pair together with the versions of the two methods. The versions are only written if this
+     * writer was constructed to write them.
+     *
+     * @param sourceVersion the version of the source method
+     * @param targetVersion the version of the target method
+     * @param source the source method
+     * @param target the target method
+     * @param score the score of the pair
+     * @throws UncheckedIOException in case the pair could not be written
+     */
+    public synchronized void write(String sourceVersion, String targetVersion, MethodSequence source,
+                                   MethodSequence target, float score) {
+        try {
+            if (format == Options.Format.CSV) {
+                if (versions) {
+                    out.write(csv(sourceVersion) + ',' + csv(targetVersion) + ',');
+                }
+                out.write(csv(source.owner()) + ',' + csv(source.name()) + ',' + csv(source.desc()) + ','
+                        + csv(target.owner()) + ',' + csv(target.name()) + ',' + csv(target.desc()) + ',' + score);
+            } else {
+                if (versions) {
+                    out.write("{\"sourceVersion\":" + json(sourceVersion) + ",\"targetVersion\":" + json(targetVersion)
+                            + ',');
+                } else {
+                    out.write('{');
+                }
+                out.write("\"source\":" + json(source) + ",\"target\":" + json(target) + ",\"score\":"
+                        + (Float.isFinite(score) ? Float.toString(score) : "null") + '}');
+            }
+            out.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Flushes the pairs written so far without closing the underlying writer.
+     *
+     * @throws IOException in case the pairs could not be flushed
+     */
+    public synchronized void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Quotes a CSV field if it contains a separator, a quote or a line break.
+     */
+    private static String csv(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static String json(MethodSequence method) {
+        return "{\"owner\":" + json(method.owner()) + ",\"name\":" + json(method.name()) + ",\"desc\":"
+                + json(method.desc()) + '}';
+    }
+
+    /**
+     * Quotes a string as a JSON string literal.
+     *
+     * @param value the string to quote, may be null
+     * @return the JSON string, or {@code null} if the string is null
+     */
+    public static String json(String value) {
+        if (value == null) {
+            return "null";
+        }
+
+        StringBuilder builder = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    @Override
+    public String toString() {
+        return "MatchWriter [format=" + format + ", versions=" + versions + "]";
+    }
+}
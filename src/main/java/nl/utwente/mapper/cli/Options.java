@@ -0,0 +1,456 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.cli;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * The options of a batch mapping run, parsed from the command line.
+ *
+ * <p>
+ * This class is immutable.
+ */
+public final class Options {
+
+    public static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: mapper [options] <source> <target>",
+            "       mapper --history [options] <jar> <jar>...",
+            "",
+            "Maps the methods of the source onto the methods of the target. Both may be a jar or a directory of jars.",
+            "With --history, maps every version of a jar onto the next, re-aligning only the classes which changed.",
+            "",
+            "Options:",
+            "  --algorithm <name>   local, global, quantized-local or quantized-global (default: local)",
+            "  --gap <score>        the non-positive score of a gap instruction (default: -0.5)",
+            "  --gap-open <score>   the score of the first instruction of a gap, for affine gaps (default: --gap)",
+            "  --band <width>       the initial band width of the global algorithm, 0 for the full matrix (default: 0)",
+            "  --operands           also compare the operand classes of instructions, which loads complete classes",
+            "  --threads <count>    the amount of threads (default: the amount of processors)",
+            "  --memory <size>      the memory budget, like 512m or 4g (default: the maximum heap size)",
+            "  --cache <dir>        keep the parsed sequences of every jar in this directory for later runs",
+            "  --candidates <k>     the best targets kept per source method for assignment (default: 5)",
+            "  --score-cache <n>    remember the scores of up to n repeated pairs, 0 to disable (default: 0)",
+            "  --history            map a history of jars, writing the versions of every match as well",
+            "  --pairs              write every scored pair reaching --min-score instead of the assigned matches",
+            "  --min-score <score>  the lowest score written in --pairs mode (default: 0.5)",
+            "  --format <format>    csv or jsonl (default: csv)",
+            "  --output <file>      the file to write to (default: standard output)",
+            "  --metrics            print the metrics of the run to standard error and expose them through JMX",
+            "  --help               print this message");
+
+    private static final Set<String> VALUED = new HashSet<>(Arrays.asList("--algorithm", "--gap", "--gap-open",
+            "--band", "--threads", "--memory", "--cache", "--candidates", "--score-cache", "--min-score", "--format",
+            "--output"));
+
+    /**
+     * The similarity metrics which can be selected.
+     */
+    public enum Algorithm {
+        LOCAL, GLOBAL, QUANTIZED_LOCAL, QUANTIZED_GLOBAL
+    }
+
+    /**
+     * The formats the results can be written in.
+     */
+    public enum Format {
+        CSV, JSONL
+    }
+
+    private final List<File> versions;
+    private final File source;
+    private final File target;
+    private final Algorithm algorithm;
+    private final float gap;
+    private final float gapOpen;
+    private final int band;
+    private final boolean operands;
+    private final int threads;
+    private final long memory;
+    private final File cache;
+    private final int candidates;
+    private final int scoreCache;
+    private final boolean history;
+    private final boolean pairs;
+    private final float minScore;
+    private final Format format;
+    private final File output;
+    private final boolean metrics;
+    private final boolean help;
+
+    private Options(Builder builder) {
+        this.versions = Collections.unmodifiableList(builder.versions);
+        this.source = builder.source;
+        this.target = builder.target;
+        this.algorithm = builder.algorithm;
+        this.gap = builder.gap;
+        this.gapOpen = builder.gapOpen == null ? builder.gap : builder.gapOpen;
+        this.band = builder.band;
+        this.operands = builder.operands;
+        this.threads = builder.threads;
+        this.memory = builder.memory;
+        this.cache = builder.cache;
+        this.candidates = builder.candidates;
+        this.scoreCache = builder.scoreCache;
+        this.history = builder.history;
+        this.pairs = builder.pairs;
+        this.minScore = builder.minScore;
+        this.format = builder.format;
+        this.output = builder.output;
+        this.metrics = builder.metrics;
+        this.help = builder.help;
+    }
+
+    /**
+     * Parses the given command line arguments. Options may be given as {@code --name value} or {@code --name=value}.
+     *
+     * @param args the command line arguments
+     * @return the parsed options
+     * @throws IllegalArgumentException in case the arguments are invalid
+     */
+    public static Options parse(String... args) {
+        Builder builder = new Builder();
+        List<String> positional = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                positional.add(arg);
+                continue;
+            }
+
+            String name = arg;
+            String value = null;
+            int equals = arg.indexOf('=');
+            if (equals >= 0) {
+                name = arg.substring(0, equals);
+                value = arg.substring(equals + 1);
+            }
+
+            switch (name) {
+                case "--operands":
+                    builder.operands = true;
+                    continue;
+                case "--history":
+                    builder.history = true;
+                    continue;
+                case "--pairs":
+                    builder.pairs = true;
+                    continue;
+                case "--metrics":
+                    builder.metrics = true;
+                    continue;
+                case "--help":
+                    builder.help = true;
+                    continue;
+                default:
+                    break;
+            }
+
+            checkArgument(VALUED.contains(name), "Unknown option %s", name);
+            if (value == null) {
+                checkArgument(i + 1 < args.length, "Missing value for %s", name);
+                value = args[++i];
+            }
+
+            switch (name) {
+                case "--algorithm":
+                    builder.algorithm = Algorithm.valueOf(constant(name, value, Algorithm.values()));
+                    break;
+                case "--gap":
+                    builder.gap = parseFloat(name, value);
+                    break;
+                case "--gap-open":
+                    builder.gapOpen = parseFloat(name, value);
+                    break;
+                case "--band":
+                    builder.band = parseInt(name, value);
+                    break;
+                case "--threads":
+                    builder.threads = parseInt(name, value);
+                    break;
+                case "--memory":
+                    builder.memory = parseSize(name, value);
+                    break;
+                case "--cache":
+                    builder.cache = new File(value);
+                    break;
+                case "--candidates":
+                    builder.candidates = parseInt(name, value);
+                    break;
+                case "--score-cache":
+                    builder.scoreCache = parseInt(name, value);
+                    break;
+                case "--min-score":
+                    builder.minScore = parseFloat(name, value);
+                    break;
+                case "--format":
+                    builder.format = Format.valueOf(constant(name, value, Format.values()));
+                    break;
+                case "--output":
+                    builder.output = new File(value);
+                    break;
+                default:
+                    throw new AssertionError(name);
+            }
+        }
+
+        if (builder.help) {
+            return new Options(builder);
+        }
+
+        if (builder.history) {
+            checkArgument(positional.size() >= 2, "Expected at least two versions, but got %s arguments",
+                    positional.size());
+        } else {
+            checkArgument(positional.size() == 2, "Expected a source and a target, but got %s arguments",
+                    positional.size());
+        }
+        for (String version : positional) {
+            builder.versions.add(new File(version));
+        }
+        builder.source = builder.versions.get(0);
+        builder.target = builder.versions.get(1);
+
+        boolean affine = builder.gapOpen != null && builder.gapOpen != builder.gap;
+        checkArgument(builder.gap <= 0, "--gap must not be positive");
+        checkArgument(!affine || builder.gapOpen <= builder.gap, "--gap-open must be at most --gap");
+        checkArgument(builder.band >= 0, "--band must not be negative");
+        checkArgument(builder.band == 0 || builder.algorithm == Algorithm.GLOBAL,
+                "--band is only supported by the global algorithm");
+        checkArgument(builder.band == 0 || !affine, "--band is not supported with affine gaps");
+        checkArgument(!affine || builder.algorithm == Algorithm.LOCAL || builder.algorithm == Algorithm.GLOBAL,
+                "Affine gaps are not supported by the quantized algorithms");
+        checkArgument(builder.threads > 0, "--threads must be positive");
+        checkArgument(builder.memory > 0, "--memory must be positive");
+        checkArgument(builder.candidates > 0, "--candidates must be positive");
+        checkArgument(builder.scoreCache >= 0, "--score-cache must not be negative");
+        checkArgument(!builder.history || !builder.pairs, "--pairs is not supported with --history");
+        checkArgument(!builder.history || !builder.operands, "--operands is not supported with --history");
+        checkArgument(builder.cache == null || !builder.operands, "--cache is not supported with --operands");
+        checkArgument(builder.cache == null || !builder.history, "--cache is not supported with --history");
+
+        return new Options(builder);
+    }
+
+    private static String constant(String name, String value, Enum<?>[] constants) {
+        String constant = value.toUpperCase(Locale.ROOT).replace('-', '_');
+        for (Enum<?> candidate : constants) {
+            if (candidate.name().equals(constant)) {
+                return constant;
+            }
+        }
+        throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+    }
+
+    private static int parseInt(String name, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for " + name + ": " + value, e);
+        }
+    }
+
+    private static float parseFloat(String name, String value) {
+        try {
+            return Float.parseFloat(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for " + name + ": " + value, e);
+        }
+    }
+
+    /**
+     * Parses a size in bytes, optionally suffixed by k, m or g.
+     *
+     * @param name the name of the option, for the error message
+     * @param value the size to parse
+     * @return the size in bytes
+     * @throws IllegalArgumentException in case the size is invalid
+     */
+    public static long parseSize(String name, String value) {
+        String size = value.toLowerCase(Locale.ROOT);
+        int shift = 0;
+        if (size.endsWith("k")) {
+            shift = 10;
+        } else if (size.endsWith("m")) {
+            shift = 20;
+        } else if (size.endsWith("g")) {
+            shift = 30;
+        }
+        if (shift > 0) {
+            size = size.substring(0, size.length() - 1);
+        }
+
+        try {
+            return Long.parseLong(size) << shift;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for " + name + ": " + value, e);
+        }
+    }
+
+    /**
+     * Returns the versions of a history, in order. Without {@code --history} these are the source and the target.
+     *
+     * @return the jars given on the command line
+     */
+    public List<File> versions() {
+        return versions;
+    }
+
+    public File source() {
+        return source;
+    }
+
+    public File target() {
+        return target;
+    }
+
+    public Algorithm algorithm() {
+        return algorithm;
+    }
+
+    public float gap() {
+        return gap;
+    }
+
+    public float gapOpen() {
+        return gapOpen;
+    }
+
+    public int band() {
+        return band;
+    }
+
+    /**
+     * Returns whether instructions are encoded with the classes of their operands by an {@code OperandSubstitution}.
+     *
+     * @return whether operands are compared
+     */
+    public boolean operands() {
+        return operands;
+    }
+
+    public int threads() {
+        return threads;
+    }
+
+    public long memory() {
+        return memory;
+    }
+
+    /**
+     * Returns the directory of the {@code SequenceCache} the jars are loaded through.
+     *
+     * @return the cache directory, or null to parse every jar
+     */
+    public File cache() {
+        return cache;
+    }
+
+    public int candidates() {
+        return candidates;
+    }
+
+    /**
+     * Returns the maximum amount of pairs whose scores are cached by a {@code CachingSimilarity}.
+     *
+     * @return the size of the score cache, or 0 if scores are not cached
+     */
+    public int scoreCache() {
+        return scoreCache;
+    }
+
+    public boolean history() {
+        return history;
+    }
+
+    public boolean pairs() {
+        return pairs;
+    }
+
+    public float minScore() {
+        return minScore;
+    }
+
+    public Format format() {
+        return format;
+    }
+
+    /**
+     * Returns the file to write the results to.
+     *
+     * @return the output file, or null to write to standard output
+     */
+    public File output() {
+        return output;
+    }
+
+    public boolean metrics() {
+        return metrics;
+    }
+
+    public boolean help() {
+        return help;
+    }
+
+    private static final class Builder {
+
+        private final List<File> versions = new ArrayList<>();
+        private File source;
+        private File target;
+        private Algorithm algorithm = Algorithm.LOCAL;
+        private float gap = -0.5f;
+        private Float gapOpen;
+        private int band;
+        private boolean operands;
+        private int threads = Runtime.getRuntime().availableProcessors();
+        private long memory = Runtime.getRuntime().maxMemory();
+        private File cache;
+        private int candidates = 5;
+        private int scoreCache;
+        private boolean history;
+        private boolean pairs;
+        private float minScore = 0.5f;
+        private Format format = Format.CSV;
+        private File output;
+        private boolean metrics;
+        private boolean help;
+    }
+
+    @Override
+    public String toString() {
+        return "Options [versions=" + versions + ", algorithm=" + algorithm + ", gap=" + gap + ", gapOpen=" + gapOpen
+                + ", band=" + band + ", operands=" + operands + ", threads=" + threads + ", memory=" + memory
+                + ", cache=" + cache + ", candidates=" + candidates + ", scoreCache=" + scoreCache
+                + ", history=" + history + ", pairs=" + pairs + ", minScore=" + minScore + ", format=" + format + ", output=" + output + "]";
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.mapping;
+
+import nl.utwente.mapper.metrics.MethodSequence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An index over target methods which returns a short list of plausible candidates for a source method, so that the
+ * quadratic alignment only has to be run on those. Every method is summarized by a MinHash signature of its opcode
+ * n-grams, and the signatures are split into bands which are hashed into buckets (locality-sensitive hashing). Two
+ * methods become candidates of each other when any of their bands collide, after which the candidates are ranked by
+ * the estimated Jaccard similarity of their n-gram sets.
+ *
+ * <p>
+ * The amount of bands and rows per band determines the similarity from which methods are likely to collide, which is
+ * roughly {@code (1 / bands) ^ (1 / rows)}. More bands increase the recall, at the cost of more candidates.
+ *
+ * <p>
+ * This class is immutable and thread-safe.
+ *
+ * @see <a href="https://en.wikipedia.org/wiki/MinHash">Wikipedia - MinHash</a>
+ */
+public final class CandidateIndex {
+
+    private static final int DEFAULT_GRAM = 3;
+    private static final int DEFAULT_BANDS = 16;
+    private static final int DEFAULT_ROWS = 2;
+    private static final int DEFAULT_LIMIT = 32;
+
+    private final List<MethodSequence> targets;
+    private final int gram;
+    private final int bands;
+    private final int rows;
+    private final int limit;
+    private final float minSimilarity;
+
+    private final int[][] signatures;
+    private final List<Map<Long, int[]>> buckets;
+
+    /**
+     * Constructs a new index over the given targets with default settings.
+     *
+     * @param targets the encoded target methods
+     */
+    public CandidateIndex(List<MethodSequence> targets) {
+        this(targets, DEFAULT_GRAM, DEFAULT_BANDS, DEFAULT_ROWS, DEFAULT_LIMIT, 0.0f);
+    }
+
+    /**
+     * Constructs a new index over the given targets.
+     *
+     * @param targets the encoded target methods
+     * @param gram the length of the opcode n-grams
+     * @param bands the amount of LSH bands
+     * @param rows the amount of MinHash values per band
+     * @param limit the maximum amount of candidates returned per source
+     * @param minSimilarity the minimum estimated Jaccard similarity of a returned candidate
+     */
+    public CandidateIndex(List<MethodSequence> targets, int gram, int bands, int rows, int limit,
+                          float minSimilarity) {
+        checkNotNull(targets);
+        checkArgument(gram > 0);
+        checkArgument(bands > 0);
+        checkArgument(rows > 0);
+        checkArgument(limit > 0);
+        checkArgument(minSimilarity >= 0.0f && minSimilarity <= 1.0f);
+        this.targets = targets;
+        this.gram = gram;
+        this.bands = bands;
+        this.rows = rows;
+        this.limit = limit;
+        this.minSimilarity = minSimilarity;
+
+        this.signatures = new int[targets.size()][];
+        List<Map<Long, List<Integer>>> builders = new ArrayList<>(bands);
+        for (int b = 0; b < bands; b++) {
+            builders.add(new HashMap<>());
+        }
+
+        for (int i = 0; i < targets.size(); i++) {
+            signatures[i] = signature(targets.get(i));
+            for (int b = 0; b < bands; b++) {
+                builders.get(b).computeIfAbsent(bandKey(signatures[i], b), key -> new ArrayList<>()).add(i);
+            }
+        }
+
+        this.buckets = new ArrayList<>(bands);
+        for (Map<Long, List<Integer>> builder : builders) {
+            Map<Long, int[]> band = new HashMap<>(builder.size() * 2);
+            for (Map.Entry<Long, List<Integer>> entry : builder.entrySet()) {
+                band.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+            }
+            buckets.add(band);
+        }
+    }
+
+    public List<MethodSequence> targets() {
+        return targets;
+    }
+
+    /**
+     * Returns the indices of the plausible targets of the given source, ordered from the most to the least similar
+     * estimate.
+     *
+     * @param source the encoded source method
+     * @return at most {@code limit} indices into the list of targets
+     */
+    public int[] candidates(MethodSequence source) {
+        int[] signature = signature(source);
+
+        int[] found = new int[0];
+        int size = 0;
+        for (int b = 0; b < bands; b++) {
+            int[] bucket = buckets.get(b).get(bandKey(signature, b));
+            if (bucket == null) {
+                continue;
+            }
+            if (size + bucket.length > found.length) {
+                found = Arrays.copyOf(found, Math.max(found.length * 2, size + bucket.length));
+            }
+            System.arraycopy(bucket, 0, found, size, bucket.length);
+            size += bucket.length;
+        }
+
+        // Remove the targets found in multiple bands, and rank the remainder on their estimated similarity.
+        Arrays.sort(found, 0, size);
+        long[] ranked = new long[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (i > 0 && found[i] == found[i - 1]) {
+                continue;
+            }
+            int matches = 0;
+            int[] other = signatures[found[i]];
+            for (int h = 0; h < signature.length; h++) {
+                if (signature[h] == other[h]) {
+                    matches++;
+                }
+            }
+            if ((float) matches / signature.length >= minSimilarity) {
+                // Pack the inverted match count above the index, so sorting orders by descending similarity first.
+                ranked[count++] = ((long) (signature.length - matches) << 32) | found[i];
+            }
+        }
+        Arrays.sort(ranked, 0, count);
+
+        int[] candidates = new int[Math.min(count, limit)];
+        for (int i = 0; i < candidates.length; i++) {
+            candidates[i] = (int) ranked[i];
+        }
+        return candidates;
+    }
+
+    /**
+     * Measures the recall of this index against an exhaustive run: the fraction of sources for which a best scoring
+     * target over all targets is among the candidates returned by this index. When several targets tie at the best
+     * score, any of them counts, so the recall does not depend on the order in which the scores arrive. This runs the
+     * full quadratic scoring and is only meant for tuning the settings of the index.
+     *
+     * @param sources the encoded source methods
+     * @param scorer the scorer to run the exhaustive comparison with
+     * @return the recall of this index, between 0 and 1
+     * @throws InterruptedException in case the thread was interrupted while waiting for the scoring tasks
+     */
+    public float recall(List<MethodSequence> sources, ParallelScorer scorer) throws InterruptedException {
+        if (sources.isEmpty()) {
+            return 1.0f;
+        }
+
+        Best[] best = new Best[sources.size()];
+        for (int i = 0; i < best.length; i++) {
+            best[i] = new Best(candidates(sources.get(i)));
+        }
+
+        scorer.score(sources, targets, (source, target, score) -> {
+            Best top = best[source];
+            synchronized (top) {
+                top.offer(target, score);
+            }
+        });
+
+        int hits = 0;
+        for (Best top : best) {
+            if (top.recalled()) {
+                hits++;
+            }
+        }
+
+        return (float) hits / sources.size();
+    }
+
+    /**
+     * Calculates the MinHash signature of the n-grams of a sequence. Sequences shorter than the n-gram length are
+     * treated as a single n-gram.
+     */
+    private int[] signature(MethodSequence sequence) {
+        short[] symbols = sequence.symbols();
+        int[] signature = new int[bands * rows];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+
+        int grams = Math.max(1, symbols.length - gram + 1);
+        for (int start = 0; start < grams; start++) {
+            long hash = 0;
+            for (int k = start; k < Math.min(start + gram, symbols.length); k++) {
+                hash = hash * 31 + symbols[k];
+            }
+
+            for (int h = 0; h < signature.length; h++) {
+                int value = (int) mix(hash + h * 0x9E3779B97F4A7C15L);
+                if (value < signature[h]) {
+                    signature[h] = value;
+                }
+            }
+        }
+
+        return signature;
+    }
+
+    private long bandKey(int[] signature, int band) {
+        long key = band;
+        for (int r = band * rows; r < (band + 1) * rows; r++) {
+            key = key * 0x100000001B3L + signature[r];
+        }
+        return mix(key);
+    }
+
+    /**
+     * The finalizer of MurmurHash3, used to derive independent hash functions from a single n-gram hash.
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB93FE53A9C1BL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "CandidateIndex [targets=" + targets.size() + ", gram=" + gram + ", bands=" + bands
+                + ", rows=" + rows + ", limit=" + limit + ", minSimilarity=" + minSimilarity + "]";
+    }
+
+    /**
+     * The best score of a source over all targets and over its candidates alone.
+     */
+    private static final class Best {
+
+        private final int[] candidates;
+        private float overall = Float.NEGATIVE_INFINITY;
+        private float candidate = Float.NEGATIVE_INFINITY;
+        private boolean scored;
+
+        private Best(int[] candidates) {
+            this.candidates = candidates;
+        }
+
+        private void offer(int target, float score) {
+            if (Float.isNaN(score)) {
+                return;
+            }
+            scored = true;
+            overall = Math.max(overall, score);
+            for (int c : candidates) {
+                if (c == target) {
+                    candidate = Math.max(candidate, score);
+                    break;
+                }
+            }
+        }
+
+        private boolean recalled() {
+            return scored && candidate == overall;
+        }
+    }
+}
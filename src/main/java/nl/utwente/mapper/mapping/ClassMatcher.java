@@ -0,0 +1,252 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.mapping;
+
+import nl.utwente.mapper.metrics.TopScores;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * Matches the classes of a source jar onto the classes of a target jar, so that methods only need to be aligned
+ * against the methods of the few target classes that resemble their own class. Each class is summarised by a profile,
+ * and every source class is scored against every target class on:
+ *
+ * <ul>
+ * <li>the cosine similarity of the opcode histograms of their methods,</li>
+ * <li>the overlap of the signatures of their methods,</li>
+ * <li>the ratio of their field counts, and</li>
+ * <li>their superclass and interfaces.</li>
+ * </ul>
+ *
+ * References to classes inside the jar are erased from signatures and the hierarchy, as these are the names which
+ * are expected to change between the jars. References to classes outside the jar, such as those of the JDK, are
+ * kept.
+ *
+ * <p>
+ * This class is immutable and thread-safe.
+ */
+public final class ClassMatcher {
+
+    private static final int DEFAULT_CANDIDATES = 3;
+
+    private static final float HISTOGRAM_WEIGHT = 0.4f;
+    private static final float SIGNATURE_WEIGHT = 0.3f;
+    private static final float FIELD_WEIGHT = 0.1f;
+    private static final float HIERARCHY_WEIGHT = 0.2f;
+
+    private static final Pattern REFERENCE = Pattern.compile("L([^;]+);");
+    private static final String ERASED = "L;";
+
+    private final int candidates;
+
+    /**
+     * Constructs a new matcher which retains the best 3 target classes of each source class.
+     */
+    public ClassMatcher() {
+        this(DEFAULT_CANDIDATES);
+    }
+
+    /**
+     * Constructs a new matcher.
+     *
+     * @param candidates the amount of best scoring target classes retained per source class
+     */
+    public ClassMatcher(int candidates) {
+        checkArgument(candidates > 0);
+        this.candidates = candidates;
+    }
+
+    /**
+     * Scores every source class against every target class and returns the best candidates of each source class. The
+     * classes are compared on the calling thread, as comparing their profiles is cheap next to aligning their methods.
+     *
+     * @param source the classes of the source jar, as returned by the JarLoader
+     * @param target the classes of the target jar, as returned by the JarLoader
+     * @return the candidate class pairs, ordered by source class name and then from the highest to the lowest score
+     */
+    public List<ClassMatch> match(Map<String, ClassNode> source, Map<String, ClassNode> target) {
+        List<Profile> sources = profiles(source);
+        List<Profile> targets = profiles(target);
+
+        List<ClassMatch> matches = new ArrayList<>(sources.size() * candidates);
+        for (Profile profile : sources) {
+            TopScores top = new TopScores(candidates);
+            for (int j = 0; j < targets.size(); j++) {
+                top.offer(j, profile.compare(targets.get(j)));
+            }
+
+            List<ClassMatch> best = new ArrayList<>(top.size());
+            for (int c = 0; c < top.size(); c++) {
+                best.add(new ClassMatch(profile.name, targets.get(top.index(c)).name, top.score(c)));
+            }
+            best.sort((a, b) -> Float.compare(b.score(), a.score()));
+            matches.addAll(best);
+        }
+        return matches;
+    }
+
+    private static List<Profile> profiles(Map<String, ClassNode> classes) {
+        Set<String> names = new HashSet<>();
+        for (ClassNode classNode : classes.values()) {
+            names.add(classNode.name);
+        }
+
+        List<Profile> profiles = new ArrayList<>(classes.size());
+        for (ClassNode classNode : new TreeMap<>(classes).values()) {
+            profiles.add(new Profile(classNode, names));
+        }
+        return profiles;
+    }
+
+    /**
+     * Replaces all references to the given classes in a descriptor by an erased reference.
+     */
+    private static String erase(String descriptor, Set<String> names) {
+        Matcher matcher = REFERENCE.matcher(descriptor);
+        StringBuffer erased = new StringBuffer(descriptor.length());
+        while (matcher.find()) {
+            matcher.appendReplacement(erased, names.contains(matcher.group(1))
+                    ? ERASED : Matcher.quoteReplacement(matcher.group()));
+        }
+        return matcher.appendTail(erased).toString();
+    }
+
+    private static float ratio(int a, int b) {
+        return a == b ? 1 : (float) min(a, b) / max(a, b);
+    }
+
+    /**
+     * Returns the weighted Jaccard similarity of two multisets, or 1 if both are empty.
+     */
+    private static float overlap(Map<String, Integer> a, Map<String, Integer> b) {
+        if (a.isEmpty() && b.isEmpty()) {
+            return 1;
+        }
+
+        int intersection = 0;
+        int union = 0;
+        for (Map.Entry<String, Integer> entry : a.entrySet()) {
+            int other = b.getOrDefault(entry.getKey(), 0);
+            intersection += min(entry.getValue(), other);
+            union += max(entry.getValue(), other);
+        }
+        for (Map.Entry<String, Integer> entry : b.entrySet()) {
+            if (!a.containsKey(entry.getKey())) {
+                union += entry.getValue();
+            }
+        }
+        return (float) intersection / union;
+    }
+
+    /**
+     * The features of a single class which are used to compare it against other classes.
+     */
+    private static final class Profile {
+
+        private final String name;
+        private final float[] histogram = new float[256];
+        private final Map<String, Integer> signatures = new HashMap<>();
+        private final Map<String, Integer> interfaces = new HashMap<>();
+        private final String superName;
+        private final int fields;
+        private final boolean empty;
+
+        private Profile(ClassNode classNode, Set<String> names) {
+            this.name = classNode.name;
+            this.superName = classNode.superName == null ? null : erase("L" + classNode.superName + ";", names);
+            this.fields = classNode.fields.size();
+
+            for (String interfaceName : classNode.interfaces) {
+                interfaces.merge(erase("L" + interfaceName + ";", names), 1, Integer::sum);
+            }
+
+            double norm = 0;
+            for (MethodNode methodNode : classNode.methods) {
+                signatures.merge(erase(methodNode.desc, names), 1, Integer::sum);
+                for (AbstractInsnNode node = methodNode.instructions.getFirst(); node != null; node = node.getNext()) {
+                    if (node.getOpcode() >= 0) {
+                        histogram[node.getOpcode()]++;
+                    }
+                }
+            }
+            for (float count : histogram) {
+                norm += count * count;
+            }
+
+            this.empty = norm == 0;
+
+            // Normalise the histogram so the cosine similarity reduces to a dot product.
+            if (!empty) {
+                float scale = (float) (1 / java.lang.Math.sqrt(norm));
+                for (int i = 0; i < histogram.length; i++) {
+                    histogram[i] *= scale;
+                }
+            }
+        }
+
+        /**
+         * Returns the similarity of this class and the given class, ranging from 0 to 1.
+         */
+        private float compare(Profile other) {
+            float cosine = 0;
+            for (int i = 0; i < histogram.length; i++) {
+                cosine += histogram[i] * other.histogram[i];
+            }
+
+            // Classes without any code, such as most interfaces, have nothing to tell apart by their histograms.
+            if (empty && other.empty) {
+                cosine = 1;
+            }
+
+            float hierarchy = 0.5f * (Objects.equals(superName, other.superName) ? 1 : 0)
+                    + 0.5f * overlap(interfaces, other.interfaces);
+
+            return HISTOGRAM_WEIGHT * cosine
+                    + SIGNATURE_WEIGHT * overlap(signatures, other.signatures)
+                    + FIELD_WEIGHT * ratio(fields, other.fields)
+                    + HIERARCHY_WEIGHT * hierarchy;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ClassMatcher [candidates=" + candidates + "]";
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.mapping;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import nl.utwente.mapper.metrics.MethodSequence;
+import nl.utwente.mapper.metrics.MethodSimilarity;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.MultiANewArrayInsnNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Resolves the methods which are identical between two jars before any alignment is run. Every method is hashed
+ * twice: an exact fingerprint covering the opcodes and all operands, and a normalized fingerprint which ignores
+ * constants and the owners of referenced members and types. Methods are first bucketed on their exact fingerprint
+ * and then on their normalized fingerprint, and every bucket holding exactly one source and one target method is
+ * matched immediately. Only the remaining methods need to be aligned, and matched pairs with identical sequences are
+ * scored by the {@link MethodSimilarity#selfScore(MethodSequence) self-score} of the metric rather than aligned.
+ *
+ * <p>
+ * Both fingerprints cover the control flow of a method, as jumps and switches are hashed by the positions of their
+ * targets. Pseudo-instructions such as labels and line numbers are skipped.
+ *
+ * <p>
+ * This class is immutable and thread-safe if its similarity metric is.
+ */
+public final class FingerprintMatcher {
+
+    private final MethodSimilarity similarity;
+
+    /**
+     * Constructs a new matcher.
+     *
+     * @param similarity the metric used to encode the methods and to score the matched pairs
+     */
+    public FingerprintMatcher(MethodSimilarity similarity) {
+        this.similarity = checkNotNull(similarity);
+    }
+
+    /**
+     * Matches the methods with a unique fingerprint in both jars. Abstract and native methods are skipped, like in
+     * {@link JarMapper#encode(Map)}.
+     *
+     * @param source the classes of the source jar, as returned by the JarLoader
+     * @param target the classes of the target jar, as returned by the JarLoader
+     * @return the matched pairs and the methods which are left to be aligned
+     */
+    public Result match(Map<String, ClassNode> source, Map<String, ClassNode> target) {
+        List<Method> sources = fingerprint(source);
+        List<Method> targets = fingerprint(target);
+        List<MethodMatch> matches = new ArrayList<>();
+
+        matchUnique(sources, targets, matches, true);
+        matchUnique(sources, targets, matches, false);
+
+        return new Result(matches, sequences(sources), sequences(targets));
+    }
+
+    /**
+     * Returns a hash of the opcodes and all operands of the given method.
+     *
+     * @param method the method to hash
+     * @return the exact fingerprint of the method
+     */
+    public static long exact(MethodNode method) {
+        return hash(method, true);
+    }
+
+    /**
+     * Returns a hash of the opcodes of the given method and the operands which describe its structure. Constants and
+     * the owners of referenced fields, methods and types are left out.
+     *
+     * @param method the method to hash
+     * @return the normalized fingerprint of the method
+     */
+    public static long normalized(MethodNode method) {
+        return hash(method, false);
+    }
+
+    private List<Method> fingerprint(Map<String, ClassNode> classes) {
+        List<Method> methods = new ArrayList<>();
+        for (ClassNode classNode : new TreeMap<>(classes).values()) {
+            for (MethodNode methodNode : classNode.methods) {
+                if (methodNode.instructions.size() > 0) {
+                    methods.add(new Method(similarity.encode(classNode.name, methodNode),
+                            exact(methodNode), normalized(methodNode)));
+                }
+            }
+        }
+        return methods;
+    }
+
+    /**
+     * Matches the methods whose fingerprint occurs exactly once in both lists, and removes them from the lists.
+     */
+    private void matchUnique(List<Method> sources, List<Method> targets, List<MethodMatch> matches, boolean exact) {
+        Map<Long, int[]> buckets = new HashMap<>();
+        for (Method method : sources) {
+            buckets.computeIfAbsent(method.fingerprint(exact), key -> new int[2])[0]++;
+        }
+        for (Method method : targets) {
+            buckets.computeIfAbsent(method.fingerprint(exact), key -> new int[2])[1]++;
+        }
+
+        Map<Long, Method> uniqueSources = new HashMap<>();
+        List<Method> remainingSources = new ArrayList<>();
+        for (Method method : sources) {
+            int[] bucket = buckets.get(method.fingerprint(exact));
+            if (bucket[0] == 1 && bucket[1] == 1) {
+                uniqueSources.put(method.fingerprint(exact), method);
+            } else {
+                remainingSources.add(method);
+            }
+        }
+
+        List<Method> remainingTargets = new ArrayList<>();
+        for (Method method : targets) {
+            Method match = uniqueSources.get(method.fingerprint(exact));
+            if (match != null) {
+                // Pseudo-instructions are not fingerprinted, so even exact matches may differ in their sequences.
+                float score = match.sequence.contentEquals(method.sequence)
+                        ? similarity.selfScore(match.sequence)
+                        : similarity.compare(match.sequence, method.sequence);
+                matches.add(new MethodMatch(match.sequence, method.sequence, score));
+            } else {
+                remainingTargets.add(method);
+            }
+        }
+
+        sources.clear();
+        sources.addAll(remainingSources);
+        targets.clear();
+        targets.addAll(remainingTargets);
+    }
+
+    private static List<MethodSequence> sequences(List<Method> methods) {
+        List<MethodSequence> sequences = new ArrayList<>(methods.size());
+        for (Method method : methods) {
+            sequences.add(method.sequence);
+        }
+        return sequences;
+    }
+
+    private static long hash(MethodNode method, boolean exact) {
+        // Number the labels by the amount of instructions preceding them, so jumps hash by the position of their
+        // target.
+        Map<LabelNode, Integer> labels = new HashMap<>();
+        int index = 0;
+        for (AbstractInsnNode node = method.instructions.getFirst(); node != null; node = node.getNext()) {
+            if (node instanceof LabelNode) {
+                labels.put((LabelNode) node, index);
+            } else if (node.getOpcode() >= 0) {
+                index++;
+            }
+        }
+
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        hasher.putUnencodedChars(method.desc);
+
+        for (AbstractInsnNode node = method.instructions.getFirst(); node != null; node = node.getNext()) {
+            if (node.getOpcode() < 0) {
+                continue;
+            }
+            hasher.putInt(node.getOpcode());
+
+            switch (node.getType()) {
+                case AbstractInsnNode.INT_INSN:
+                    IntInsnNode intInsn = (IntInsnNode) node;
+                    // The operand of NEWARRAY is a type, the operands of BIPUSH and SIPUSH are constants.
+                    if (exact || intInsn.getOpcode() == Opcodes.NEWARRAY) {
+                        hasher.putInt(intInsn.operand);
+                    }
+                    break;
+                case AbstractInsnNode.VAR_INSN:
+                    hasher.putInt(((VarInsnNode) node).var);
+                    break;
+                case AbstractInsnNode.TYPE_INSN:
+                    if (exact) {
+                        hasher.putUnencodedChars(((TypeInsnNode) node).desc);
+                    }
+                    break;
+                case AbstractInsnNode.FIELD_INSN:
+                    FieldInsnNode fieldInsn = (FieldInsnNode) node;
+                    if (exact) {
+                        hasher.putUnencodedChars(fieldInsn.owner);
+                    }
+                    hasher.putUnencodedChars(fieldInsn.name).putUnencodedChars(fieldInsn.desc);
+                    break;
+                case AbstractInsnNode.METHOD_INSN:
+                    MethodInsnNode methodInsn = (MethodInsnNode) node;
+                    if (exact) {
+                        hasher.putUnencodedChars(methodInsn.owner);
+                    }
+                    hasher.putUnencodedChars(methodInsn.name).putUnencodedChars(methodInsn.desc);
+                    break;
+                case AbstractInsnNode.INVOKE_DYNAMIC_INSN:
+                    InvokeDynamicInsnNode indyInsn = (InvokeDynamicInsnNode) node;
+                    hasher.putUnencodedChars(indyInsn.name).putUnencodedChars(indyInsn.desc);
+                    if (exact) {
+                        hasher.putUnencodedChars(String.valueOf(indyInsn.bsm))
+                                .putUnencodedChars(Arrays.toString(indyInsn.bsmArgs));
+                    }
+                    break;
+                case AbstractInsnNode.JUMP_INSN:
+                    hasher.putInt(labels.get(((JumpInsnNode) node).label));
+                    break;
+                case AbstractInsnNode.LDC_INSN:
+                    Object constant = ((LdcInsnNode) node).cst;
+                    hasher.putUnencodedChars(exact ? constant.getClass().getName() + constant
+                            : constant.getClass().getName());
+                    break;
+                case AbstractInsnNode.IINC_INSN:
+                    IincInsnNode iincInsn = (IincInsnNode) node;
+                    hasher.putInt(iincInsn.var);
+                    if (exact) {
+                        hasher.putInt(iincInsn.incr);
+                    }
+                    break;
+                case AbstractInsnNode.TABLESWITCH_INSN:
+                    TableSwitchInsnNode tableSwitch = (TableSwitchInsnNode) node;
+                    if (exact) {
+                        hasher.putInt(tableSwitch.min).putInt(tableSwitch.max);
+                    }
+                    hasher.putInt(labels.get(tableSwitch.dflt));
+                    for (LabelNode label : tableSwitch.labels) {
+                        hasher.putInt(labels.get(label));
+                    }
+                    break;
+                case AbstractInsnNode.LOOKUPSWITCH_INSN:
+                    LookupSwitchInsnNode lookupSwitch = (LookupSwitchInsnNode) node;
+                    if (exact) {
+                        for (Integer key : lookupSwitch.keys) {
+                            hasher.putInt(key);
+                        }
+                    }
+                    hasher.putInt(labels.get(lookupSwitch.dflt));
+                    for (LabelNode label : lookupSwitch.labels) {
+                        hasher.putInt(labels.get(label));
+                    }
+                    break;
+                case AbstractInsnNode.MULTIANEWARRAY_INSN:
+                    MultiANewArrayInsnNode multiANewArray = (MultiANewArrayInsnNode) node;
+                    if (exact) {
+                        hasher.putUnencodedChars(multiANewArray.desc);
+                    }
+                    hasher.putInt(multiANewArray.dims);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        return hasher.hash().asLong();
+    }
+
+    @Override
+    public String toString() {
+        return "FingerprintMatcher [similarity=" + similarity + "]";
+    }
+
+    /**
+     * The methods resolved by their fingerprints, and the methods which are left to be aligned.
+     */
+    public static final class Result {
+
+        private final List<MethodMatch> matches;
+        private final List<MethodSequence> sources;
+        private final List<MethodSequence> targets;
+
+        private Result(List<MethodMatch> matches, List<MethodSequence> sources, List<MethodSequence> targets) {
+            this.matches = Collections.unmodifiableList(matches);
+            this.sources = Collections.unmodifiableList(sources);
+            this.targets = Collections.unmodifiableList(targets);
+        }
+
+        public List<MethodMatch> matches() {
+            return matches;
+        }
+
+        /**
+         * Returns the source methods which could not be matched on their fingerprints.
+         *
+         * @return the remaining source methods, ordered by class name
+         */
+        public List<MethodSequence> sources() {
+            return sources;
+        }
+
+        /**
+         * Returns the target methods which could not be matched on their fingerprints.
+         *
+         * @return the remaining target methods, ordered by class name
+         */
+        public List<MethodSequence> targets() {
+            return targets;
+        }
+    }
+
+    private static final class Method {
+
+        private final MethodSequence sequence;
+        private final long exact;
+        private final long normalized;
+
+        private Method(MethodSequence sequence, long exact, long normalized) {
+            this.sequence = sequence;
+            this.exact = exact;
+            this.normalized = normalized;
+        }
+
+        private long fingerprint(boolean exact) {
+            return exact ? this.exact : normalized;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.mapping;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import nl.utwente.mapper.metrics.MethodSequence;
+import nl.utwente.mapper.metrics.MethodSimilarity;
+import nl.utwente.mapper.metrics.functions.AdaptiveSubstitution;
+import nl.utwente.mapper.metrics.functions.OpcodeCorpus;
+import nl.utwente.mapper.monitoring.Counter;
+import nl.utwente.mapper.monitoring.MappingListener;
+import nl.utwente.mapper.monitoring.Phase;
+import nl.utwente.mapper.util.JarLoader;
+import org.objectweb.asm.ClassReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Maps a history of versions of a jar, each version onto the next, as the versions arrive. Consecutive versions
+ * usually differ in a few classes only, so every step only does work for the classes which changed:
+ *
+ * <ul>
+ * <li>Class files are hashed, and only classes whose bytes differ from the previous version are parsed. Unchanged
+ * classes keep their sequences.</li>
+ * <li>The methods of unchanged classes are matched onto themselves, scored by the
+ * {@link MethodSimilarity#selfScore(MethodSequence) self-score} of the metric without aligning them.</li>
+ * <li>Only the methods of changed and removed classes are aligned against those of changed and added classes.</li>
+ * <li>The opcode counts of the latest version are kept in an {@link OpcodeCorpus}, which is only updated with the
+ * classes that changed. The substitution function of a step is created from the counts of both versions.</li>
+ * </ul>
+ *
+ * <p>
+ * This class is not thread-safe; versions must be added one at a time.
+ */
+public final class HistoryMapper {
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final Function<AdaptiveSubstitution, MethodSimilarity> metric;
+    private final ExecutorService executor;
+    private final int threads;
+    private final int candidates;
+    private final MappingListener listener;
+
+    /**
+     * The opcode counts of the latest version.
+     */
+    private final OpcodeCorpus corpus = new OpcodeCorpus();
+
+    /**
+     * The classes of the latest version, by name.
+     */
+    private Map<String, ClassEntry> latest;
+    private File latestJar;
+
+    /**
+     * Constructs a new history mapper.
+     *
+     * @param metric creates the similarity metric of a step from the substitution function over both its versions
+     * @param executor the executor to score the changed methods on
+     * @param threads the amount of scoring tasks to split each step into
+     * @param candidates the amount of best targets kept per source method for assignment
+     * @param listener the listener notified of the progress of every step
+     */
+    public HistoryMapper(Function<AdaptiveSubstitution, MethodSimilarity> metric, ExecutorService executor,
+                         int threads, int candidates, MappingListener listener) {
+        checkArgument(threads > 0);
+        checkArgument(candidates > 0);
+        this.metric = checkNotNull(metric);
+        this.executor = checkNotNull(executor);
+        this.threads = threads;
+        this.candidates = candidates;
+        this.listener = checkNotNull(listener);
+    }
+
+    /**
+     * Adds the next version of the history, and maps the previous version onto it.
+     *
+     * @param jar the next version
+     * @return the mapping of the previous version onto the given version, or null if it is the first version
+     * @throws IOException in case the jar could not be loaded
+     * @throws InterruptedException in case the thread was interrupted while waiting for the scoring tasks
+     */
+    public Step next(File jar) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Map<String, ClassEntry> previous = latest;
+        Map<String, ClassEntry> classes = new TreeMap<>();
+        int[] parsed = new int[1];
+        int[] loaded = new int[1];
+        JarLoader.readClassFiles(jar, bytes -> {
+            String name = new ClassReader(bytes).getClassName();
+            long hash = HASH.hashBytes(bytes).asLong();
+
+            ClassEntry entry = previous == null ? null : previous.get(name);
+            if (entry == null || entry.hash != hash) {
+                entry = new ClassEntry(hash, JarLoader.readSequences(bytes));
+                parsed[0] += entry.sequences.size();
+            }
+            if (!entry.sequences.isEmpty()) {
+                loaded[0]++;
+            }
+            classes.put(name, entry);
+        });
+        listener.phase(Phase.LOAD, System.nanoTime() - start);
+        listener.count(Counter.CLASSES_LOADED, loaded[0]);
+        listener.count(Counter.METHODS_ENCODED, parsed[0]);
+
+        // The sources are the methods of the previous version whose class changed or was removed, the targets those
+        // of the next version whose class changed or was added. Identical entries are shared between the versions.
+        List<MethodSequence> carried = new ArrayList<>();
+        List<MethodSequence> sources = new ArrayList<>();
+        List<MethodSequence> targets = new ArrayList<>();
+        if (previous != null) {
+            for (Map.Entry<String, ClassEntry> entry : previous.entrySet()) {
+                if (classes.get(entry.getKey()) == entry.getValue()) {
+                    carried.addAll(entry.getValue().sequences);
+                } else {
+                    sources.addAll(entry.getValue().sequences);
+                }
+            }
+        }
+        for (Map.Entry<String, ClassEntry> entry : classes.entrySet()) {
+            if (previous == null || previous.get(entry.getKey()) != entry.getValue()) {
+                targets.addAll(entry.getValue().sequences);
+            }
+        }
+
+        start = System.nanoTime();
+        long[] occurrences = corpus.occurrences();
+        corpus.removeSequences(sources);
+        corpus.addSequences(targets);
+
+        File previousJar = latestJar;
+        latest = classes;
+        latestJar = jar;
+        if (previous == null) {
+            listener.phase(Phase.FREQUENCIES, System.nanoTime() - start);
+            return null;
+        }
+
+        OpcodeCorpus versions = new OpcodeCorpus();
+        versions.add(occurrences);
+        versions.merge(corpus);
+        MethodSimilarity similarity = metric.apply(versions.snapshot());
+        listener.phase(Phase.FREQUENCIES, System.nanoTime() - start);
+
+        List<MethodMatch> matches = new ArrayList<>(carried.size());
+        for (MethodSequence method : carried) {
+            matches.add(new MethodMatch(method, method, similarity.selfScore(method)));
+        }
+
+        ParallelScorer scorer = new ParallelScorer(similarity, executor, threads);
+        matches.addAll(new JarMapper(scorer, candidates, listener).map(sources, targets));
+        matches.sort(Comparator.comparingDouble(MethodMatch::score).reversed());
+        return new Step(previousJar, jar, matches, carried.size(), sources.size(), targets.size());
+    }
+
+    private static final class ClassEntry {
+
+        private final long hash;
+        private final List<MethodSequence> sequences;
+
+        private ClassEntry(long hash, List<MethodSequence> sequences) {
+            this.hash = hash;
+            this.sequences = sequences;
+        }
+    }
+
+    /**
+     * The mapping of one version onto the next.
+     */
+    public static final class Step {
+
+        private final File source;
+        private final File target;
+        private final List<MethodMatch> matches;
+        private final int carried;
+        private final int sources;
+        private final int targets;
+
+        private Step(File source, File target, List<MethodMatch> matches, int carried, int sources, int targets) {
+            this.source = source;
+            this.target = target;
+            this.matches = Collections.unmodifiableList(matches);
+            this.carried = carried;
+            this.sources = sources;
+            this.targets = targets;
+        }
+
+        public File source() {
+            return source;
+        }
+
+        public File target() {
+            return target;
+        }
+
+        /**
+         * Returns the matches of the step, both carried over and aligned.
+         *
+         * @return the matched method pairs, ordered from the highest to the lowest score
+         */
+        public List<MethodMatch> matches() {
+            return matches;
+        }
+
+        /**
+         * Returns the amount of methods of unchanged classes, which were matched onto themselves.
+         *
+         * @return the amount of carried over matches
+         */
+        public int carried() {
+            return carried;
+        }
+
+        /**
+         * Returns the amount of methods of the previous version which were aligned.
+         *
+         * @return the amount of aligned source methods
+         */
+        public int sources() {
+            return sources;
+        }
+
+        /**
+         * Returns the amount of methods of the next version which were aligned.
+         *
+         * @return the amount of aligned target methods
+         */
+        public int targets() {
+            return targets;
+        }
+
+        @Override
+        public String toString() {
+            return "Step [source=" + source + ", target=" + target + ", matches=" + matches.size() + ", carried="
+                    + carried + ", sources=" + sources + ", targets=" + targets + "]";
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "HistoryMapper [latest=" + latestJar + ", candidates=" + candidates + "]";
+    }
+}
@@ -0,0 +1,375 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.mapping;
+
+import nl.utwente.mapper.metrics.MethodSequence;
+import nl.utwente.mapper.metrics.MethodSimilarity;
+import nl.utwente.mapper.metrics.TopScores;
+import nl.utwente.mapper.monitoring.Counter;
+import nl.utwente.mapper.monitoring.MappingListener;
+import nl.utwente.mapper.monitoring.Phase;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.lang.Math.addExact;
+import static java.lang.Math.multiplyExact;
+
+/**
+ * Maps the methods of a source jar onto the methods of a target jar. Every source method is scored against every
+ * target method, after which the best candidates of all source methods are assigned greedily: the highest scoring
+ * pair is matched first, and each source and target method is matched at most once.
+ *
+ * <p>
+ * Scoring is partitioned by a {@link ParallelScorer}. Only the best {@code candidates} targets of each source method
+ * are retained, so the memory used by a run is linear in the amount of source methods rather than quadratic.
+ *
+ * <p>
+ * This class is thread-safe if its similarity metric is.
+ */
+public final class JarMapper {
+
+    private static final int DEFAULT_CANDIDATES = 5;
+
+    private final ParallelScorer scorer;
+    private final MethodSimilarity similarity;
+    private final int candidates;
+    private final MappingListener listener;
+
+    /**
+     * Constructs a new mapper which runs on the common fork-join pool.
+     *
+     * @param similarity the metric used to score method pairs
+     */
+    public JarMapper(MethodSimilarity similarity) {
+        this(new ParallelScorer(similarity), DEFAULT_CANDIDATES);
+    }
+
+    /**
+     * Constructs a new mapper.
+     *
+     * @param scorer the scorer used to score method pairs in parallel
+     * @param candidates the amount of best scoring targets retained per source method for the assignment step
+     */
+    public JarMapper(ParallelScorer scorer, int candidates) {
+        this(scorer, candidates, MappingListener.NONE);
+    }
+
+    /**
+     * Constructs a new mapper which reports the duration of its phases and the amount of encoded methods to a
+     * listener. Individual comparisons can be reported by scoring with an
+     * {@link nl.utwente.mapper.metrics.InstrumentedSimilarity}.
+     *
+     * @param scorer the scorer used to score method pairs in parallel
+     * @param candidates the amount of best scoring targets retained per source method for the assignment step
+     * @param listener the listener to report to
+     */
+    public JarMapper(ParallelScorer scorer, int candidates, MappingListener listener) {
+        checkNotNull(scorer);
+        checkArgument(candidates > 0);
+        checkNotNull(listener);
+        this.scorer = scorer;
+        this.similarity = scorer.similarity();
+        this.candidates = candidates;
+        this.listener = listener;
+    }
+
+    /**
+     * Maps the methods of the source classes onto the methods of the target classes.
+     *
+     * @param source the classes of the source jar, as returned by the JarLoader
+     * @param target the classes of the target jar, as returned by the JarLoader
+     * @return the matched method pairs, ordered from the highest to the lowest score
+     * @throws InterruptedException in case the thread was interrupted while waiting for the scoring tasks
+     */
+    public List<MethodMatch> map(Map<String, ClassNode> source, Map<String, ClassNode> target)
+            throws InterruptedException {
+        return map(encode(source), encode(target));
+    }
+
+    /**
+     * Maps the given encoded source methods onto the given encoded target methods.
+     *
+     * @param sources the encoded source methods
+     * @param targets the encoded target methods
+     * @return the matched method pairs, ordered from the highest to the lowest score
+     * @throws InterruptedException in case the thread was interrupted while waiting for the scoring tasks
+     */
+    public List<MethodMatch> map(List<MethodSequence> sources, List<MethodSequence> targets)
+            throws InterruptedException {
+        List<MethodMatch> matches = new ArrayList<>();
+        map(sources, targets, matches::add);
+        return matches;
+    }
+
+    /**
+     * Maps the given encoded source methods onto the given encoded target methods, passing every match to the given
+     * consumer as soon as it is assigned. Only the candidates of each source method are kept in memory, so the
+     * matches themselves need not be.
+     *
+     * @param sources the encoded source methods
+     * @param targets the encoded target methods
+     * @param consumer the consumer of the matched method pairs, called from the highest to the lowest score
+     * @throws InterruptedException in case the thread was interrupted while waiting for the scoring tasks
+     */
+    public void map(List<MethodSequence> sources, List<MethodSequence> targets, Consumer<MethodMatch> consumer)
+            throws InterruptedException {
+        assign(sources, targets, score(sources, targets), consumer);
+    }
+
+    /**
+     * Completes a partial mapping made by a {@link FingerprintMatcher}. Only the methods which could not be matched on
+     * their fingerprints are aligned, after which they are merged with the fingerprint matches.
+     *
+     * @param partial the result of matching the jars on fingerprints
+     * @return the matched method pairs, ordered from the highest to the lowest score
+     * @throws InterruptedException in case the thread was interrupted while waiting for the scoring tasks
+     */
+    public List<MethodMatch> map(FingerprintMatcher.Result partial) throws InterruptedException {
+        List<MethodMatch> matches = new ArrayList<>(partial.matches());
+        matches.addAll(map(partial.sources(), partial.targets()));
+        matches.sort(Comparator.comparingDouble(MethodMatch::score).reversed());
+        return matches;
+    }
+
+    /**
+     * Maps the given encoded source methods onto the targets of the given index. Only the candidates returned by the
+     * index are aligned, all other pairs are assumed not to match.
+     *
+     * @param sources the encoded source methods
+     * @param index the candidate index over the encoded target methods
+     * @return the matched method pairs, ordered from the highest to the lowest score
+     * @throws InterruptedException in case the thread was interrupted while waiting for the scoring tasks
+     */
+    public List<MethodMatch> map(List<MethodSequence> sources, CandidateIndex index) throws InterruptedException {
+        int[][] candidates = new int[sources.size()][];
+        int pairs = 0;
+        for (int i = 0; i < sources.size(); i++) {
+            candidates[i] = index.candidates(sources.get(i));
+            pairs += candidates[i].length;
+        }
+
+        int[] sourceIndices = new int[pairs];
+        int[] targetIndices = new int[pairs];
+        int p = 0;
+        for (int i = 0; i < candidates.length; i++) {
+            for (int candidate : candidates[i]) {
+                sourceIndices[p] = i;
+                targetIndices[p++] = candidate;
+            }
+        }
+
+        return map(sources, index.targets(), sourceIndices, targetIndices);
+    }
+
+    /**
+     * Maps the methods of the source classes onto the methods of the target classes, aligning methods only against
+     * the methods of the candidate classes found by the given class matcher.
+     *
+     * @param source the classes of the source jar, as returned by the JarLoader
+     * @param target the classes of the target jar, as returned by the JarLoader
+     * @param classes the matcher used to find the candidate target classes of each source class
+     * @return the matched method pairs, ordered from the highest to the lowest score
+     * @throws InterruptedException in case the thread was interrupted while waiting for the scoring tasks
+     */
+    public List<MethodMatch> map(Map<String, ClassNode> source, Map<String, ClassNode> target,
+                                 ClassMatcher classes) throws InterruptedException {
+        List<MethodSequence> sources = encode(source);
+        List<MethodSequence> targets = encode(target);
+        Map<String, int[]> sourceRanges = ranges(sources);
+        Map<String, int[]> targetRanges = ranges(targets);
+
+        List<ClassMatch> classMatches = classes.match(source, target);
+        int pairs = 0;
+        for (ClassMatch match : classMatches) {
+            int[] sourceRange = sourceRanges.get(match.source());
+            int[] targetRange = targetRanges.get(match.target());
+            if (sourceRange != null && targetRange != null) {
+                pairs = addExact(pairs,
+                        multiplyExact(sourceRange[1] - sourceRange[0], targetRange[1] - targetRange[0]));
+            }
+        }
+
+        int[] sourceIndices = new int[pairs];
+        int[] targetIndices = new int[pairs];
+        int p = 0;
+        for (ClassMatch match : classMatches) {
+            int[] sourceRange = sourceRanges.get(match.source());
+            int[] targetRange = targetRanges.get(match.target());
+            if (sourceRange == null || targetRange == null) {
+                continue;
+            }
+            for (int i = sourceRange[0]; i < sourceRange[1]; i++) {
+                for (int j = targetRange[0]; j < targetRange[1]; j++) {
+                    sourceIndices[p] = i;
+                    targetIndices[p++] = j;
+                }
+            }
+        }
+
+        return map(sources, targets, sourceIndices, targetIndices);
+    }
+
+    /**
+     * Encodes all methods of the given classes which have a body. Abstract and native methods are skipped, as they
+     * would trivially match each other. The methods are returned in a deterministic order, sorted by class name.
+     *
+     * @param classes the classes to encode
+     * @return the encoded methods of the classes
+     */
+    public List<MethodSequence> encode(Map<String, ClassNode> classes) {
+        List<MethodSequence> sequences = new ArrayList<>();
+        for (ClassNode classNode : new TreeMap<>(classes).values()) {
+            for (MethodNode methodNode : classNode.methods) {
+                if (methodNode.instructions.size() > 0) {
+                    sequences.add(similarity.encode(classNode.name, methodNode));
+                }
+            }
+        }
+        listener.count(Counter.METHODS_ENCODED, sequences.size());
+        return sequences;
+    }
+
+    private List<MethodMatch> map(List<MethodSequence> sources, List<MethodSequence> targets, int[] sourceIndices,
+                                  int[] targetIndices) throws InterruptedException {
+        TopScores[] best = newTopScores(sources.size());
+        long start = System.nanoTime();
+        scorer.score(sources, targets, sourceIndices, targetIndices, collect(best));
+        listener.phase(Phase.ALIGNMENT, System.nanoTime() - start);
+
+        List<MethodMatch> matches = new ArrayList<>();
+        assign(sources, targets, best, matches::add);
+        return matches;
+    }
+
+    /**
+     * Returns the range of indices of the methods of each class, as the encoded methods are grouped by class.
+     */
+    private static Map<String, int[]> ranges(List<MethodSequence> sequences) {
+        Map<String, int[]> ranges = new HashMap<>();
+        int start = 0;
+        for (int i = 1; i <= sequences.size(); i++) {
+            if (i == sequences.size() || !sequences.get(i).owner().equals(sequences.get(start).owner())) {
+                ranges.put(sequences.get(start).owner(), new int[]{start, i});
+                start = i;
+            }
+        }
+        return ranges;
+    }
+
+    private TopScores[] score(List<MethodSequence> sources, List<MethodSequence> targets)
+            throws InterruptedException {
+        TopScores[] best = newTopScores(sources.size());
+        long start = System.nanoTime();
+        scorer.score(sources, targets, collect(best));
+        listener.phase(Phase.ALIGNMENT, System.nanoTime() - start);
+        return best;
+    }
+
+    private TopScores[] newTopScores(int sources) {
+        TopScores[] best = new TopScores[sources];
+        for (int i = 0; i < best.length; i++) {
+            best[i] = new TopScores(candidates);
+        }
+        return best;
+    }
+
+    private static ScoreConsumer collect(TopScores[] best) {
+        return new ScoreConsumer() {
+            @Override
+            public void accept(int source, int target, float score) {
+                // The scorer may split a single source over several tasks, so the heaps need to be guarded.
+                TopScores top = best[source];
+                synchronized (top) {
+                    top.offer(target, score);
+                }
+            }
+
+            @Override
+            public float threshold(int source) {
+                // Targets which cannot beat the worst retained candidate would be discarded anyway.
+                TopScores top = best[source];
+                synchronized (top) {
+                    return top.threshold();
+                }
+            }
+        };
+    }
+
+    private void assign(List<MethodSequence> sources, List<MethodSequence> targets, TopScores[] best,
+                        Consumer<MethodMatch> consumer) {
+        long start = System.nanoTime();
+        List<Edge> edges = new ArrayList<>();
+        for (int i = 0; i < best.length; i++) {
+            for (int c = 0; c < best[i].size(); c++) {
+                edges.add(new Edge(i, best[i].index(c), best[i].score(c)));
+            }
+        }
+
+        // Highest scores first, ties are broken on the source and target order to keep the result deterministic.
+        edges.sort(Comparator.comparingDouble((Edge edge) -> -edge.score)
+                .thenComparingInt(edge -> edge.source)
+                .thenComparingInt(edge -> edge.target));
+
+        boolean[] sourceAssigned = new boolean[sources.size()];
+        boolean[] targetAssigned = new boolean[targets.size()];
+        for (Edge edge : edges) {
+            if (sourceAssigned[edge.source] || targetAssigned[edge.target]) {
+                continue;
+            }
+            sourceAssigned[edge.source] = true;
+            targetAssigned[edge.target] = true;
+            consumer.accept(new MethodMatch(sources.get(edge.source), targets.get(edge.target), edge.score));
+        }
+
+        listener.phase(Phase.ASSIGNMENT, System.nanoTime() - start);
+    }
+
+    private static final class Edge {
+
+        private final int source;
+        private final int target;
+        private final float score;
+
+        private Edge(int source, int target, float score) {
+            this.source = source;
+            this.target = target;
+            this.score = score;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "JarMapper [scorer=" + scorer + ", candidates=" + candidates + "]";
+    }
+}
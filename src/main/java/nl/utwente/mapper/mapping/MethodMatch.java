@@ -0,0 +1,63 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.mapping;
+
+import nl.utwente.mapper.metrics.MethodSequence;
+
+/**
+ * A scored pairing of a source method with a target method.
+ *
+ * <p>
+ * This class is immutable.
+ */
+public final class MethodMatch {
+
+    private final MethodSequence source;
+    private final MethodSequence target;
+    private final float score;
+
+    public MethodMatch(MethodSequence source, MethodSequence target, float score) {
+        this.source = source;
+        this.target = target;
+        this.score = score;
+    }
+
+    public MethodSequence source() {
+        return source;
+    }
+
+    public MethodSequence target() {
+        return target;
+    }
+
+    public float score() {
+        return score;
+    }
+
+    @Override
+    public String toString() {
+        return source.owner() + "." + source.name() + source.desc() + " -> "
+                + target.owner() + "." + target.name() + target.desc() + " (" + score + ")";
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.mapping;
+
+import com.google.common.base.Throwables;
+import nl.utwente.mapper.metrics.MethodSequence;
+import nl.utwente.mapper.metrics.MethodSimilarity;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Scores batches of method pairs in parallel. The work is partitioned by its estimated cost, which is the amount of
+ * cells of the alignment matrices (source instructions times target instructions), rather than by the amount of
+ * pairs. Huge methods are thus split over several tasks while small methods are grouped together, and the tasks are
+ * submitted from the most to the least expensive so that a few huge methods do not end up as the tail of a run.
+ *
+ * <p>
+ * Scores are streamed to a {@link ScoreConsumer} as soon as they are computed, in no particular order.
+ *
+ * <p>
+ * This class is thread-safe if its similarity metric is.
+ */
+public final class ParallelScorer {
+
+    /**
+     * The amount of tasks created per worker thread. More tasks balance better, fewer tasks have less overhead.
+     */
+    private static final int TASKS_PER_THREAD = 8;
+
+    private final MethodSimilarity similarity;
+    private final ExecutorService executor;
+    private final int parallelism;
+
+    /**
+     * Constructs a new scorer which runs on the common fork-join pool.
+     *
+     * @param similarity the metric used to score method pairs
+     */
+    public ParallelScorer(MethodSimilarity similarity) {
+        this(similarity, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructs a new scorer which runs on the given fork-join pool.
+     *
+     * @param similarity the metric used to score method pairs
+     * @param pool the pool to run the scoring tasks on
+     */
+    public ParallelScorer(MethodSimilarity similarity, ForkJoinPool pool) {
+        this(similarity, pool, pool.getParallelism());
+    }
+
+    /**
+     * Constructs a new scorer which runs on the given executor.
+     *
+     * @param similarity the metric used to score method pairs
+     * @param executor the executor to run the scoring tasks on
+     * @param parallelism the amount of threads of the executor, used to decide how finely the work is split
+     */
+    public ParallelScorer(MethodSimilarity similarity, ExecutorService executor, int parallelism) {
+        checkNotNull(similarity);
+        checkNotNull(executor);
+        checkArgument(parallelism > 0);
+        this.similarity = similarity;
+        this.executor = executor;
+        this.parallelism = parallelism;
+    }
+
+    public MethodSimilarity similarity() {
+        return similarity;
+    }
+
+    /**
+     * Scores every source method against every target method. Blocks until all scores have been passed to the
+     * consumer.
+     *
+     * @param sources the encoded source methods
+     * @param targets the encoded target methods
+     * @param consumer the consumer receiving the scores
+     * @throws InterruptedException in case the thread was interrupted while waiting for the scoring tasks
+     */
+    public void score(List<MethodSequence> sources, List<MethodSequence> targets, ScoreConsumer consumer)
+            throws InterruptedException {
+        long targetCost = 0;
+        for (MethodSequence target : targets) {
+            targetCost += cost(target);
+        }
+
+        long total = 0;
+        for (MethodSequence source : sources) {
+            total += cost(source) * targetCost;
+        }
+
+        final long budget = budget(total);
+        List<Block> blocks = new ArrayList<>();
+
+        int from = 0;
+        long cost = 0;
+        for (int i = 0; i < sources.size(); i++) {
+            long rowCost = cost(sources.get(i)) * targetCost;
+
+            if (rowCost > budget) {
+                // A single huge source is split over the targets instead.
+                int start = 0;
+                long blockCost = 0;
+                for (int j = 0; j < targets.size(); j++) {
+                    long cellCost = cost(sources.get(i)) * cost(targets.get(j));
+                    if (blockCost > 0 && blockCost + cellCost > budget) {
+                        blocks.add(new Block(i, i + 1, start, j, blockCost));
+                        start = j;
+                        blockCost = 0;
+                    }
+                    blockCost += cellCost;
+                }
+                blocks.add(new Block(i, i + 1, start, targets.size(), blockCost));
+            } else {
+                if (cost + rowCost > budget) {
+                    blocks.add(new Block(from, i, 0, targets.size(), cost));
+                    from = i;
+                    cost = 0;
+                }
+                cost += rowCost;
+                continue;
+            }
+
+            // Close the block of small sources preceding the huge source.
+            if (from < i) {
+                blocks.add(new Block(from, i, 0, targets.size(), cost));
+            }
+            from = i + 1;
+            cost = 0;
+        }
+        if (from < sources.size()) {
+            blocks.add(new Block(from, sources.size(), 0, targets.size(), cost));
+        }
+
+        run(blocks, block -> {
+            for (int i = block.sourceFrom; i < block.sourceTo; i++) {
+                MethodSequence source = sources.get(i);
+                for (int j = block.targetFrom; j < block.targetTo; j++) {
+                    consumer.accept(i, j, similarity.compare(source, targets.get(j), consumer.threshold(i)));
+                }
+            }
+        });
+    }
+
+    /**
+     * Scores the given pairs of methods. The pair at position {@code p} consists of source
+     * {@code sourceIndices[p]} and target {@code targetIndices[p]}. Blocks until all scores have been passed to the
+     * consumer.
+     *
+     * @param sources the encoded source methods
+     * @param targets the encoded target methods
+     * @param sourceIndices the source index of every pair
+     * @param targetIndices the target index of every pair
+     * @param consumer the consumer receiving the scores
+     * @throws InterruptedException in case the thread was interrupted while waiting for the scoring tasks
+     */
+    public void score(List<MethodSequence> sources, List<MethodSequence> targets,
+                      int[] sourceIndices, int[] targetIndices, ScoreConsumer consumer)
+            throws InterruptedException {
+        checkArgument(sourceIndices.length == targetIndices.length);
+
+        long total = 0;
+        for (int p = 0; p < sourceIndices.length; p++) {
+            total += cost(sources.get(sourceIndices[p])) * cost(targets.get(targetIndices[p]));
+        }
+
+        final long budget = budget(total);
+        List<Block> blocks = new ArrayList<>();
+
+        int from = 0;
+        long cost = 0;
+        for (int p = 0; p < sourceIndices.length; p++) {
+            long pairCost = cost(sources.get(sourceIndices[p])) * cost(targets.get(targetIndices[p]));
+            if (cost > 0 && cost + pairCost > budget) {
+                blocks.add(new Block(from, p, 0, 0, cost));
+                from = p;
+                cost = 0;
+            }
+            cost += pairCost;
+        }
+        if (from < sourceIndices.length) {
+            blocks.add(new Block(from, sourceIndices.length, 0, 0, cost));
+        }
+
+        run(blocks, block -> {
+            for (int p = block.sourceFrom; p < block.sourceTo; p++) {
+                int i = sourceIndices[p];
+                int j = targetIndices[p];
+                consumer.accept(i, j, similarity.compare(sources.get(i), targets.get(j), consumer.threshold(i)));
+            }
+        });
+    }
+
+    /**
+     * Scores every source method against every target method, encoding all methods once up front.
+     *
+     * @param sources the source methods
+     * @param targets the target methods
+     * @param consumer the consumer receiving the scores
+     * @throws InterruptedException in case the thread was interrupted while waiting for the scoring tasks
+     */
+    public void scoreMethods(List<MethodNode> sources, List<MethodNode> targets, ScoreConsumer consumer)
+            throws InterruptedException {
+        score(encode(sources), encode(targets), consumer);
+    }
+
+    private List<MethodSequence> encode(List<MethodNode> methods) {
+        List<MethodSequence> sequences = new ArrayList<>(methods.size());
+        for (MethodNode method : methods) {
+            sequences.add(similarity.encode(null, method));
+        }
+        return sequences;
+    }
+
+    /**
+     * Estimates the cost of aligning a method, one more than its size so that empty methods are not free.
+     */
+    private static long cost(MethodSequence sequence) {
+        return sequence.size() + 1;
+    }
+
+    private long budget(long total) {
+        return Math.max(1, total / ((long) parallelism * TASKS_PER_THREAD));
+    }
+
+    private void run(List<Block> blocks, BlockTask task) throws InterruptedException {
+        // Largest blocks first, so the small ones can fill up the gaps at the end of the run.
+        blocks.sort((a, b) -> Long.compare(b.cost, a.cost));
+
+        List<Future<?>> futures = new ArrayList<>(blocks.size());
+        for (Block block : blocks) {
+            futures.add(executor.submit(() -> task.run(block)));
+        }
+
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+            throw e;
+        }
+    }
+
+    @FunctionalInterface
+    private interface BlockTask {
+
+        void run(Block block);
+    }
+
+    /**
+     * A rectangle of the score matrix, or a range of pairs in which case only the source bounds are used.
+     */
+    private static final class Block {
+
+        private final int sourceFrom;
+        private final int sourceTo;
+        private final int targetFrom;
+        private final int targetTo;
+        private final long cost;
+
+        private Block(int sourceFrom, int sourceTo, int targetFrom, int targetTo, long cost) {
+            this.sourceFrom = sourceFrom;
+            this.sourceTo = sourceTo;
+            this.targetFrom = targetFrom;
+            this.targetTo = targetTo;
+            this.cost = cost;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ParallelScorer [similarity=" + similarity + ", parallelism=" + parallelism + "]";
+    }
+}
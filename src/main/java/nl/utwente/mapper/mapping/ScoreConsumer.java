@@ -0,0 +1,53 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.mapping;
+
+/**
+ * Receives the scores of a batch comparison as soon as they are computed. Implementations are called concurrently
+ * from the worker threads and must therefore be thread-safe.
+ */
+@FunctionalInterface
+public interface ScoreConsumer {
+
+    /**
+     * Accepts the score of a single pair.
+     *
+     * @param source the index of the source method in the list of sources
+     * @param target the index of the target method in the list of targets
+     * @param score the similarity of the two methods
+     */
+    public void accept(int source, int target, float score);
+
+    /**
+     * Returns the lowest score of the given source this consumer is still interested in. Pairs which cannot reach it
+     * may be cut off early, in which case a score below the threshold is passed to {@link #accept(int, int, float)}.
+     * By default all scores are computed in full.
+     *
+     * @param source the index of the source method in the list of sources
+     * @return the current threshold of the source
+     */
+    public default float threshold(int source) {
+        return Float.NEGATIVE_INFINITY;
+    }
+}
@@ -24,13 +24,18 @@ package nl.utwente.mapper.metrics;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 import static java.lang.Math.max;
 import static java.lang.Math.min;
 import static nl.utwente.mapper.metrics.Math.max;
 
+import com.google.common.util.concurrent.MoreExecutors;
 import nl.utwente.mapper.metrics.functions.BytecodeSubstitution;
 import org.objectweb.asm.tree.MethodNode;
 
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+
 /**
  * Applies the Smith-Waterman algorithm to calculate the similarity between two
  * ASM MethodNodes. This implementation uses optimizations described in Osamu Gotoh
@@ -43,10 +48,33 @@ import org.objectweb.asm.tree.MethodNode;
  * @see <a
  * href="https://en.wikipedia.org/wiki/Smith%E2%80%93Waterman_algorithm">Wikipedia - Smith-Waterman algorithm</a>
  */
-public final class AdaptiveLocalAlignment {
+public final class AdaptiveLocalAlignment implements MethodSimilarity {
 
     private final float gapValue;
+
+    /**
+     * The score of the first instruction of a gap, equal to {@link #gapValue} if gaps are linear.
+     */
+    private final float gapOpen;
+    private final boolean affine;
     private final BytecodeSubstitution substitution;
+    private final float[][] table;
+
+    /**
+     * The highest score a single row of the matrix can add to an alignment, indexed by source symbol.
+     */
+    private final float[] gains;
+
+    /**
+     * Whether identical sequences are known to align best along the diagonal.
+     */
+    private final boolean diagonalBest;
+
+    /**
+     * The executor and the amount of its threads on which very large pairs are scored, see {@link Wavefront}.
+     */
+    private final ExecutorService executor;
+    private final int parallelism;
 
     /**
      * Constructs a new Smith Waterman metric.
@@ -57,62 +85,340 @@ public final class AdaptiveLocalAlignment {
      *            a substitution function
      */
     public AdaptiveLocalAlignment(float gapValue, BytecodeSubstitution substitution) {
-        checkArgument(gapValue <= 0.0f);
+        this(gapValue, gapValue, substitution);
+    }
+
+    /**
+     * Constructs a new Smith Waterman metric with affine gap penalties: a gap of k instructions scores
+     * {@code gapOpen + (k - 1) * gapExtend}, so a block of inserted or removed bytecode is penalized mostly once
+     * instead of per instruction.
+     *
+     * @param gapOpen
+     *            a non-positive score for the first instruction of a gap, at most gapExtend
+     * @param gapExtend
+     *            a non-positive score for every further instruction of a gap
+     * @param substitution
+     *            a substitution function
+     */
+    public AdaptiveLocalAlignment(float gapOpen, float gapExtend, BytecodeSubstitution substitution) {
+        this(gapOpen, gapExtend, substitution, MoreExecutors.newDirectExecutorService(), 1);
+    }
+
+    /**
+     * Constructs a new Smith Waterman metric which scores very large pairs on several threads of the given executor.
+     * The executor may be the one running the comparisons: the comparing thread takes part in the work and never
+     * waits for a task which has not started. With a parallelism of one, every pair is scored on the calling thread.
+     *
+     * @param gapOpen
+     *            a non-positive score for the first instruction of a gap, at most gapExtend
+     * @param gapExtend
+     *            a non-positive score for every further instruction of a gap
+     * @param substitution
+     *            a substitution function
+     * @param executor
+     *            the executor to score very large pairs on
+     * @param parallelism
+     *            the amount of threads of the executor a single pair may use, including the comparing thread
+     */
+    public AdaptiveLocalAlignment(float gapOpen, float gapExtend, BytecodeSubstitution substitution,
+                                  ExecutorService executor, int parallelism) {
+        checkArgument(gapExtend <= 0.0f);
+        checkArgument(gapOpen <= gapExtend);
         checkNotNull(substitution);
-        this.gapValue = gapValue;
+        checkNotNull(executor);
+        checkArgument(parallelism > 0);
+        this.gapValue = gapExtend;
+        this.gapOpen = gapOpen;
+        this.affine = gapOpen != gapExtend;
         this.substitution = substitution;
+        this.table = substitution.table();
+        this.gains = Bounds.gains(table, 0);
+        this.diagonalBest = Bounds.diagonalBest(table);
+        this.executor = executor;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Estimates the memory a comparing thread needs besides its rows when a pair of the given lengths is scored on
+     * several threads.
+     *
+     * @param sourceLength the length of the source sequence
+     * @param targetLength the length of the target sequence
+     * @return the estimated memory in bytes, or zero if such a pair is scored by a single thread
+     */
+    public static long wavefrontBytes(int sourceLength, int targetLength) {
+        return Wavefront.worthwhile(sourceLength, targetLength) ? Wavefront.bytes(sourceLength, targetLength) : 0;
     }
 
+    @Override
     public float compare(final MethodNode source, final MethodNode target) {
-        if (source.instructions.size() == 0 && target.instructions.size() == 0) {
+        return compare(substitution.encode(null, source), substitution.encode(null, target));
+    }
+
+    /**
+     * Compares two pre-encoded methods. The sequences must have been encoded by the substitution function of this
+     * metric.
+     *
+     * @param source the encoded source method
+     * @param target the encoded target method
+     * @return the similarity of the two methods
+     */
+    @Override
+    public float compare(final MethodSequence source, final MethodSequence target) {
+        if (source.size() == 0 && target.size() == 0) {
             return 1.0f;
         }
 
-        if (source.instructions.size() == 0 || target.instructions.size() == 0) {
+        if (source.size() == 0 || target.size() == 0) {
             return 0.0f;
         }
 
-        float maxDistance = min(source.instructions.size(), target.instructions.size())
-                * max(substitution.max(), gapValue);
-        return calculate(source, target) / maxDistance;
+        float maxDistance = min(source.size(), target.size()) * max(substitution.max(), gapValue);
+        if (diagonalBest && source.contentEquals(target)) {
+            return diagonal(source.symbols()) / maxDistance;
+        }
+
+        if (affine) {
+            return affine(source.symbols(), target.symbols()) / maxDistance;
+        }
+
+        return calculate(source.symbols(), target.symbols()) / maxDistance;
     }
 
-    private float calculate(final MethodNode source, final MethodNode target) {
-        float[] v0 = new float[target.instructions.size()];
-        float[] v1 = new float[target.instructions.size()];
+    /**
+     * Returns the similarity of a method and an identical copy. If every symbol scores best against itself, this is
+     * computed in linear time from the diagonal of the substitution matrix.
+     *
+     * @param sequence the encoded method
+     * @return the similarity of the method with an identical copy
+     */
+    @Override
+    public float selfScore(final MethodSequence sequence) {
+        if (sequence.size() == 0 || !diagonalBest) {
+            return MethodSimilarity.super.selfScore(sequence);
+        }
 
-        float max = v0[0] = max(0, gapValue, substitution.compare(source, 0, target, 0));
+        return diagonal(sequence.symbols()) / (sequence.size() * max(substitution.max(), gapValue));
+    }
 
-        for (int j = 1; j < v0.length; j++) {
-            v0[j] = max(0, v0[j - 1] + gapValue,
-                    substitution.compare(source, 0, target, j));
+    /**
+     * Compares two methods, stopping as soon as the similarity can no longer reach the given threshold.
+     *
+     * @param source the source method
+     * @param target the target method
+     * @param threshold the similarity the caller is interested in
+     * @return the similarity of the two methods, or a value below the threshold
+     */
+    public float compare(final MethodNode source, final MethodNode target, float threshold) {
+        return compare(substitution.encode(null, source), substitution.encode(null, target), threshold);
+    }
 
-            max = max(max, v0[j]);
+    /**
+     * Compares two pre-encoded methods, stopping as soon as the similarity can no longer reach the given threshold.
+     * Every row of the matrix can add at most the best substitution score of its source symbol to an alignment, so
+     * after each row the remaining rows bound the score that can still be reached. When that bound falls below the
+     * threshold, the bound itself is returned.
+     *
+     * @param source the encoded source method
+     * @param target the encoded target method
+     * @param threshold the similarity the caller is interested in
+     * @return the similarity of the two methods, or a value below the threshold
+     */
+    @Override
+    public float compare(final MethodSequence source, final MethodSequence target, float threshold) {
+        if (source.size() == 0 || target.size() == 0) {
+            return compare(source, target);
         }
 
-        // Find max
-        for (int i = 1; i < source.instructions.size(); i++) {
-            v1[0] = max(0, v0[0] + gapValue, substitution.compare(source, i, target, 0));
+        float maxDistance = min(source.size(), target.size()) * max(substitution.max(), gapValue);
+        if (maxDistance <= 0 || threshold == Float.NEGATIVE_INFINITY || affine
+                || diagonalBest && source.contentEquals(target)) {
+            return compare(source, target);
+        }
 
-            max = max(max, v1[0]);
+        return calculate(source.symbols(), target.symbols(), threshold * maxDistance) / maxDistance;
+    }
 
-            for (int j = 1; j < v0.length; j++) {
-                v1[j] = max(0, v0[j] + gapValue, v1[j - 1] + gapValue,
-                        v0[j - 1] + substitution.compare(source, i, target, j));
+    /**
+     * Aligns two pre-encoded methods and returns the best local alignment between them. The aligned regions are found
+     * in two linear-space passes over the matrix, after which the regions are aligned with Hirschberg's algorithm, so
+     * the memory used is linear in the length of the methods.
+     *
+     * @param source the encoded source method
+     * @param target the encoded target method
+     * @return the aligned positions and regions of the two methods
+     * @throws IllegalStateException if this metric uses affine gap penalties
+     */
+    public Alignment align(final MethodSequence source, final MethodSequence target) {
+        checkState(!affine, "Alignments can only be traced back with linear gap penalties");
+        final short[] s = source.symbols();
+        final short[] t = target.symbols();
+        final int[] region = Hirschberg.localRegion(table, gapValue, s, t);
+        final int[][] pairs = Hirschberg.align(table, gapValue, gapValue, s, region[0], region[1], t, region[2],
+                region[3]);
+        return new Alignment(compare(source, target), pairs[0], pairs[1], region[0], region[1], region[2], region[3]);
+    }
 
-                max = max(max, v1[j]);
+    /**
+     * Calculates the score of aligning a sequence with itself in linear time. Only valid if {@link #diagonalBest}
+     * holds, in which case the matrix would accumulate exactly these sums along its diagonal.
+     */
+    private float diagonal(final short[] symbols) {
+        float score = 0;
+        for (short symbol : symbols) {
+            score += table[symbol][symbol];
+        }
+        return score;
+    }
+
+    private float calculate(final short[] source, final short[] target) {
+        return calculate(source, target, Float.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Fills the matrix row by row with a query-profile kernel: for every distinct source symbol the substitution
+     * scores against the whole target are gathered into a contiguous array once. Each row is then computed in two
+     * passes. The first pass takes the vertical and diagonal neighbours, which only depend on the previous row and
+     * can therefore be vectorized by the JIT. The second pass is a cheap scan which adds the horizontal gaps.
+     *
+     * <p>
+     * The rows are shifted by one element, the first element being a sentinel which never wins.
+     *
+     * <p>
+     * If the metric may use several threads, very large pairs are scored by a {@link Wavefront} instead, which gives
+     * the same score but cannot stop early: only the bound before the first row is checked for them.
+     */
+    private float calculate(final short[] source, final short[] target, final float cutoff) {
+        final boolean bounded = cutoff != Float.NEGATIVE_INFINITY;
+
+        // remaining[k] bounds what the rows after source position k can still add to any alignment.
+        final float[] remaining = bounded ? Bounds.remaining(gains, source) : null;
+        if (bounded) {
+            float bound = remaining[0] + gains[source[0]];
+            if (Bounds.below(bound, cutoff)) {
+                return bound;
             }
+        }
 
-            for (int j = 0; j < v0.length; j++) {
-                v0[j] = v1[j];
+        if (parallelism > 1 && Wavefront.worthwhile(source.length, target.length)) {
+            return Wavefront.score(table, gapValue, source, target, executor, parallelism);
+        }
+
+        final int m = target.length;
+        final float[][] profiles = new float[table.length][];
+
+        float[] v0 = new float[m + 1];
+        float[] v1 = new float[m + 1];
+        v0[0] = v1[0] = Float.NEGATIVE_INFINITY;
+
+        float[] profile = profile(profiles, source[0], target);
+
+        float rowMax = v0[1] = max(0, gapValue, profile[1]);
+
+        for (int j = 2; j <= m; j++) {
+            v0[j] = max(0, v0[j - 1] + gapValue, profile[j]);
+
+            rowMax = max(rowMax, v0[j]);
+        }
+
+        float max = rowMax;
+
+        for (int i = 1; i < source.length; i++) {
+            if (bounded) {
+                float bound = max(max, rowMax + remaining[i - 1]);
+                if (Bounds.below(bound, cutoff)) {
+                    return bound;
+                }
+            }
+
+            profile = profile(profiles, source[i], target);
+
+            for (int j = 1; j <= m; j++) {
+                v1[j] = max(0, v0[j] + gapValue, v0[j - 1] + profile[j]);
             }
+
+            // The first column has no diagonal neighbour, the substitution alone may start an alignment.
+            float h = v1[1] = max(v1[1], profile[1]);
+            rowMax = h;
+
+            for (int j = 2; j <= m; j++) {
+                h = max(v1[j], h + gapValue);
+                v1[j] = h;
+
+                rowMax = max(rowMax, h);
+            }
+
+            max = max(max, rowMax);
+
+            final float[] swap = v0; v0 = v1; v1 = swap;
+        }
+
+        return max;
+    }
+
+    /**
+     * Fills the matrix like {@link #calculate(short[], short[])}, but with affine gap penalties using Gotoh's three
+     * vector recurrence. Besides the best score of every cell, the best score of an alignment ending in a vertical gap
+     * is kept per column, and the best score of an alignment ending in a horizontal gap is carried along the row.
+     * Unlike the linear kernel, the first element of each row is a zero boundary rather than a sentinel.
+     */
+    private float affine(final short[] source, final short[] target) {
+        final int m = target.length;
+        final float[][] profiles = new float[table.length][];
+
+        float[] v0 = new float[m + 1];
+        float[] v1 = new float[m + 1];
+        final float[] vertical = new float[m + 1];
+        Arrays.fill(vertical, Float.NEGATIVE_INFINITY);
+
+        float max = 0;
+
+        for (int i = 0; i < source.length; i++) {
+            final float[] profile = profile(profiles, source[i], target);
+            float horizontal = Float.NEGATIVE_INFINITY;
+
+            for (int j = 1; j <= m; j++) {
+                vertical[j] = max(v0[j] + gapOpen, vertical[j] + gapValue);
+                horizontal = max(v1[j - 1] + gapOpen, horizontal + gapValue);
+
+                v1[j] = max(0, vertical[j], horizontal, v0[j - 1] + profile[j]);
+
+                max = max(max, v1[j]);
+            }
+
+            final float[] swap = v0; v0 = v1; v1 = swap;
         }
 
         return max;
     }
 
+    /**
+     * Returns the substitution scores of the given source symbol against every target symbol, shifted by one to line
+     * up with the rows of the matrix. Profiles are built on first use, as most methods only use a few symbols.
+     */
+    private float[] profile(final float[][] profiles, final short symbol, final short[] target) {
+        float[] profile = profiles[symbol];
+
+        if (profile == null) {
+            final float[] row = table[symbol];
+            profile = profiles[symbol] = new float[target.length + 1];
+            profile[0] = Float.NEGATIVE_INFINITY;
+            for (int j = 0; j < target.length; j++) {
+                profile[j + 1] = row[target[j]];
+            }
+        }
+
+        return profile;
+    }
+
+    @Override
+    public MethodSequence encode(String owner, MethodNode method) {
+        return substitution.encode(owner, method);
+    }
+
     @Override
     public String toString() {
-        return "AdaptiveLocalAlignment [substitution=" + substitution + ", gapValue=" + gapValue + "]";
+        return "AdaptiveLocalAlignment [substitution=" + substitution + ", gapOpen=" + gapOpen
+                + ", gapValue=" + gapValue + ", parallelism=" + parallelism + "]";
     }
 }
@@ -0,0 +1,121 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.metrics;
+
+import java.util.Arrays;
+
+/**
+ * The instruction-level correspondence of two aligned methods. An alignment consists of the pairs of source and
+ * target positions which were matched to each other, either as an identical or as a substituted symbol, ordered from
+ * the start to the end of both methods. Positions which are not part of a pair were aligned to a gap.
+ *
+ * <p>
+ * The aligned region spans from the start (inclusive) to the end (exclusive) of both methods. A global alignment
+ * always spans the whole methods, whereas a local alignment only spans the best matching regions.
+ *
+ * <p>
+ * This class is immutable.
+ */
+public final class Alignment {
+
+    private final float similarity;
+    private final int[] sourceIndices;
+    private final int[] targetIndices;
+    private final int sourceStart;
+    private final int sourceEnd;
+    private final int targetStart;
+    private final int targetEnd;
+
+    Alignment(float similarity, int[] sourceIndices, int[] targetIndices, int sourceStart, int sourceEnd,
+              int targetStart, int targetEnd) {
+        this.similarity = similarity;
+        this.sourceIndices = sourceIndices;
+        this.targetIndices = targetIndices;
+        this.sourceStart = sourceStart;
+        this.sourceEnd = sourceEnd;
+        this.targetStart = targetStart;
+        this.targetEnd = targetEnd;
+    }
+
+    /**
+     * Returns the similarity of the two methods, as returned by the metric which created this alignment.
+     *
+     * @return the similarity of the two methods
+     */
+    public float similarity() {
+        return similarity;
+    }
+
+    /**
+     * Returns the amount of aligned position pairs.
+     *
+     * @return the amount of aligned position pairs
+     */
+    public int size() {
+        return sourceIndices.length;
+    }
+
+    /**
+     * Returns the source position of the given pair.
+     *
+     * @param pair the index of the pair
+     * @return the position in the source sequence
+     */
+    public int sourceIndex(int pair) {
+        return sourceIndices[pair];
+    }
+
+    /**
+     * Returns the target position of the given pair.
+     *
+     * @param pair the index of the pair
+     * @return the position in the target sequence
+     */
+    public int targetIndex(int pair) {
+        return targetIndices[pair];
+    }
+
+    public int sourceStart() {
+        return sourceStart;
+    }
+
+    public int sourceEnd() {
+        return sourceEnd;
+    }
+
+    public int targetStart() {
+        return targetStart;
+    }
+
+    public int targetEnd() {
+        return targetEnd;
+    }
+
+    @Override
+    public String toString() {
+        return "Alignment [similarity=" + similarity + ", source=[" + sourceStart + ", " + sourceEnd + "), target=["
+                + targetStart + ", " + targetEnd + "), sourceIndices=" + Arrays.toString(sourceIndices)
+                + ", targetIndices=" + Arrays.toString(targetIndices) + "]";
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.metrics;
+
+/**
+ * Helpers for bounding the score an alignment can still reach, used to stop the alignment algorithms early.
+ */
+final class Bounds {
+
+    /**
+     * Relative and absolute slack applied before cutting off, so rounding differences between the bound and the
+     * dynamic programming never cut off a score which would have reached the threshold.
+     */
+    private static final float SLACK = 1e-4f;
+
+    private Bounds() {
+    }
+
+    /**
+     * Returns for every source symbol the highest score it can be substituted with, but at least the given floor.
+     *
+     * @param table the substitution matrix
+     * @param floor the lowest value to return for a symbol
+     * @return the best score of each row of the matrix
+     */
+    static float[] gains(float[][] table, float floor) {
+        float[] gains = new float[table.length];
+        for (int i = 0; i < table.length; i++) {
+            float gain = floor;
+            for (float score : table[i]) {
+                gain = java.lang.Math.max(gain, score);
+            }
+            gains[i] = gain;
+        }
+        return gains;
+    }
+
+    /**
+     * Returns the suffix sums of the gains of a sequence, where element {@code i} is the sum of the gains of all
+     * symbols after position {@code i}.
+     *
+     * @param gains the gain of every symbol
+     * @param symbols the sequence of symbols
+     * @return the gains that can still be made after each position
+     */
+    static float[] remaining(float[] gains, short[] symbols) {
+        float[] remaining = new float[symbols.length];
+        float sum = 0;
+        for (int i = symbols.length - 1; i >= 0; i--) {
+            remaining[i] = sum;
+            sum += gains[symbols[i]];
+        }
+        return remaining;
+    }
+
+    /**
+     * Returns whether every symbol scores best against itself, with a positive score. In that case aligning a
+     * sequence with an identical sequence is optimal along the diagonal, as every row already gains its maximum there.
+     *
+     * @param table the substitution matrix
+     * @return true if the diagonal of the matrix dominates every row
+     */
+    static boolean diagonalBest(float[][] table) {
+        for (int i = 0; i < table.length; i++) {
+            if (!(table[i][i] > 0)) {
+                return false;
+            }
+            for (float score : table[i]) {
+                if (score > table[i][i]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether every symbol scores best against itself, with a positive score, in a quantized substitution
+     * matrix.
+     *
+     * @param table the quantized substitution matrix
+     * @return true if the diagonal of the matrix dominates every row
+     */
+    static boolean diagonalBest(int[][] table) {
+        for (int i = 0; i < table.length; i++) {
+            if (table[i][i] <= 0) {
+                return false;
+            }
+            for (int score : table[i]) {
+                if (score > table[i][i]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    static boolean below(float bound, float cutoff) {
+        return bound + SLACK * java.lang.Math.abs(bound) + SLACK < cutoff;
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.metrics;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import nl.utwente.mapper.monitoring.Counter;
+import nl.utwente.mapper.monitoring.MappingListener;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Caches the similarities computed by another metric, so that pairs of methods which occur repeatedly, such as
+ * getters, bridge methods and synthetic lambdas, are only aligned once. Pairs are keyed by the content hashes of both
+ * sequences, so identical methods from different classes or jars share their entries. An entry keeps the symbols of
+ * its pair, which are compared on every hit: pairs whose hashes collide are treated as misses and never answered with
+ * the score of another pair.
+ *
+ * <p>
+ * The key does not include the metric or its configuration, such as the gap penalty or the substitution function.
+ * Every cache wraps a single metric, so the configuration is fixed for all of its entries; a cache must therefore not
+ * be shared between metrics, and a metric with another configuration needs a cache of its own.
+ *
+ * <p>
+ * A method compared with an identical copy of itself is answered with its self-score, which is computed in full once
+ * and cached under the pair of its own hash. Copies of the same method therefore never wait for the wrapped metric to
+ * stop early at a threshold, but share the maximum score of the method instead.
+ *
+ * <p>
+ * The cache is bounded and evicts the least recently used entries. Pairs with fewer than {@code minimumCells}
+ * matrix cells are not cached, as looking them up costs about as much as aligning them.
+ *
+ * <p>
+ * This class is thread-safe if the wrapped metric is.
+ */
+public final class CachingSimilarity implements MethodSimilarity {
+
+    private static final int DEFAULT_MINIMUM_CELLS = 1024;
+
+    private final MethodSimilarity similarity;
+    private final Cache<Pair, Entry> cache;
+    private final long minimumCells;
+    private final MappingListener listener;
+
+    /**
+     * Constructs a new cache around the given metric.
+     *
+     * @param similarity the metric to cache the similarities of
+     * @param maximumSize the maximum amount of cached pairs
+     */
+    public CachingSimilarity(MethodSimilarity similarity, long maximumSize) {
+        this(similarity, maximumSize, DEFAULT_MINIMUM_CELLS);
+    }
+
+    /**
+     * Constructs a new cache around the given metric which reports its hits and misses to a listener.
+     *
+     * @param similarity the metric to cache the similarities of
+     * @param maximumSize the maximum amount of cached pairs
+     * @param listener the listener to report the hits and misses to
+     */
+    public CachingSimilarity(MethodSimilarity similarity, long maximumSize, MappingListener listener) {
+        this(similarity, maximumSize, DEFAULT_MINIMUM_CELLS, listener);
+    }
+
+    /**
+     * Constructs a new cache around the given metric.
+     *
+     * @param similarity the metric to cache the similarities of
+     * @param maximumSize the maximum amount of cached pairs
+     * @param minimumCells the minimum size of the alignment matrix of a pair for it to be cached
+     */
+    public CachingSimilarity(MethodSimilarity similarity, long maximumSize, long minimumCells) {
+        this(similarity, maximumSize, minimumCells, MappingListener.NONE);
+    }
+
+    /**
+     * Constructs a new cache around the given metric which reports its hits and misses to a listener.
+     *
+     * @param similarity the metric to cache the similarities of
+     * @param maximumSize the maximum amount of cached pairs
+     * @param minimumCells the minimum size of the alignment matrix of a pair for it to be cached
+     * @param listener the listener to report the hits and misses to
+     */
+    public CachingSimilarity(MethodSimilarity similarity, long maximumSize, long minimumCells,
+                             MappingListener listener) {
+        checkNotNull(similarity);
+        checkArgument(maximumSize >= 0);
+        checkArgument(minimumCells >= 0);
+        checkNotNull(listener);
+        this.similarity = similarity;
+        this.minimumCells = minimumCells;
+        this.listener = listener;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+    }
+
+    @Override
+    public float compare(MethodNode source, MethodNode target) {
+        return compare(encode(null, source), encode(null, target));
+    }
+
+    @Override
+    public float compare(MethodSequence source, MethodSequence target) {
+        if ((long) source.size() * target.size() < minimumCells) {
+            return similarity.compare(source, target);
+        }
+
+        Pair key = new Pair(source.contentHash(), target.contentHash());
+        Entry cached = lookup(key, source, target);
+        if (cached != null) {
+            return cached.score;
+        }
+
+        float score = similarity.compare(source, target);
+        cache.put(key, new Entry(source, target, score));
+        return score;
+    }
+
+    /**
+     * Compares two methods using the cache. On a miss the wrapped metric may stop early, in which case the bound it
+     * returns is not cached. Identical methods are instead scored in full, so that their self-score is cached.
+     */
+    @Override
+    public float compare(MethodSequence source, MethodSequence target, float threshold) {
+        if ((long) source.size() * target.size() < minimumCells) {
+            return similarity.compare(source, target, threshold);
+        }
+        if (source.contentEquals(target)) {
+            return compare(source, target);
+        }
+
+        Pair key = new Pair(source.contentHash(), target.contentHash());
+        Entry cached = lookup(key, source, target);
+        if (cached != null) {
+            return cached.score;
+        }
+
+        float score = similarity.compare(source, target, threshold);
+        if (score >= threshold) {
+            cache.put(key, new Entry(source, target, score));
+        }
+        return score;
+    }
+
+    /**
+     * Returns the entry of a pair if it is cached and holds the same symbols, reporting the hit or miss.
+     */
+    private Entry lookup(Pair key, MethodSequence source, MethodSequence target) {
+        Entry cached = cache.getIfPresent(key);
+        if (cached != null && Arrays.equals(cached.source, source.symbols())
+                && Arrays.equals(cached.target, target.symbols())) {
+            listener.count(Counter.CACHE_HITS, 1);
+            return cached;
+        }
+        listener.count(Counter.CACHE_MISSES, 1);
+        return null;
+    }
+
+    /**
+     * Returns the self-score of the wrapped metric, which is not cached.
+     */
+    @Override
+    public float selfScore(MethodSequence sequence) {
+        return similarity.selfScore(sequence);
+    }
+
+    @Override
+    public MethodSequence encode(String owner, MethodNode method) {
+        return similarity.encode(owner, method);
+    }
+
+    /**
+     * Returns the statistics of the cache, such as its hit rate and the amount of evictions.
+     *
+     * @return a snapshot of the cache statistics
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * A cached score with the symbols it was computed for. The symbol arrays are shared with the sequences, not copied.
+     */
+    private static final class Entry {
+
+        private final short[] source;
+        private final short[] target;
+        private final float score;
+
+        private Entry(MethodSequence source, MethodSequence target, float score) {
+            this.source = source.symbols();
+            this.target = target.symbols();
+            this.score = score;
+        }
+    }
+
+    private static final class Pair {
+
+        private final long source;
+        private final long target;
+
+        private Pair(long source, long target) {
+            this.source = source;
+            this.target = target;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Pair)) {
+                return false;
+            }
+            Pair that = (Pair) o;
+            return source == that.source && target == that.target;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(source * 31 + target);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CachingSimilarity [similarity=" + similarity + ", size=" + cache.size() + ", stats=" + cache.stats()
+                + "]";
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.metrics;
+
+/**
+ * Helpers for converting substitution scores to fixed point, used by the quantized alignment algorithms.
+ */
+final class FixedPoint {
+
+    private FixedPoint() {
+    }
+
+    static int quantize(float value, int scale) {
+        return java.lang.Math.round(value * scale);
+    }
+
+    static int[][] quantize(float[][] table, int scale) {
+        int[][] quantized = new int[table.length][];
+        for (int i = 0; i < table.length; i++) {
+            quantized[i] = new int[table[i].length];
+            for (int j = 0; j < table[i].length; j++) {
+                quantized[i][j] = quantize(table[i][j], scale);
+            }
+        }
+        return quantized;
+    }
+
+    /**
+     * Returns the largest magnitude of a single step of an alignment in fixed point: a substitution, a gap or a step
+     * along the edge of the matrix.
+     *
+     * @param quantized the quantized substitution matrix
+     * @param quantizedGap the quantized gap penalty
+     * @param edgeStep the quantized cost of a step along the edge of the matrix, or zero if there is none
+     * @return the largest magnitude of a single step
+     */
+    static long maxStep(int[][] quantized, int quantizedGap, int edgeStep) {
+        long max = java.lang.Math.max(java.lang.Math.abs((long) quantizedGap), java.lang.Math.abs((long) edgeStep));
+        for (int[] row : quantized) {
+            for (int score : row) {
+                max = java.lang.Math.max(max, java.lang.Math.abs((long) score));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Returns whether every cell of the matrix of two sequences stays within the given limit. Every path to a cell
+     * consists of at most {@code n + m} steps, each of which changes the score by at most the largest step.
+     *
+     * @param n the length of the source sequence
+     * @param m the length of the target sequence
+     * @param maxStep the largest magnitude of a single step
+     * @param limit the largest magnitude a cell may reach
+     * @return true if no cell can exceed the limit
+     */
+    static boolean fits(int n, int m, long maxStep, long limit) {
+        return ((long) n + m) * maxStep <= limit;
+    }
+
+    /**
+     * Returns the largest error a single step of an alignment can have after quantization, which is the largest
+     * difference between a score and its fixed point representation.
+     *
+     * @param table the substitution matrix
+     * @param quantized the quantized substitution matrix
+     * @param gapValue the gap penalty
+     * @param quantizedGap the quantized gap penalty
+     * @param scale the fixed point scale
+     * @return the largest error of a single step
+     */
+    static float stepError(float[][] table, int[][] quantized, float gapValue, int quantizedGap, int scale) {
+        float error = java.lang.Math.abs((float) quantizedGap / scale - gapValue);
+        for (int i = 0; i < table.length; i++) {
+            for (int j = 0; j < table[i].length; j++) {
+                error = java.lang.Math.max(error, java.lang.Math.abs((float) quantized[i][j] / scale - table[i][j]));
+            }
+        }
+        return error;
+    }
+}
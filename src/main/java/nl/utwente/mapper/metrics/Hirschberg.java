@@ -0,0 +1,312 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.metrics;
+
+import java.util.Arrays;
+
+import static nl.utwente.mapper.metrics.Math.max;
+
+/**
+ * Recovers optimal alignments in linear space using Hirschberg's divide-and-conquer algorithm. The aligned region is
+ * split at its middle source row, the best crossing column is found by scoring the upper half forwards and the lower
+ * half backwards, and both quadrants are aligned recursively. Small regions are aligned with a full matrix and a
+ * traceback.
+ *
+ * <p>
+ * Alignments maximize a score. Gaps along the first row or column of the region may score differently from gaps
+ * elsewhere, which allows reproducing the boundary of {@link NeedlemanWunsch}.
+ *
+ * @see <a href="https://en.wikipedia.org/wiki/Hirschberg%27s_algorithm">Wikipedia - Hirschberg's algorithm</a>
+ */
+final class Hirschberg {
+
+    /**
+     * The largest region that is aligned with a full matrix.
+     */
+    private static final int BASE_CELLS = 1 << 12;
+
+    private final float[][] table;
+    private final float gap;
+    private final float edgeGap;
+    private final short[] source;
+    private final short[] target;
+    private final int sourceFrom;
+    private final int targetFrom;
+
+    private int[] sourceIndices;
+    private int[] targetIndices;
+    private int size;
+
+    private Hirschberg(float[][] table, float gap, float edgeGap, short[] source, int sourceFrom, short[] target,
+                       int targetFrom) {
+        this.table = table;
+        this.gap = gap;
+        this.edgeGap = edgeGap;
+        this.source = source;
+        this.target = target;
+        this.sourceFrom = sourceFrom;
+        this.targetFrom = targetFrom;
+        this.sourceIndices = new int[16];
+        this.targetIndices = new int[16];
+    }
+
+    /**
+     * Globally aligns the given regions of two sequences.
+     *
+     * @param table the substitution scores, indexed by source and target symbol
+     * @param gap the score of a gap
+     * @param edgeGap the score of a gap along the first row or column of the region
+     * @return the aligned source positions and the aligned target positions
+     */
+    static int[][] align(float[][] table, float gap, float edgeGap, short[] source, int sourceFrom, int sourceTo,
+                         short[] target, int targetFrom, int targetTo) {
+        Hirschberg hirschberg = new Hirschberg(table, gap, edgeGap, source, sourceFrom, target, targetFrom);
+        hirschberg.align(sourceFrom, sourceTo, targetFrom, targetTo);
+        return new int[][]{
+                Arrays.copyOf(hirschberg.sourceIndices, hirschberg.size),
+                Arrays.copyOf(hirschberg.targetIndices, hirschberg.size)
+        };
+    }
+
+    /**
+     * Finds the regions of two sequences which form their best local alignment, using the recurrence of
+     * {@link AdaptiveLocalAlignment}. The end of the alignment is the best cell of the matrix. Its start is the best
+     * cell of a second pass, which runs backwards from the end and is anchored there.
+     *
+     * @param table the substitution scores, indexed by source and target symbol
+     * @param gap the score of a gap
+     * @return the source start, source end, target start and target end, all ends being exclusive
+     */
+    static int[] localRegion(float[][] table, float gap, short[] source, short[] target) {
+        final int n = source.length;
+        final int m = target.length;
+
+        float[] v = new float[m + 1];
+        float best = 0;
+        int sourceEnd = 0;
+        int targetEnd = 0;
+
+        for (int i = 1; i <= n; i++) {
+            final float[] row = table[source[i - 1]];
+            float diagonal = 0;
+            for (int j = 1; j <= m; j++) {
+                final float up = v[j];
+                v[j] = max(0, up + gap, v[j - 1] + gap, diagonal + row[target[j - 1]]);
+                diagonal = up;
+                if (v[j] > best) {
+                    best = v[j];
+                    sourceEnd = i;
+                    targetEnd = j;
+                }
+            }
+        }
+
+        if (best <= 0) {
+            return new int[]{0, 0, 0, 0};
+        }
+
+        // Align the reversed prefixes without resetting to zero, so every cell scores an alignment ending at the end.
+        v = new float[targetEnd + 1];
+        for (int j = 1; j <= targetEnd; j++) {
+            v[j] = v[j - 1] + gap;
+        }
+
+        best = Float.NEGATIVE_INFINITY;
+        int sourceLength = 0;
+        int targetLength = 0;
+
+        for (int i = 1; i <= sourceEnd; i++) {
+            final float[] row = table[source[sourceEnd - i]];
+            float diagonal = v[0];
+            v[0] += gap;
+            for (int j = 1; j <= targetEnd; j++) {
+                final float up = v[j];
+                v[j] = max(up + gap, v[j - 1] + gap, diagonal + row[target[targetEnd - j]]);
+                diagonal = up;
+                if (v[j] > best) {
+                    best = v[j];
+                    sourceLength = i;
+                    targetLength = j;
+                }
+            }
+        }
+
+        return new int[]{sourceEnd - sourceLength, sourceEnd, targetEnd - targetLength, targetEnd};
+    }
+
+    private void align(int sourceLow, int sourceHigh, int targetLow, int targetHigh) {
+        final int rows = sourceHigh - sourceLow;
+        final int columns = targetHigh - targetLow;
+
+        if (rows == 0 || columns == 0) {
+            return;
+        }
+
+        if (rows == 1 || columns == 1 || (long) rows * columns <= BASE_CELLS) {
+            traceback(sourceLow, sourceHigh, targetLow, targetHigh);
+            return;
+        }
+
+        final int middle = (sourceLow + sourceHigh) >>> 1;
+        final float[] forward = forward(sourceLow, middle, targetLow, targetHigh);
+        final float[] backward = backward(middle, sourceHigh, targetLow, targetHigh);
+
+        int split = 0;
+        for (int j = 1; j <= columns; j++) {
+            if (forward[j] + backward[j] > forward[split] + backward[split]) {
+                split = j;
+            }
+        }
+
+        align(sourceLow, middle, targetLow, targetLow + split);
+        align(middle, sourceHigh, targetLow + split, targetHigh);
+    }
+
+    /**
+     * Returns the score of the best path from the top left corner of the region to every cell of its bottom row.
+     */
+    private float[] forward(int sourceLow, int sourceHigh, int targetLow, int targetHigh) {
+        final int columns = targetHigh - targetLow;
+        final float[] v = new float[columns + 1];
+
+        float horizontal = horizontalGap(sourceLow);
+        for (int j = 1; j <= columns; j++) {
+            v[j] = v[j - 1] + horizontal;
+        }
+
+        for (int i = sourceLow + 1; i <= sourceHigh; i++) {
+            final float[] row = table[source[i - 1]];
+            horizontal = horizontalGap(i);
+
+            float diagonal = v[0];
+            v[0] += verticalGap(targetLow);
+            for (int j = 1; j <= columns; j++) {
+                final float up = v[j];
+                v[j] = max(up + verticalGap(targetLow + j), v[j - 1] + horizontal,
+                        diagonal + row[target[targetLow + j - 1]]);
+                diagonal = up;
+            }
+        }
+
+        return v;
+    }
+
+    /**
+     * Returns the score of the best path from every cell of the top row of the region to its bottom right corner.
+     */
+    private float[] backward(int sourceLow, int sourceHigh, int targetLow, int targetHigh) {
+        final int columns = targetHigh - targetLow;
+        final float[] v = new float[columns + 1];
+
+        float horizontal = horizontalGap(sourceHigh);
+        for (int j = columns - 1; j >= 0; j--) {
+            v[j] = v[j + 1] + horizontal;
+        }
+
+        for (int i = sourceHigh - 1; i >= sourceLow; i--) {
+            final float[] row = table[source[i]];
+            horizontal = horizontalGap(i);
+
+            float diagonal = v[columns];
+            v[columns] += verticalGap(targetHigh);
+            for (int j = columns - 1; j >= 0; j--) {
+                final float down = v[j];
+                v[j] = max(down + verticalGap(targetLow + j), v[j + 1] + horizontal,
+                        diagonal + row[target[targetLow + j]]);
+                diagonal = down;
+            }
+        }
+
+        return v;
+    }
+
+    /**
+     * Aligns a small region with a full matrix, and appends the pairs found by tracing back from its bottom right
+     * corner.
+     */
+    private void traceback(int sourceLow, int sourceHigh, int targetLow, int targetHigh) {
+        final int rows = sourceHigh - sourceLow;
+        final int columns = targetHigh - targetLow;
+        final float[][] v = new float[rows + 1][columns + 1];
+
+        for (int j = 1; j <= columns; j++) {
+            v[0][j] = v[0][j - 1] + horizontalGap(sourceLow);
+        }
+
+        for (int i = 1; i <= rows; i++) {
+            final float[] row = table[source[sourceLow + i - 1]];
+            final float horizontal = horizontalGap(sourceLow + i);
+
+            v[i][0] = v[i - 1][0] + verticalGap(targetLow);
+            for (int j = 1; j <= columns; j++) {
+                v[i][j] = max(v[i - 1][j] + verticalGap(targetLow + j), v[i][j - 1] + horizontal,
+                        v[i - 1][j - 1] + row[target[targetLow + j - 1]]);
+            }
+        }
+
+        final int start = size;
+        int i = rows;
+        int j = columns;
+        while (i > 0 && j > 0) {
+            if (v[i][j] == v[i - 1][j - 1] + table[source[sourceLow + i - 1]][target[targetLow + j - 1]]) {
+                append(sourceLow + i - 1, targetLow + j - 1);
+                i--;
+                j--;
+            } else if (v[i][j] == v[i - 1][j] + verticalGap(targetLow + j)) {
+                i--;
+            } else {
+                j--;
+            }
+        }
+
+        // The pairs were found from the end to the start of the region.
+        for (int low = start, high = size - 1; low < high; low++, high--) {
+            int swap = sourceIndices[low]; sourceIndices[low] = sourceIndices[high]; sourceIndices[high] = swap;
+            swap = targetIndices[low]; targetIndices[low] = targetIndices[high]; targetIndices[high] = swap;
+        }
+    }
+
+    private void append(int sourceIndex, int targetIndex) {
+        if (size == sourceIndices.length) {
+            sourceIndices = Arrays.copyOf(sourceIndices, size * 2);
+            targetIndices = Arrays.copyOf(targetIndices, size * 2);
+        }
+        sourceIndices[size] = sourceIndex;
+        targetIndices[size++] = targetIndex;
+    }
+
+    /**
+     * Returns the score of a gap in the target, moving from row to row within the given column.
+     */
+    private float verticalGap(int column) {
+        return column == targetFrom ? edgeGap : gap;
+    }
+
+    /**
+     * Returns the score of a gap in the source, moving from column to column within the given row.
+     */
+    private float horizontalGap(int row) {
+        return row == sourceFrom ? edgeGap : gap;
+    }
+}
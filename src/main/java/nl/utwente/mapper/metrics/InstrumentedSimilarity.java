@@ -0,0 +1,100 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.metrics;
+
+import nl.utwente.mapper.monitoring.Counter;
+import nl.utwente.mapper.monitoring.MappingListener;
+import org.objectweb.asm.tree.MethodNode;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Reports every comparison made by another metric to a listener, along with the nominal size of its alignment matrix
+ * and its duration. Thresholded comparisons which return a value below their threshold are additionally counted as
+ * {@link Counter#REJECTED rejected}.
+ *
+ * <p>
+ * Metrics which are not wrapped are not instrumented at all, so instrumentation costs nothing when it is disabled.
+ *
+ * <p>
+ * This class is thread-safe if the wrapped metric and the listener are.
+ */
+public final class InstrumentedSimilarity implements MethodSimilarity {
+
+    private final MethodSimilarity similarity;
+    private final MappingListener listener;
+
+    /**
+     * Constructs a new instrumented metric.
+     *
+     * @param similarity the metric to instrument
+     * @param listener the listener to report the comparisons to
+     */
+    public InstrumentedSimilarity(MethodSimilarity similarity, MappingListener listener) {
+        this.similarity = checkNotNull(similarity);
+        this.listener = checkNotNull(listener);
+    }
+
+    @Override
+    public float compare(MethodNode source, MethodNode target) {
+        return compare(encode(null, source), encode(null, target));
+    }
+
+    @Override
+    public float compare(MethodSequence source, MethodSequence target) {
+        long start = System.nanoTime();
+        float score = similarity.compare(source, target);
+        listener.alignment((long) source.size() * target.size(), System.nanoTime() - start);
+        return score;
+    }
+
+    @Override
+    public float compare(MethodSequence source, MethodSequence target, float threshold) {
+        long start = System.nanoTime();
+        float score = similarity.compare(source, target, threshold);
+        listener.alignment((long) source.size() * target.size(), System.nanoTime() - start);
+        if (score < threshold) {
+            listener.count(Counter.REJECTED, 1);
+        }
+        return score;
+    }
+
+    /**
+     * Returns the self-score of the wrapped metric, which is not counted as an alignment.
+     */
+    @Override
+    public float selfScore(MethodSequence sequence) {
+        return similarity.selfScore(sequence);
+    }
+
+    @Override
+    public MethodSequence encode(String owner, MethodNode method) {
+        return similarity.encode(owner, method);
+    }
+
+    @Override
+    public String toString() {
+        return "InstrumentedSimilarity [similarity=" + similarity + ", listener=" + listener + "]";
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.metrics;
+
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A compact, pre-encoded representation of a method. Each instruction of the method is stored as a single symbol
+ * in a primitive array, so the alignment algorithms never have to walk the InsnList of a MethodNode in their inner
+ * loops. For opcode based substitution functions the symbols are the opcodes themselves, where pseudo-instructions
+ * such as labels (which have an opcode of -1) are mapped to {@link #PSEUDO_OPCODE}.
+ *
+ * <p>
+ * This class is immutable as long as the array returned by {@link #symbols()} is not modified.
+ */
+public final class MethodSequence {
+
+    /**
+     * The symbol used for instructions which do not have an opcode, such as labels, line numbers and frames.
+     */
+    public static final int PSEUDO_OPCODE = 0xFF;
+
+    private final String owner;
+    private final String name;
+    private final String desc;
+    private final short[] symbols;
+
+    /**
+     * The lazily computed content hash, zero if it has not been computed yet.
+     */
+    private long hash;
+
+    /**
+     * Constructs a new sequence from already encoded symbols. The array is not copied.
+     *
+     * @param owner the internal name of the class declaring the method
+     * @param name the name of the method
+     * @param desc the descriptor of the method
+     * @param symbols the encoded instructions of the method
+     */
+    public MethodSequence(String owner, String name, String desc, short[] symbols) {
+        this.owner = owner;
+        this.name = name;
+        this.desc = desc;
+        this.symbols = checkNotNull(symbols);
+    }
+
+    /**
+     * Encodes the opcodes of the given method into a new sequence.
+     *
+     * @param owner the internal name of the class declaring the method
+     * @param method the method to encode
+     * @return the opcode sequence of the method
+     */
+    public static MethodSequence encode(String owner, MethodNode method) {
+        return new MethodSequence(owner, method.name, method.desc, opcodes(method));
+    }
+
+    /**
+     * Returns the opcodes of all instructions of the given method, including pseudo-instructions.
+     *
+     * @param method the method to encode
+     * @return an array containing a symbol for each instruction of the method
+     */
+    public static short[] opcodes(MethodNode method) {
+        short[] opcodes = new short[method.instructions.size()];
+
+        int i = 0;
+        for (AbstractInsnNode node = method.instructions.getFirst(); node != null; node = node.getNext()) {
+            opcodes[i++] = (short) (node.getOpcode() & PSEUDO_OPCODE);
+        }
+
+        return opcodes;
+    }
+
+    public String owner() {
+        return owner;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public String desc() {
+        return desc;
+    }
+
+    public int size() {
+        return symbols.length;
+    }
+
+    public int symbol(int index) {
+        return symbols[index];
+    }
+
+    /**
+     * Returns the backing array of this sequence. Callers must not modify it.
+     *
+     * @return the encoded instructions of this method
+     */
+    public short[] symbols() {
+        return symbols;
+    }
+
+    /**
+     * Returns a 64-bit hash of the symbols of this sequence. Sequences with equal symbols have equal hashes,
+     * regardless of the method they were encoded from.
+     *
+     * @return the content hash of this sequence
+     */
+    public long contentHash() {
+        long h = hash;
+        if (h == 0) {
+            h = symbols.length;
+            for (short symbol : symbols) {
+                h = (h ^ symbol) * 0x100000001B3L;
+            }
+            // Finalize with the mixer of MurmurHash3 to spread the bits, and never store the marker value.
+            h ^= h >>> 33;
+            h *= 0xFF51AFD7ED558CCDL;
+            h ^= h >>> 33;
+            h *= 0xC4CEB93FE53A9C1BL;
+            h ^= h >>> 33;
+            hash = h = h == 0 ? 1 : h;
+        }
+        return h;
+    }
+
+    /**
+     * Returns whether this sequence consists of the same symbols as the given sequence.
+     *
+     * @param other the sequence to compare with
+     * @return true if both sequences have equal symbols
+     */
+    public boolean contentEquals(MethodSequence other) {
+        return this == other || contentHash() == other.contentHash() && Arrays.equals(symbols, other.symbols);
+    }
+
+    @Override
+    public String toString() {
+        return "MethodSequence [" + owner + "." + name + desc + ", size=" + symbols.length + "]";
+    }
+}
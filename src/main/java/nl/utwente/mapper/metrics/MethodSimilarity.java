@@ -0,0 +1,144 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.metrics;
+
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A similarity metric between two methods. Implementations return a score where higher values indicate more similar
+ * methods, and must be thread-safe so a single instance can be shared by all workers of a mapping run.
+ */
+public interface MethodSimilarity {
+
+    public float compare(MethodNode source, MethodNode target);
+
+    /**
+     * Compares two pre-encoded methods. The sequences must have been encoded by {@link #encode(String, MethodNode)}
+     * of this metric.
+     *
+     * @param source the encoded source method
+     * @param target the encoded target method
+     * @return the similarity of the two methods
+     */
+    public float compare(MethodSequence source, MethodSequence target);
+
+    /**
+     * Compares two pre-encoded methods, allowing the computation to stop as soon as the similarity can no longer reach
+     * the given threshold. If the similarity is at least the threshold it is returned exactly, otherwise a value
+     * below the threshold is returned. By default the similarity is always computed in full.
+     *
+     * @param source the encoded source method
+     * @param target the encoded target method
+     * @param threshold the similarity the caller is interested in
+     * @return the similarity of the two methods, or a value below the threshold
+     */
+    public default float compare(MethodSequence source, MethodSequence target, float threshold) {
+        return compare(source, target);
+    }
+
+    /**
+     * Returns the similarity of a pre-encoded method and an identical copy of it, such as the same method in another
+     * version of a jar. By default the method is compared with a copy in full; metrics which can derive the score from
+     * the sequence alone override this.
+     *
+     * @param sequence the encoded method
+     * @return the similarity of the method with an identical copy
+     */
+    public default float selfScore(MethodSequence sequence) {
+        return compare(sequence, new MethodSequence(sequence.owner(), sequence.name(), sequence.desc(),
+                sequence.symbols()));
+    }
+
+    /**
+     * Finds the k targets most similar to a source method. Targets are encoded one at a time, and each is compared
+     * with the k-th best score so far as its threshold, so only the heap of k scores is retained.
+     *
+     * @param source the source method
+     * @param targets the candidate target methods
+     * @param k the amount of targets to find
+     * @return the best targets, indexed by their position in the iteration order of the collection
+     */
+    public default TopScores findTopK(MethodNode source, Collection<MethodNode> targets, int k) {
+        MethodSequence encoded = encode(null, source);
+        TopScores top = new TopScores(k);
+        int index = 0;
+        for (MethodNode target : targets) {
+            top.offer(index++, compare(encoded, encode(null, target), top.threshold()));
+        }
+        return top;
+    }
+
+    /**
+     * Finds the k targets most similar to a pre-encoded source method, comparing each target with the k-th best
+     * score so far as its threshold.
+     *
+     * @param source the encoded source method
+     * @param targets the encoded target methods
+     * @param k the amount of targets to find
+     * @return the best targets, indexed by their position in the list
+     */
+    public default TopScores findTopK(MethodSequence source, List<MethodSequence> targets, int k) {
+        TopScores top = new TopScores(k);
+        for (int i = 0; i < targets.size(); i++) {
+            top.offer(i, compare(source, targets.get(i), top.threshold()));
+        }
+        return top;
+    }
+
+    /**
+     * Finds the k most similar targets for every source method. The targets are encoded once and the sources are
+     * searched one after the other on the calling thread, so besides the encoded targets only k scores are retained
+     * per source. Callers which want to search in parallel can split the sources over their own executor.
+     *
+     * @param sources the source methods
+     * @param targets the candidate target methods
+     * @param k the amount of targets to find per source
+     * @return the best targets of every source, in the iteration order of the sources
+     */
+    public default List<TopScores> findTopK(Collection<MethodNode> sources, Collection<MethodNode> targets, int k) {
+        List<MethodSequence> encoded = new ArrayList<>(targets.size());
+        for (MethodNode target : targets) {
+            encoded.add(encode(null, target));
+        }
+
+        List<TopScores> tops = new ArrayList<>(sources.size());
+        for (MethodNode source : sources) {
+            tops.add(findTopK(encode(null, source), encoded, k));
+        }
+        return tops;
+    }
+
+    /**
+     * Encodes a method into a sequence which can be passed to {@link #compare(MethodSequence, MethodSequence)}.
+     *
+     * @param owner the internal name of the class declaring the method
+     * @param method the method to encode
+     * @return the encoded method
+     */
+    public MethodSequence encode(String owner, MethodNode method);
+}
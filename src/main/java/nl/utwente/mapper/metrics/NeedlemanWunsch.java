@@ -25,18 +25,50 @@ package nl.utwente.mapper.metrics;
 import nl.utwente.mapper.metrics.functions.BytecodeSubstitution;
 import org.objectweb.asm.tree.MethodNode;
 
+import java.util.Arrays;
+
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 import static java.lang.Math.max;
 import static java.lang.Math.min;
 import static nl.utwente.mapper.metrics.Math.min;
 
-public final class NeedlemanWunsch {
+public final class NeedlemanWunsch implements MethodSimilarity {
 
     private final BytecodeSubstitution substitution;
 
+    private final float[][] table;
+
+    /**
+     * The highest score a single row of the matrix can add to an alignment, indexed by source symbol.
+     */
+    private final float[] gains;
+
+    /**
+     * The highest score a single diagonal step can add to an alignment, indexed by source symbol, but at least zero.
+     */
+    private final float[] diagonalGains;
+    private final float maxDiagonalGain;
+
+    /**
+     * Whether identical sequences are known to align best along the diagonal.
+     */
+    private final boolean diagonalBest;
+
     private final float gapValue;
 
+    /**
+     * The penalty of the first instruction of a gap, equal to {@link #gapValue} if gaps are linear.
+     */
+    private final float gapOpen;
+    private final boolean affine;
+
+    /**
+     * The initial half-width of the band around the diagonal, or zero if the full matrix is always computed.
+     */
+    private final int band;
+
     /**
      * Constructs a new Needleman-Wunsch metric.
      *
@@ -46,44 +78,200 @@ public final class NeedlemanWunsch {
      *            a substitution function for mismatched characters
      */
     public NeedlemanWunsch(float gapValue, BytecodeSubstitution substitution) {
+        this(gapValue, substitution, 0);
+    }
+
+    /**
+     * Constructs a new Needleman-Wunsch metric which only computes a band around the diagonal of the matrix. The band
+     * is widened until the score is provably equal to the score of the full matrix, which makes comparing
+     * near-identical methods roughly linear instead of quadratic.
+     *
+     * @param gapValue
+     *            a non-positive penalty for gaps
+     * @param substitution
+     *            a substitution function for mismatched characters
+     * @param band
+     *            the initial half-width of the band, or zero to always compute the full matrix
+     */
+    public NeedlemanWunsch(float gapValue, BytecodeSubstitution substitution, int band) {
+        this(gapValue, gapValue, substitution, band);
+    }
+
+    /**
+     * Constructs a new Needleman-Wunsch metric with affine gap penalties: a gap of k instructions costs
+     * {@code gapOpen + (k - 1) * gapExtend}, so a block of inserted or removed bytecode is penalized mostly once
+     * instead of per instruction.
+     *
+     * @param gapOpen
+     *            a non-positive penalty for the first instruction of a gap, at most gapExtend
+     * @param gapExtend
+     *            a non-positive penalty for every further instruction of a gap
+     * @param substitution
+     *            a substitution function for mismatched characters
+     */
+    public NeedlemanWunsch(float gapOpen, float gapExtend, BytecodeSubstitution substitution) {
+        this(gapOpen, gapExtend, substitution, 0);
+    }
+
+    private NeedlemanWunsch(float gapOpen, float gapValue, BytecodeSubstitution substitution, int band) {
         checkArgument(gapValue <= 0.0f);
+        checkArgument(gapOpen <= gapValue);
+        checkArgument(band >= 0);
         checkNotNull(substitution);
         this.gapValue = gapValue;
+        this.gapOpen = gapOpen;
+        this.affine = gapOpen != gapValue;
+        this.band = band;
         this.substitution = substitution;
+        this.table = substitution.table();
+        // The first column of the matrix costs one per row, regardless of the gap value.
+        this.gains = Bounds.gains(table, max(gapValue, -1.0f));
+        this.diagonalGains = Bounds.gains(table, 0);
+
+        float maxGain = 0;
+        for (float gain : diagonalGains) {
+            maxGain = max(maxGain, gain);
+        }
+        this.maxDiagonalGain = maxGain;
+        this.diagonalBest = Bounds.diagonalBest(table);
     }
 
+    @Override
     public float compare(MethodNode a, MethodNode b) {
-        if (a.instructions.size() == 0 && b.instructions.size() == 0) {
+        if (a.equals(b)) {
             return 1.0f;
         }
 
-        if (a.equals(b)) {
+        return compare(substitution.encode(null, a), substitution.encode(null, b));
+    }
+
+    /**
+     * Compares two pre-encoded methods. The sequences must have been encoded by the substitution function of this
+     * metric.
+     *
+     * @param a the encoded source method
+     * @param b the encoded target method
+     * @return the similarity of the two methods
+     */
+    @Override
+    public float compare(MethodSequence a, MethodSequence b) {
+        if (a.size() == 0 && b.size() == 0) {
+            return 1.0f;
+        }
+
+        if (a == b) {
             return 1.0f;
         }
 
         float maxDistance = max(
-                a.instructions.size(),
-                b.instructions.size()) * max(substitution.max(),
+                a.size(),
+                b.size()) * max(substitution.max(),
                 gapValue);
         float minDistance = max(
-                a.instructions.size(),
-                b.instructions.size()) * min(substitution.min(),
-                gapValue);
-        return (-needlemanWunsch(a, b) - minDistance) / (maxDistance - minDistance);
+                a.size(),
+                b.size()) * min(substitution.min(),
+                gapOpen);
+        float penalty;
+        if (diagonalBest && a.contentEquals(b)) {
+            penalty = diagonal(a.symbols());
+        } else if (affine) {
+            penalty = affineNeedlemanWunsch(a.symbols(), b.symbols());
+        } else if (band > 0) {
+            penalty = bandedNeedlemanWunsch(a.symbols(), b.symbols());
+        } else {
+            penalty = needlemanWunsch(a.symbols(), b.symbols());
+        }
+        return (-penalty - minDistance) / (maxDistance - minDistance);
+
+    }
+
+    /**
+     * Returns the similarity of a method and an identical copy. If every symbol scores best against itself, this is
+     * computed in linear time from the diagonal of the substitution matrix.
+     *
+     * @param sequence the encoded method
+     * @return the similarity of the method with an identical copy
+     */
+    @Override
+    public float selfScore(MethodSequence sequence) {
+        if (sequence.size() == 0 || !diagonalBest) {
+            return MethodSimilarity.super.selfScore(sequence);
+        }
+
+        float maxDistance = sequence.size() * max(substitution.max(), gapValue);
+        float minDistance = sequence.size() * min(substitution.min(), gapOpen);
+        return (-diagonal(sequence.symbols()) - minDistance) / (maxDistance - minDistance);
+    }
+
+    /**
+     * Compares two pre-encoded methods, stopping as soon as the similarity can no longer reach the given threshold.
+     * Every row of the matrix can lower the alignment penalty by at most the best substitution score of its source
+     * symbol, so after each row the remaining rows bound the similarity that can still be reached. When that bound
+     * falls below the threshold, the bound itself is returned.
+     *
+     * @param a the encoded source method
+     * @param b the encoded target method
+     * @param threshold the similarity the caller is interested in
+     * @return the similarity of the two methods, or a value below the threshold
+     */
+    @Override
+    public float compare(MethodSequence a, MethodSequence b, float threshold) {
+        if (a.size() == 0 || b.size() == 0 || a == b || threshold == Float.NEGATIVE_INFINITY || band > 0 || affine
+                || diagonalBest && a.contentEquals(b)) {
+            return compare(a, b);
+        }
 
+        float maxDistance = max(a.size(), b.size()) * max(substitution.max(), gapValue);
+        float minDistance = max(a.size(), b.size()) * min(substitution.min(), gapValue);
+        float range = maxDistance - minDistance;
+        if (range <= 0) {
+            return compare(a, b);
+        }
+
+        float cutoff = threshold * range + minDistance;
+        return (-needlemanWunsch(a.symbols(), b.symbols(), cutoff) - minDistance) / range;
     }
 
-    private float needlemanWunsch(final MethodNode s, final MethodNode t) {
-        if (s.instructions.size() == 0) {
-            return -gapValue * t.instructions.size();
+    /**
+     * Aligns two pre-encoded methods and returns their global alignment. The alignment is found with Hirschberg's
+     * algorithm, so the memory used is linear in the length of the methods.
+     *
+     * @param a the encoded source method
+     * @param b the encoded target method
+     * @return the aligned positions of the two methods
+     * @throws IllegalStateException if this metric uses affine gap penalties
+     */
+    public Alignment align(MethodSequence a, MethodSequence b) {
+        checkState(!affine, "Alignments can only be traced back with linear gap penalties");
+        // Gaps along the first row and column of the matrix cost one, regardless of the gap value.
+        final int[][] pairs = Hirschberg.align(table, gapValue, -1.0f, a.symbols(), 0, a.size(), b.symbols(), 0,
+                b.size());
+        return new Alignment(compare(a, b), pairs[0], pairs[1], 0, a.size(), 0, b.size());
+    }
+
+    /**
+     * Calculates the penalty of aligning a sequence with itself in linear time. Only valid if {@link #diagonalBest}
+     * holds, in which case the matrix would accumulate exactly these sums along its diagonal.
+     */
+    private float diagonal(final short[] symbols) {
+        float penalty = 0;
+        for (short symbol : symbols) {
+            penalty -= table[symbol][symbol];
         }
+        return penalty;
+    }
 
-        if (t.instructions.size() == 0) {
-            return -gapValue * s.instructions.size();
+    private float needlemanWunsch(final short[] s, final short[] t) {
+        if (s.length == 0) {
+            return -gapValue * t.length;
         }
 
-        final int n = s.instructions.size();
-        final int m = t.instructions.size();
+        if (t.length == 0) {
+            return -gapValue * s.length;
+        }
+
+        final int n = s.length;
+        final int m = t.length;
 
         // We're only interested in the alignment penalty between s and t
         // and not their actual alignment. This means we don't have to backtrack
@@ -97,13 +285,15 @@ public final class NeedlemanWunsch {
         }
 
         for (int i = 1; i <= n; i++) {
+            final float[] row = table[s[i - 1]];
+
             v1[0] = i;
 
             for (int j = 1; j <= m; j++) {
                 v1[j] = min(
                         v0[j]     - gapValue,
                         v1[j - 1] - gapValue,
-                        v0[j - 1] - substitution.compare(s, i - 1, t, j - 1));
+                        v0[j - 1] - row[t[j - 1]]);
             }
 
             final float[] swap = v0; v0 = v1; v1 = swap;
@@ -114,8 +304,188 @@ public final class NeedlemanWunsch {
         return v0[m];
     }
 
+    /**
+     * Calculates the alignment penalty like {@link #needlemanWunsch(short[], short[])}, but with affine gap penalties
+     * using Gotoh's three vector recurrence. Besides the best penalty of every cell, the best penalty of an alignment
+     * ending in a vertical gap is kept per column, and the best penalty of an alignment ending in a horizontal gap is
+     * carried along the row. The first row and column keep costing one per instruction.
+     */
+    private float affineNeedlemanWunsch(final short[] s, final short[] t) {
+        if (s.length == 0) {
+            return -gapOpen - gapValue * (t.length - 1);
+        }
+
+        if (t.length == 0) {
+            return -gapOpen - gapValue * (s.length - 1);
+        }
+
+        final int n = s.length;
+        final int m = t.length;
+
+        float[] v0 = new float[m + 1];
+        float[] v1 = new float[m + 1];
+        final float[] vertical = new float[m + 1];
+        Arrays.fill(vertical, Float.POSITIVE_INFINITY);
+
+        for (int j = 0; j <= m; j++) {
+            v0[j] = j;
+        }
+
+        for (int i = 1; i <= n; i++) {
+            final float[] row = table[s[i - 1]];
+            float horizontal = Float.POSITIVE_INFINITY;
+
+            v1[0] = i;
+
+            for (int j = 1; j <= m; j++) {
+                vertical[j] = min(v0[j] - gapOpen, vertical[j] - gapValue);
+                horizontal = min(v1[j - 1] - gapOpen, horizontal - gapValue);
+                v1[j] = min(
+                        vertical[j],
+                        horizontal,
+                        v0[j - 1] - row[t[j - 1]]);
+            }
+
+            final float[] swap = v0; v0 = v1; v1 = swap;
+        }
+
+        return v0[m];
+    }
+
+    /**
+     * Calculates the alignment penalty like {@link #needlemanWunsch(short[], short[])}, but only over a band of
+     * diagonals around the diagonal through both corners of the matrix. Any path leaving the band needs at least
+     * {@code |m - n| + 2 * (k + 1)} gaps, which bounds its penalty from below. If the penalty found within the band
+     * is below that bound no path outside the band can be better, otherwise the band is doubled and the computation
+     * repeated.
+     */
+    private float bandedNeedlemanWunsch(final short[] s, final short[] t) {
+        if (s.length == 0 || t.length == 0) {
+            return needlemanWunsch(s, t);
+        }
+
+        final int n = s.length;
+        final int m = t.length;
+        final int d = m - n;
+
+        // The cheapest possible gap, either a regular gap or a step along the first row or column.
+        final float gapCost = min(-gapValue, 1.0f);
+
+        float sourceGain = 0;
+        for (short symbol : s) {
+            sourceGain += diagonalGains[symbol];
+        }
+
+        float[] v0 = new float[m + 1];
+        float[] v1 = new float[m + 1];
+
+        for (int k = band; ; k = k * 2) {
+            // The band spans the diagonals j - i from lower to upper.
+            final int lower = min(0, d) - k;
+            final int upper = max(0, d) + k;
+
+            if (lower <= -n && upper >= m) {
+                return needlemanWunsch(s, t);
+            }
+
+            int hi = min(m, upper);
+            for (int j = 0; j <= hi; j++) {
+                v0[j] = j;
+            }
+            if (hi < m) {
+                v0[hi + 1] = Float.POSITIVE_INFINITY;
+            }
+
+            for (int i = 1; i <= n; i++) {
+                final float[] row = table[s[i - 1]];
+                final int lo = max(0, i + lower);
+                hi = min(m, i + upper);
+
+                int j = lo;
+                if (lo == 0) {
+                    v1[0] = i;
+                    j = 1;
+                } else {
+                    v1[lo - 1] = Float.POSITIVE_INFINITY;
+                }
+
+                for (; j <= hi; j++) {
+                    v1[j] = min(
+                            v0[j]     - gapValue,
+                            v1[j - 1] - gapValue,
+                            v0[j - 1] - row[t[j - 1]]);
+                }
+
+                if (hi < m) {
+                    v1[hi + 1] = Float.POSITIVE_INFINITY;
+                }
+
+                final float[] swap = v0; v0 = v1; v1 = swap;
+            }
+
+            // Any path leaving the band has at least this many gaps, and the remaining steps are diagonal.
+            final int gaps = java.lang.Math.abs(d) + 2 * (k + 1);
+            final float outside = gaps * gapCost - min(sourceGain, (n + m - gaps) / 2.0f * maxDiagonalGain);
+            if (Bounds.below(v0[m], outside)) {
+                return v0[m];
+            }
+        }
+    }
+
+    /**
+     * Calculates the alignment penalty like {@link #needlemanWunsch(short[], short[])}, but returns a lower bound of
+     * the penalty as soon as the negated penalty can no longer reach the given cutoff.
+     */
+    private float needlemanWunsch(final short[] s, final short[] t, final float cutoff) {
+        final int n = s.length;
+        final int m = t.length;
+
+        // remaining[k] bounds how much the rows after source position k can still lower the penalty.
+        final float[] remaining = Bounds.remaining(gains, s);
+        if (Bounds.below(remaining[0] + gains[s[0]], cutoff)) {
+            return -(remaining[0] + gains[s[0]]);
+        }
+
+        float[] v0 = new float[m + 1];
+        float[] v1 = new float[m + 1];
+
+        for (int j = 0; j <= m; j++) {
+            v0[j] = j;
+        }
+
+        for (int i = 1; i <= n; i++) {
+            final float[] row = table[s[i - 1]];
+
+            float rowMin = v1[0] = i;
+
+            for (int j = 1; j <= m; j++) {
+                v1[j] = min(
+                        v0[j]     - gapValue,
+                        v1[j - 1] - gapValue,
+                        v0[j - 1] - row[t[j - 1]]);
+
+                rowMin = min(rowMin, v1[j]);
+            }
+
+            final float[] swap = v0; v0 = v1; v1 = swap;
+
+            final float bound = remaining[i - 1] - rowMin;
+            if (i < n && Bounds.below(bound, cutoff)) {
+                return -bound;
+            }
+        }
+
+        // Because we swapped the results are in v0.
+        return v0[m];
+    }
+
+    @Override
+    public MethodSequence encode(String owner, MethodNode method) {
+        return substitution.encode(owner, method);
+    }
+
     @Override
     public String toString() {
-        return "NeedlemanWunsch [costFunction=" + substitution + ", gapCost=" + gapValue + "]";
+        return "NeedlemanWunsch [costFunction=" + substitution + ", gapOpen=" + gapOpen + ", gapCost=" + gapValue + "]";
     }
 }
\ No newline at end of file
@@ -0,0 +1,250 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.metrics;
+
+import nl.utwente.mapper.metrics.functions.BytecodeSubstitution;
+import org.objectweb.asm.tree.MethodNode;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static nl.utwente.mapper.metrics.Math.max;
+
+/**
+ * A fixed point variant of {@link AdaptiveLocalAlignment}. The substitution scores and the gap penalty are scaled
+ * and rounded to integers once, after which the whole matrix is filled using integer arithmetic. The result differs
+ * from the floating point algorithm by at most {@link #maxDeviation(MethodSequence, MethodSequence)}. Pairs which are
+ * long enough for a cell of their matrix to overflow an int are scored by the floating point algorithm instead.
+ *
+ * <p>
+ * This class is immutable and thread-safe if its substitution functions are.
+ */
+public final class QuantizedLocalAlignment implements MethodSimilarity {
+
+    /**
+     * The default scale, which keeps the scores of methods of up to hundreds of thousands of instructions within
+     * the range of an int.
+     */
+    public static final int DEFAULT_SCALE = 1 << 12;
+
+    /**
+     * The largest magnitude of a cell, which leaves room for the sentinel of half the minimum int.
+     */
+    private static final long MAX_CELL = Integer.MAX_VALUE / 2;
+
+    private final float gapValue;
+    private final int gap;
+    private final int scale;
+    private final BytecodeSubstitution substitution;
+    private final int[][] table;
+    private final float stepError;
+    private final boolean diagonalBest;
+    private final long maxStep;
+    private final AdaptiveLocalAlignment fallback;
+
+    /**
+     * Constructs a new quantized Smith Waterman metric with the default scale.
+     *
+     * @param gapValue
+     *            a non-positive gap penalty
+     * @param substitution
+     *            a substitution function
+     */
+    public QuantizedLocalAlignment(float gapValue, BytecodeSubstitution substitution) {
+        this(gapValue, substitution, DEFAULT_SCALE);
+    }
+
+    /**
+     * Constructs a new quantized Smith Waterman metric.
+     *
+     * @param gapValue
+     *            a non-positive gap penalty
+     * @param substitution
+     *            a substitution function
+     * @param scale
+     *            the factor the scores are multiplied with before rounding them to integers
+     * @throws IllegalArgumentException if a single scaled score does not fit in the range of the matrix
+     */
+    public QuantizedLocalAlignment(float gapValue, BytecodeSubstitution substitution, int scale) {
+        checkArgument(gapValue <= 0.0f);
+        checkArgument(scale > 0);
+        checkNotNull(substitution);
+        this.gapValue = gapValue;
+        this.substitution = substitution;
+        this.scale = scale;
+        this.gap = FixedPoint.quantize(gapValue, scale);
+
+        float[][] scores = substitution.table();
+        this.table = FixedPoint.quantize(scores, scale);
+        this.stepError = FixedPoint.stepError(scores, table, gapValue, gap, scale);
+        this.diagonalBest = Bounds.diagonalBest(table);
+        this.maxStep = FixedPoint.maxStep(table, gap, 0);
+        checkArgument(maxStep <= MAX_CELL, "The scale %s is too large for the scores of %s", scale, substitution);
+        this.fallback = new AdaptiveLocalAlignment(gapValue, substitution);
+    }
+
+    @Override
+    public float compare(final MethodNode source, final MethodNode target) {
+        return compare(substitution.encode(null, source), substitution.encode(null, target));
+    }
+
+    @Override
+    public float compare(final MethodSequence source, final MethodSequence target) {
+        if (source.size() == 0 && target.size() == 0) {
+            return 1.0f;
+        }
+
+        if (source.size() == 0 || target.size() == 0) {
+            return 0.0f;
+        }
+
+        if (!FixedPoint.fits(source.size(), target.size(), maxStep, MAX_CELL)) {
+            return fallback.compare(source, target);
+        }
+
+        float maxDistance = min(source.size(), target.size()) * max(substitution.max(), gapValue);
+        return ((float) calculate(source.symbols(), target.symbols()) / scale) / maxDistance;
+    }
+
+    /**
+     * Returns the similarity of a method and an identical copy. If every symbol scores best against itself in the
+     * quantized matrix, this is computed in linear time from its diagonal.
+     *
+     * @param sequence the encoded method
+     * @return the similarity of the method with an identical copy
+     */
+    @Override
+    public float selfScore(final MethodSequence sequence) {
+        if (sequence.size() == 0 || !diagonalBest) {
+            return MethodSimilarity.super.selfScore(sequence);
+        }
+        if (!FixedPoint.fits(sequence.size(), sequence.size(), maxStep, MAX_CELL)) {
+            return fallback.selfScore(sequence);
+        }
+
+        float maxDistance = sequence.size() * max(substitution.max(), gapValue);
+        return ((float) diagonal(sequence.symbols()) / scale) / maxDistance;
+    }
+
+    /**
+     * Returns the largest difference between the similarity computed by this metric and the similarity computed by
+     * {@link AdaptiveLocalAlignment} for two methods. Every alignment path consists of at most {@code n + m} steps,
+     * each of which is off by at most the largest rounding error of the scores. Pairs which are scored by the
+     * floating point algorithm do not deviate.
+     *
+     * @param source the encoded source method
+     * @param target the encoded target method
+     * @return the maximum deviation from the floating point similarity
+     */
+    public float maxDeviation(final MethodSequence source, final MethodSequence target) {
+        if (source.size() == 0 || target.size() == 0
+                || !FixedPoint.fits(source.size(), target.size(), maxStep, MAX_CELL)) {
+            return 0.0f;
+        }
+
+        float maxDistance = min(source.size(), target.size()) * max(substitution.max(), gapValue);
+        return (source.size() + target.size()) * stepError / java.lang.Math.abs(maxDistance);
+    }
+
+    /**
+     * Fills the matrix like the floating point kernel of {@link AdaptiveLocalAlignment}, using integer query
+     * profiles.
+     */
+    private int calculate(final short[] source, final short[] target) {
+        final int m = target.length;
+        final int[][] profiles = new int[table.length][];
+
+        int[] v0 = new int[m + 1];
+        int[] v1 = new int[m + 1];
+        // Half the minimum, so adding a score to the sentinel cannot overflow.
+        v0[0] = v1[0] = Integer.MIN_VALUE / 2;
+
+        int[] profile = profile(profiles, source[0], target);
+
+        int max = v0[1] = max(0, gap, profile[1]);
+
+        for (int j = 2; j <= m; j++) {
+            v0[j] = max(0, v0[j - 1] + gap, profile[j]);
+
+            max = max(max, v0[j]);
+        }
+
+        for (int i = 1; i < source.length; i++) {
+            profile = profile(profiles, source[i], target);
+
+            for (int j = 1; j <= m; j++) {
+                v1[j] = max(0, v0[j] + gap, v0[j - 1] + profile[j]);
+            }
+
+            int h = v1[1] = max(v1[1], profile[1]);
+            max = max(max, h);
+
+            for (int j = 2; j <= m; j++) {
+                h = max(v1[j], h + gap);
+                v1[j] = h;
+
+                max = max(max, h);
+            }
+
+            final int[] swap = v0; v0 = v1; v1 = swap;
+        }
+
+        return max;
+    }
+
+    private int diagonal(final short[] symbols) {
+        int score = 0;
+        for (short symbol : symbols) {
+            score += table[symbol][symbol];
+        }
+        return score;
+    }
+
+    private int[] profile(final int[][] profiles, final short symbol, final short[] target) {
+        int[] profile = profiles[symbol];
+
+        if (profile == null) {
+            final int[] row = table[symbol];
+            profile = profiles[symbol] = new int[target.length + 1];
+            profile[0] = Integer.MIN_VALUE / 2;
+            for (int j = 0; j < target.length; j++) {
+                profile[j + 1] = row[target[j]];
+            }
+        }
+
+        return profile;
+    }
+
+    @Override
+    public MethodSequence encode(String owner, MethodNode method) {
+        return substitution.encode(owner, method);
+    }
+
+    @Override
+    public String toString() {
+        return "QuantizedLocalAlignment [substitution=" + substitution + ", gapValue=" + gapValue
+                + ", scale=" + scale + "]";
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.metrics;
+
+import nl.utwente.mapper.metrics.functions.BytecodeSubstitution;
+import org.objectweb.asm.tree.MethodNode;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static nl.utwente.mapper.metrics.Math.min;
+
+/**
+ * A fixed point variant of {@link NeedlemanWunsch}. The substitution scores and the gap penalty are scaled and
+ * rounded to integers once, after which the whole matrix is filled using integer arithmetic. The result differs from
+ * the floating point algorithm by at most {@link #maxDeviation(MethodSequence, MethodSequence)}. Pairs which are long
+ * enough for a cell of their matrix to overflow an int are scored by the floating point algorithm instead.
+ *
+ * <p>
+ * This class is immutable and thread-safe if its substitution functions are.
+ */
+public final class QuantizedNeedlemanWunsch implements MethodSimilarity {
+
+    private final BytecodeSubstitution substitution;
+
+    private final int[][] table;
+
+    private final float gapValue;
+    private final int gap;
+    private final int scale;
+    private final float stepError;
+    private final boolean diagonalBest;
+    private final long maxStep;
+    private final NeedlemanWunsch fallback;
+
+    /**
+     * Constructs a new quantized Needleman-Wunsch metric with the default scale.
+     *
+     * @param gapValue
+     *            a non-positive penalty for gaps
+     * @param substitution
+     *            a substitution function for mismatched characters
+     */
+    public QuantizedNeedlemanWunsch(float gapValue, BytecodeSubstitution substitution) {
+        this(gapValue, substitution, QuantizedLocalAlignment.DEFAULT_SCALE);
+    }
+
+    /**
+     * Constructs a new quantized Needleman-Wunsch metric.
+     *
+     * @param gapValue
+     *            a non-positive penalty for gaps
+     * @param substitution
+     *            a substitution function for mismatched characters
+     * @param scale
+     *            the factor the scores are multiplied with before rounding them to integers
+     * @throws IllegalArgumentException if a single scaled score does not fit in the range of an int
+     */
+    public QuantizedNeedlemanWunsch(float gapValue, BytecodeSubstitution substitution, int scale) {
+        checkArgument(gapValue <= 0.0f);
+        checkArgument(scale > 0);
+        checkNotNull(substitution);
+        this.gapValue = gapValue;
+        this.substitution = substitution;
+        this.scale = scale;
+        this.gap = FixedPoint.quantize(gapValue, scale);
+
+        float[][] scores = substitution.table();
+        this.table = FixedPoint.quantize(scores, scale);
+        this.stepError = FixedPoint.stepError(scores, table, gapValue, gap, scale);
+        this.diagonalBest = Bounds.diagonalBest(table);
+        // The first row and column cost one per step, which is the scale itself.
+        this.maxStep = FixedPoint.maxStep(table, gap, scale);
+        checkArgument(maxStep < Integer.MAX_VALUE, "The scale %s is too large for the scores of %s", scale,
+                substitution);
+        this.fallback = new NeedlemanWunsch(gapValue, substitution);
+    }
+
+    @Override
+    public float compare(MethodNode a, MethodNode b) {
+        if (a.equals(b)) {
+            return 1.0f;
+        }
+
+        return compare(substitution.encode(null, a), substitution.encode(null, b));
+    }
+
+    @Override
+    public float compare(MethodSequence a, MethodSequence b) {
+        if (a.size() == 0 && b.size() == 0) {
+            return 1.0f;
+        }
+
+        if (a == b) {
+            return 1.0f;
+        }
+
+        if (!FixedPoint.fits(a.size(), b.size(), maxStep, Integer.MAX_VALUE)) {
+            return fallback.compare(a, b);
+        }
+
+        float maxDistance = max(a.size(), b.size()) * max(substitution.max(), gapValue);
+        float minDistance = max(a.size(), b.size()) * min(substitution.min(), gapValue);
+        float penalty = (float) needlemanWunsch(a.symbols(), b.symbols()) / scale;
+        return (-penalty - minDistance) / (maxDistance - minDistance);
+    }
+
+    /**
+     * Returns the similarity of a method and an identical copy. If every symbol scores best against itself in the
+     * quantized matrix, this is computed in linear time from its diagonal.
+     *
+     * @param sequence the encoded method
+     * @return the similarity of the method with an identical copy
+     */
+    @Override
+    public float selfScore(MethodSequence sequence) {
+        if (sequence.size() == 0 || !diagonalBest) {
+            return MethodSimilarity.super.selfScore(sequence);
+        }
+        if (!FixedPoint.fits(sequence.size(), sequence.size(), maxStep, Integer.MAX_VALUE)) {
+            return fallback.selfScore(sequence);
+        }
+
+        float maxDistance = sequence.size() * max(substitution.max(), gapValue);
+        float minDistance = sequence.size() * min(substitution.min(), gapValue);
+        float penalty = (float) -diagonal(sequence.symbols()) / scale;
+        return (-penalty - minDistance) / (maxDistance - minDistance);
+    }
+
+    /**
+     * Returns the largest difference between the similarity computed by this metric and the similarity computed by
+     * {@link NeedlemanWunsch} for two methods. Every alignment path consists of at most {@code n + m} steps, each of
+     * which is off by at most the largest rounding error of the scores. Pairs which are scored by the floating point
+     * algorithm do not deviate.
+     *
+     * @param a the encoded source method
+     * @param b the encoded target method
+     * @return the maximum deviation from the floating point similarity
+     */
+    public float maxDeviation(MethodSequence a, MethodSequence b) {
+        if (a == b || a.size() == 0 && b.size() == 0
+                || !FixedPoint.fits(a.size(), b.size(), maxStep, Integer.MAX_VALUE)) {
+            return 0.0f;
+        }
+
+        float maxDistance = max(a.size(), b.size()) * max(substitution.max(), gapValue);
+        float minDistance = max(a.size(), b.size()) * min(substitution.min(), gapValue);
+        return (a.size() + b.size()) * stepError / java.lang.Math.abs(maxDistance - minDistance);
+    }
+
+    private int needlemanWunsch(final short[] s, final short[] t) {
+        if (s.length == 0) {
+            return -gap * t.length;
+        }
+
+        if (t.length == 0) {
+            return -gap * s.length;
+        }
+
+        final int n = s.length;
+        final int m = t.length;
+
+        int[] v0 = new int[m + 1];
+        int[] v1 = new int[m + 1];
+
+        // The first row and column cost one per step, like in the floating point algorithm.
+        for (int j = 0; j <= m; j++) {
+            v0[j] = j * scale;
+        }
+
+        for (int i = 1; i <= n; i++) {
+            final int[] row = table[s[i - 1]];
+
+            v1[0] = i * scale;
+
+            for (int j = 1; j <= m; j++) {
+                v1[j] = min(
+                        v0[j]     - gap,
+                        v1[j - 1] - gap,
+                        v0[j - 1] - row[t[j - 1]]);
+            }
+
+            final int[] swap = v0; v0 = v1; v1 = swap;
+        }
+
+        return v0[m];
+    }
+
+    private int diagonal(final short[] symbols) {
+        int score = 0;
+        for (short symbol : symbols) {
+            score += table[symbol][symbol];
+        }
+        return score;
+    }
+
+    @Override
+    public MethodSequence encode(String owner, MethodNode method) {
+        return substitution.encode(owner, method);
+    }
+
+    @Override
+    public String toString() {
+        return "QuantizedNeedlemanWunsch [costFunction=" + substitution + ", gapCost=" + gapValue
+                + ", scale=" + scale + "]";
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.metrics;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the indices of the k highest scores offered to it, using a primitive binary min-heap so the memory use is
+ * bounded by k regardless of how many scores are offered.
+ *
+ * <p>
+ * This class is not thread-safe.
+ */
+public final class TopScores {
+
+    private final int[] indices;
+    private final float[] scores;
+    private int size;
+
+    /**
+     * Constructs a new empty heap.
+     *
+     * @param k the amount of scores to retain
+     */
+    public TopScores(int k) {
+        checkArgument(k > 0);
+        this.indices = new int[k];
+        this.scores = new float[k];
+    }
+
+    /**
+     * Returns the lowest score that is still retained, or negative infinity if fewer than k scores were offered.
+     * Scores that are not higher than this value will not be retained.
+     *
+     * @return the lowest retained score
+     */
+    public float threshold() {
+        return size < scores.length ? Float.NEGATIVE_INFINITY : scores[0];
+    }
+
+    /**
+     * Offers a score, which is retained if it is among the k highest scores offered so far.
+     *
+     * @param index the index of the scored element
+     * @param score the score of the element
+     */
+    public void offer(int index, float score) {
+        if (size < scores.length) {
+            // Sift the new element up from the bottom of the heap.
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (scores[parent] <= score) {
+                    break;
+                }
+                indices[i] = indices[parent];
+                scores[i] = scores[parent];
+                i = parent;
+            }
+            indices[i] = index;
+            scores[i] = score;
+        } else if (score > scores[0]) {
+            // Replace the root and sift it down.
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && scores[child + 1] < scores[child]) {
+                    child++;
+                }
+                if (scores[child] >= score) {
+                    break;
+                }
+                indices[i] = indices[child];
+                scores[i] = scores[child];
+                i = child;
+            }
+            indices[i] = index;
+            scores[i] = score;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the index of a retained score, in heap order.
+     *
+     * @param i the position in the heap, below {@link #size()}
+     * @return the index of the element
+     */
+    public int index(int i) {
+        return indices[i];
+    }
+
+    /**
+     * Returns a retained score, in heap order.
+     *
+     * @param i the position in the heap, below {@link #size()}
+     * @return the score of the element
+     */
+    public float score(int i) {
+        return scores[i];
+    }
+
+    /**
+     * Returns the positions in the heap ordered by descending score, ties broken by ascending index.
+     *
+     * @return the positions of the retained scores, best first
+     */
+    public int[] ranking() {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> scores[a] != scores[b]
+                ? Float.compare(scores[b], scores[a]) : Integer.compare(indices[a], indices[b]));
+
+        int[] ranking = new int[size];
+        for (int i = 0; i < size; i++) {
+            ranking[i] = order[i];
+        }
+        return ranking;
+    }
+
+    @Override
+    public String toString() {
+        return "TopScores [k=" + scores.length + ", size=" + size + ", threshold=" + threshold() + "]";
+    }
+}
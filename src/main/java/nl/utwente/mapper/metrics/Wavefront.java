@@ -0,0 +1,272 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.metrics;
+
+import com.google.common.base.Throwables;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static nl.utwente.mapper.metrics.Math.max;
+
+/**
+ * Computes the local alignment score of a single large pair of sequences on several cores. The matrix is cut into
+ * square tiles, and a tile only depends on the tiles to its left, above and diagonally above it. All tiles on the same
+ * anti-diagonal are therefore independent, and each anti-diagonal is processed in parallel once the previous one has
+ * finished. The tiles of a wave are claimed one by one by the calling thread and by helper tasks on the executor of the
+ * metric. The calling thread only waits for tiles which have already been claimed, so a wave always completes, even
+ * when the executor is busy with the task which is scoring the pair.
+ *
+ * <p>
+ * Between waves only the borders of the tiles are kept: the last row of the most recent tile in each column, the last
+ * column of the most recent tile in each row, and the bottom-right corner of every tile. Every cell is computed with
+ * the same operations as the sequential kernel of {@link AdaptiveLocalAlignment}, so the scores are identical.
+ */
+final class Wavefront {
+
+    /**
+     * The width and height of a tile. A tile's working rows then fit in the L1 cache.
+     */
+    static final int TILE = 512;
+
+    /**
+     * The least amount of cells for which the matrix is tiled. Below this, forking costs more than it saves.
+     */
+    static final long MINIMUM_CELLS = 1L << 24;
+
+    /**
+     * The memory of the two working rows of a tile, which every thread working on a wave allocates per tile.
+     */
+    static final long TILE_BYTES = 2L * (TILE + 1) * Float.BYTES;
+
+    private final float[][] table;
+    private final float gap;
+    private final short[] source;
+    private final short[] target;
+    private final int rows;
+    private final int columns;
+
+    /**
+     * The last row of the most recent tile in each column, indexed by target position plus one.
+     */
+    private final float[] bottom;
+
+    /**
+     * The last column of the most recent tile in each row, indexed by source position plus one.
+     */
+    private final float[] right;
+
+    /**
+     * The bottom-right cell of every tile, which the tile diagonally below it needs after its neighbours have
+     * overwritten the borders.
+     */
+    private final float[][] corners;
+
+    /**
+     * The best score in every tile.
+     */
+    private final float[][] maxima;
+
+    private Wavefront(float[][] table, float gap, short[] source, short[] target) {
+        this.table = table;
+        this.gap = gap;
+        this.source = source;
+        this.target = target;
+        this.rows = (source.length + TILE - 1) / TILE;
+        this.columns = (target.length + TILE - 1) / TILE;
+        this.bottom = new float[target.length + 1];
+        this.right = new float[source.length + 1];
+        this.corners = new float[rows][columns];
+        this.maxima = new float[rows][columns];
+    }
+
+    /**
+     * Returns whether tiling pays off for a pair of the given lengths: the matrix must be large, and both sequences
+     * long enough for several tiles to run at the same time.
+     *
+     * @param sourceLength the length of the source sequence
+     * @param targetLength the length of the target sequence
+     * @return whether the pair should be scored with {@link #score}
+     */
+    static boolean worthwhile(int sourceLength, int targetLength) {
+        return (long) sourceLength * targetLength >= MINIMUM_CELLS
+                && java.lang.Math.min(sourceLength, targetLength) >= 4 * TILE;
+    }
+
+    /**
+     * Estimates the memory used to score a pair of the given lengths: the borders of the tiles and the working rows
+     * of the tile the scoring thread itself is filling.
+     *
+     * @param sourceLength the length of the source sequence
+     * @param targetLength the length of the target sequence
+     * @return the estimated memory in bytes
+     */
+    static long bytes(int sourceLength, int targetLength) {
+        long rows = (sourceLength + TILE - 1) / TILE;
+        long columns = (targetLength + TILE - 1) / TILE;
+        return ((sourceLength + 1L) + (targetLength + 1L) + 2 * rows * columns) * Float.BYTES + TILE_BYTES;
+    }
+
+    /**
+     * Calculates the best local alignment score of two sequences with linear gap penalties.
+     *
+     * @param table the substitution matrix
+     * @param gap the non-positive score of a gap instruction
+     * @param source the source symbols
+     * @param target the target symbols
+     * @param executor the executor to run the helper tasks on
+     * @param parallelism the amount of threads which may work on a wave, including the calling thread
+     * @return the best score of any cell in the matrix
+     */
+    static float score(float[][] table, float gap, short[] source, short[] target, ExecutorService executor,
+                       int parallelism) {
+        Wavefront wavefront = new Wavefront(table, gap, source, target);
+        int waves = wavefront.rows + wavefront.columns - 1;
+        for (int d = 0; d < waves; d++) {
+            int first = java.lang.Math.max(0, d - wavefront.columns + 1);
+            int last = java.lang.Math.min(wavefront.rows - 1, d);
+            wavefront.new Wave(d, first, last).run(executor, parallelism);
+        }
+
+        float max = 0;
+        for (float[] row : wavefront.maxima) {
+            for (float tile : row) {
+                max = java.lang.Math.max(max, tile);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Fills a single tile from the borders of its neighbours and replaces the borders with its own.
+     */
+    private void tile(int r, int c) {
+        final int rowFrom = r * TILE;
+        final int rowTo = java.lang.Math.min(source.length, rowFrom + TILE);
+        final int columnFrom = c * TILE;
+        final int width = java.lang.Math.min(target.length, columnFrom + TILE) - columnFrom;
+
+        float[] v0 = new float[width + 1];
+        float[] v1 = new float[width + 1];
+        v0[0] = r == 0 || c == 0 ? 0 : corners[r - 1][c - 1];
+        System.arraycopy(bottom, columnFrom + 1, v0, 1, width);
+
+        float max = 0;
+        for (int i = rowFrom; i < rowTo; i++) {
+            final float[] row = table[source[i]];
+            float h = v1[0] = right[i + 1];
+
+            for (int j = 1; j <= width; j++) {
+                h = max(0, v0[j] + gap, v0[j - 1] + row[target[columnFrom + j - 1]], h + gap);
+                v1[j] = h;
+
+                max = java.lang.Math.max(max, h);
+            }
+
+            right[i + 1] = h;
+            final float[] swap = v0; v0 = v1; v1 = swap;
+        }
+
+        System.arraycopy(v0, 1, bottom, columnFrom + 1, width);
+        corners[r][c] = v0[width];
+        maxima[r][c] = max;
+    }
+
+    /**
+     * The tiles of a single anti-diagonal, handed out to whichever thread asks for the next one.
+     */
+    private final class Wave implements Runnable {
+
+        private final int diagonal;
+        private final int first;
+        private final int count;
+        private final AtomicInteger next = new AtomicInteger();
+        private final CountDownLatch done;
+        private volatile Throwable failure;
+
+        private Wave(int diagonal, int first, int last) {
+            this.diagonal = diagonal;
+            this.first = first;
+            this.count = last - first + 1;
+            this.done = new CountDownLatch(count);
+        }
+
+        /**
+         * Fills all tiles of the wave with the help of at most {@code parallelism - 1} tasks on the executor.
+         */
+        void run(ExecutorService executor, int parallelism) {
+            int helpers = java.lang.Math.min(parallelism, count) - 1;
+            try {
+                for (int i = 0; i < helpers; i++) {
+                    executor.execute(this);
+                }
+            } catch (RejectedExecutionException e) {
+                // The calling thread fills the remaining tiles itself.
+            }
+
+            run();
+
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    // The claimed tiles are being filled and will finish, so the wave is completed regardless.
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (failure != null) {
+                Throwables.throwIfUnchecked(failure);
+                throw new IllegalStateException(failure);
+            }
+        }
+
+        @Override
+        public void run() {
+            int k;
+            while ((k = next.getAndIncrement()) < count) {
+                try {
+                    int r = first + k;
+                    tile(r, diagonal - r);
+                } catch (Throwable t) {
+                    failure = t;
+                } finally {
+                    done.countDown();
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Wavefront [rows=" + rows + ", columns=" + columns + "]";
+    }
+}
@@ -23,18 +23,22 @@
  */
 package nl.utwente.mapper.metrics.functions;
 
+import nl.utwente.mapper.metrics.MethodSequence;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.MethodNode;
 
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.Collection;
 import java.util.Set;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 public class AdaptiveSubstitution implements BytecodeSubstitution {
 
-    private Map<Integer, Float> frequencyScores = new HashMap<>();
+    private static final int OPCODES = MethodSequence.PSEUDO_OPCODE + 1;
+
+    private final float[] frequencyScores = new float[OPCODES];
+    private final float[][] scores = new float[OPCODES][OPCODES];
 
     private float maxValue = Float.MIN_VALUE;
     private float minValue = Float.MAX_VALUE;
@@ -48,35 +52,92 @@ public class AdaptiveSubstitution implements BytecodeSubstitution {
      * @param classes a set of all classes to calculate the frequencies of each keyword from
      */
     public AdaptiveSubstitution(Set<ClassNode> classes) {
-        calculateScores(classes);
+        this(countOpcodes(classes));
     }
 
     /**
-     * Calculates the frequencies of all keywords in the given set of classes.
-     * Both the source and target classes should be included in the set.
+     * Creates a new instance of the scoring method from precomputed opcode occurrences, for instance counted by
+     * {@link #countSequences(Collection)} from methods loaded without building ClassNodes.
      *
-     * @param classes a set of all classes to calculate the frequencies of each keyword from
+     * @param occurrences the amount of times each opcode occurred, indexed by opcode with pseudo-instructions at
+     *                    {@link MethodSequence#PSEUDO_OPCODE}
      */
-    private void calculateScores(Set<ClassNode> classes) {
-        Map<Integer, Integer> occurrences = new HashMap<>();
-        int total = 0;
+    public AdaptiveSubstitution(long[] occurrences) {
+        checkArgument(occurrences.length == OPCODES);
+        calculateScores(occurrences);
+        calculateTable();
+    }
+
+    /**
+     * Counts how often each opcode occurs in the given classes.
+     * Both the source and target classes should be included in the collection.
+     *
+     * @param classes all classes to count the opcodes of
+     * @return the amount of times each opcode occurred, indexed by opcode
+     */
+    public static long[] countOpcodes(Collection<ClassNode> classes) {
+        long[] occurrences = new long[OPCODES];
 
-        // Iterate through all instructions in the methods, tracking for each opcode how often it occurred.
-        // We also keep track of the total amount of instructions, which is used to calculate the frequency.
         for (ClassNode classNode : classes) {
-            for (MethodNode methodNode : classNode.methods) {
-                Iterator iterator = methodNode.instructions.iterator();
-                while (iterator.hasNext()) {
-                    total++;
-                    AbstractInsnNode node = (AbstractInsnNode) iterator.next();
-                    occurrences.merge(node.getOpcode(), 1, Integer::sum);
-                }
+            countOpcodes(classNode, occurrences);
+        }
+
+        return occurrences;
+    }
+
+    /**
+     * Adds the amount of times each opcode occurs in the given class to the given occurrences.
+     *
+     * @param classNode the class to count the opcodes of
+     * @param occurrences the occurrences to add the counts to, indexed by opcode
+     */
+    static void countOpcodes(ClassNode classNode, long[] occurrences) {
+        // Iterate through all instructions in the methods, tracking for each opcode how often it occurred.
+        for (MethodNode methodNode : classNode.methods) {
+            for (AbstractInsnNode node = methodNode.instructions.getFirst(); node != null; node = node.getNext()) {
+                occurrences[node.getOpcode() & MethodSequence.PSEUDO_OPCODE]++;
+            }
+        }
+    }
+
+    /**
+     * Counts how often each opcode occurs in the given opcode sequences.
+     * Both the source and target methods should be included in the collection.
+     *
+     * @param sequences all methods to count the opcodes of
+     * @return the amount of times each opcode occurred, indexed by opcode
+     */
+    public static long[] countSequences(Collection<MethodSequence> sequences) {
+        long[] occurrences = new long[OPCODES];
+
+        for (MethodSequence sequence : sequences) {
+            for (short opcode : sequence.symbols()) {
+                occurrences[opcode]++;
             }
         }
 
+        return occurrences;
+    }
+
+    /**
+     * Calculates the frequencies of all keywords from their occurrences.
+     *
+     * @param occurrences the amount of times each opcode occurred
+     */
+    private void calculateScores(long[] occurrences) {
+        // The total amount of instructions is used to calculate the frequency.
+        long total = 0;
+        for (long count : occurrences) {
+            total += count;
+        }
+
         // For each keyword we calculate the frequency and adjust the maximum and minimum scores accordingly.
-        for (Map.Entry<Integer, Integer> entry : occurrences.entrySet()) {
-            float score = (float) entry.getValue() / total;
+        for (int opcode = 0; opcode < OPCODES; opcode++) {
+            if (occurrences[opcode] == 0) {
+                continue;
+            }
+
+            float score = (float) occurrences[opcode] / total;
 
             if (score > maxValue) {
                 maxValue = score;
@@ -85,7 +146,21 @@ public class AdaptiveSubstitution implements BytecodeSubstitution {
                 minValue = score;
             }
 
-            frequencyScores.put(entry.getKey(), score);
+            frequencyScores[opcode] = score;
+        }
+    }
+
+    /**
+     * Fills the dense substitution matrix from the calculated frequencies, so that scoring a pair of opcodes is a
+     * single array load.
+     */
+    private void calculateTable() {
+        for (int source = 0; source < OPCODES; source++) {
+            for (int target = 0; target < OPCODES; target++) {
+                scores[source][target] = source == target
+                        ? 1 - frequencyScores[source]
+                        : -1 + frequencyScores[source];
+            }
         }
     }
 
@@ -103,14 +178,25 @@ public class AdaptiveSubstitution implements BytecodeSubstitution {
      */
     @Override
     public float compare(MethodNode source, int sourceIndex, MethodNode target, int targetIndex) {
-        int sourceOpcode = source.instructions.get(sourceIndex).getOpcode();
-        int targetOpcode = target.instructions.get(targetIndex).getOpcode();
+        int sourceOpcode = source.instructions.get(sourceIndex).getOpcode() & MethodSequence.PSEUDO_OPCODE;
+        int targetOpcode = target.instructions.get(targetIndex).getOpcode() & MethodSequence.PSEUDO_OPCODE;
 
-        if (sourceOpcode == targetOpcode) {
-            return 1 - frequencyScores.get(sourceOpcode);
-        } else {
-            return -1 + frequencyScores.get(sourceOpcode);
-        }
+        return scores[sourceOpcode][targetOpcode];
+    }
+
+    @Override
+    public float compare(int sourceSymbol, int targetSymbol) {
+        return scores[sourceSymbol][targetSymbol];
+    }
+
+    /**
+     * Returns the substitution matrix of this function. The returned array is shared and must not be modified.
+     *
+     * @return the substitution matrix indexed by source and target opcode
+     */
+    @Override
+    public float[][] table() {
+        return scores;
     }
 
     @Override
@@ -23,13 +23,63 @@
  */
 package nl.utwente.mapper.metrics.functions;
 
+import nl.utwente.mapper.metrics.MethodSequence;
 import org.objectweb.asm.tree.MethodNode;
 
 public interface BytecodeSubstitution {
 
     public float compare(MethodNode source, int sourceIndex, MethodNode target, int targetIndex);
 
+    /**
+     * Returns the score for substituting the given source symbol with the given target symbol. The symbols are the
+     * ones produced by {@link #encode(String, MethodNode)}.
+     *
+     * @param sourceSymbol encoded source instruction
+     * @param targetSymbol encoded target instruction
+     * @return the substitution score of the two symbols
+     */
+    public float compare(int sourceSymbol, int targetSymbol);
+
     public float max();
 
     public float min();
+
+    /**
+     * Returns the amount of distinct symbols this substitution function can produce. All symbols of an encoded
+     * method lie in the range {@code [0, symbols())}.
+     *
+     * @return the size of the alphabet of this substitution function
+     */
+    public default int symbols() {
+        return MethodSequence.PSEUDO_OPCODE + 1;
+    }
+
+    /**
+     * Encodes a method into the symbols understood by this substitution function. By default every instruction is
+     * encoded by its opcode.
+     *
+     * @param owner the internal name of the class declaring the method
+     * @param method the method to encode
+     * @return the encoded method
+     */
+    public default MethodSequence encode(String owner, MethodNode method) {
+        return MethodSequence.encode(owner, method);
+    }
+
+    /**
+     * Returns a dense matrix containing the score of every pair of symbols, indexed as
+     * {@code table()[sourceSymbol][targetSymbol]}. Implementations should cache the matrix, as the alignment
+     * algorithms request it for every comparison.
+     *
+     * @return the substitution matrix of this function
+     */
+    public default float[][] table() {
+        float[][] table = new float[symbols()][symbols()];
+        for (int i = 0; i < table.length; i++) {
+            for (int j = 0; j < table[i].length; j++) {
+                table[i][j] = compare(i, j);
+            }
+        }
+        return table;
+    }
 }
@@ -0,0 +1,286 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.metrics.functions;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.MoreExecutors;
+import nl.utwente.mapper.metrics.MethodSequence;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A mutable corpus of opcode occurrences from which {@link AdaptiveSubstitution} instances can be created. Classes,
+ * sequences or whole jars can be added and removed again without rescanning the rest of the corpus, so a long-running
+ * process can keep a rolling corpus up to date. Large batches of classes are counted in parallel on the executor of
+ * the corpus, with a separate counter per worker which is merged once at the end.
+ *
+ * <p>
+ * This class is thread-safe. The substitution functions it creates are immutable snapshots and are not affected by
+ * later changes to the corpus.
+ */
+public final class OpcodeCorpus {
+
+    private static final int OPCODES = MethodSequence.PSEUDO_OPCODE + 1;
+
+    /**
+     * The amount of classes a worker claims at once. Batches of at most this many classes are counted on the calling
+     * thread, as handing them out costs more than counting them.
+     */
+    private static final int CHUNK = 64;
+
+    private final long[] occurrences = new long[OPCODES];
+    private final ExecutorService executor;
+    private final int parallelism;
+
+    /**
+     * Constructs a new empty corpus which counts all classes on the calling thread.
+     */
+    public OpcodeCorpus() {
+        this(MoreExecutors.newDirectExecutorService(), 1);
+    }
+
+    /**
+     * Constructs a new empty corpus which counts large batches of classes on several threads of the given executor.
+     * The calling thread takes part in the counting and never waits for a task which has not started, so the executor
+     * may be busy or even be the one adding the classes.
+     *
+     * @param executor the executor to count large batches of classes on
+     * @param parallelism the amount of threads of the executor a batch may use, including the calling thread
+     */
+    public OpcodeCorpus(ExecutorService executor, int parallelism) {
+        checkNotNull(executor);
+        checkArgument(parallelism > 0);
+        this.executor = executor;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Adds the opcodes of the given classes to the corpus.
+     *
+     * @param classes the classes to add
+     */
+    public void addClasses(Collection<ClassNode> classes) {
+        add(countClasses(classes), 1);
+    }
+
+    /**
+     * Removes the opcodes of the given classes from the corpus. The classes must have been added before.
+     *
+     * @param classes the classes to remove
+     */
+    public void removeClasses(Collection<ClassNode> classes) {
+        add(countClasses(classes), -1);
+    }
+
+    /**
+     * Adds the opcodes of the given sequences to the corpus.
+     *
+     * @param sequences the opcode sequences to add
+     */
+    public void addSequences(Collection<MethodSequence> sequences) {
+        add(AdaptiveSubstitution.countSequences(sequences), 1);
+    }
+
+    /**
+     * Removes the opcodes of the given sequences from the corpus. The sequences must have been added before.
+     *
+     * @param sequences the opcode sequences to remove
+     */
+    public void removeSequences(Collection<MethodSequence> sequences) {
+        add(AdaptiveSubstitution.countSequences(sequences), -1);
+    }
+
+    /**
+     * Adds precomputed occurrences to the corpus, for instance those of a cached jar.
+     *
+     * @param counts the amount of times each opcode occurred, indexed by opcode
+     */
+    public void add(long[] counts) {
+        add(counts, 1);
+    }
+
+    /**
+     * Removes precomputed occurrences from the corpus. The occurrences must have been added before.
+     *
+     * @param counts the amount of times each opcode occurred, indexed by opcode
+     */
+    public void remove(long[] counts) {
+        add(counts, -1);
+    }
+
+    /**
+     * Adds all occurrences of another corpus to this corpus.
+     *
+     * @param other the corpus to merge into this corpus
+     */
+    public void merge(OpcodeCorpus other) {
+        add(other.occurrences(), 1);
+    }
+
+    /**
+     * Returns a copy of the current occurrences of every opcode.
+     *
+     * @return the occurrences, indexed by opcode
+     */
+    public synchronized long[] occurrences() {
+        return occurrences.clone();
+    }
+
+    /**
+     * Creates a substitution function from the current state of the corpus.
+     *
+     * @return an immutable substitution function over the current corpus
+     */
+    public AdaptiveSubstitution snapshot() {
+        return new AdaptiveSubstitution(occurrences());
+    }
+
+    private synchronized void add(long[] counts, int sign) {
+        checkArgument(counts.length == OPCODES);
+
+        if (sign < 0) {
+            for (int i = 0; i < OPCODES; i++) {
+                checkState(occurrences[i] >= counts[i], "Removing opcodes which were never added");
+            }
+        }
+
+        for (int i = 0; i < OPCODES; i++) {
+            occurrences[i] += sign * counts[i];
+        }
+    }
+
+    private long[] countClasses(Collection<ClassNode> classes) {
+        if (parallelism == 1 || classes.size() <= CHUNK) {
+            long[] counts = new long[OPCODES];
+            for (ClassNode classNode : classes) {
+                AdaptiveSubstitution.countOpcodes(classNode, counts);
+            }
+            return counts;
+        }
+        return new Count(new ArrayList<>(classes)).run(executor, parallelism);
+    }
+
+    /**
+     * The chunks of a batch of classes, handed out to whichever worker asks for the next one. Every worker counts into
+     * a counter of its own, which it adds to the total once it runs out of chunks.
+     */
+    private static final class Count implements Runnable {
+
+        private final List<ClassNode> classes;
+        private final int chunks;
+        private final long[] total = new long[OPCODES];
+        private final AtomicInteger next = new AtomicInteger();
+        private final CountDownLatch done;
+        private volatile Throwable failure;
+
+        private Count(List<ClassNode> classes) {
+            this.classes = classes;
+            this.chunks = (classes.size() + CHUNK - 1) / CHUNK;
+            this.done = new CountDownLatch(chunks);
+        }
+
+        /**
+         * Counts all chunks with the help of at most {@code parallelism - 1} tasks on the executor.
+         */
+        long[] run(ExecutorService executor, int parallelism) {
+            int helpers = Math.min(parallelism, chunks) - 1;
+            try {
+                for (int i = 0; i < helpers; i++) {
+                    executor.execute(this);
+                }
+            } catch (RejectedExecutionException e) {
+                // The calling thread counts the remaining chunks itself.
+            }
+
+            run();
+
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    // The claimed chunks are being counted and will finish, so the batch is completed regardless.
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (failure != null) {
+                Throwables.throwIfUnchecked(failure);
+                throw new IllegalStateException(failure);
+            }
+            return total;
+        }
+
+        @Override
+        public void run() {
+            long[] counts = new long[OPCODES];
+            int claimed = 0;
+            int k;
+            while ((k = next.getAndIncrement()) < chunks) {
+                claimed++;
+                try {
+                    int to = Math.min(classes.size(), (k + 1) * CHUNK);
+                    for (int c = k * CHUNK; c < to; c++) {
+                        AdaptiveSubstitution.countOpcodes(classes.get(c), counts);
+                    }
+                } catch (Throwable t) {
+                    failure = t;
+                }
+            }
+            if (claimed == 0) {
+                return;
+            }
+
+            synchronized (total) {
+                for (int i = 0; i < OPCODES; i++) {
+                    total[i] += counts[i];
+                }
+            }
+            for (int i = 0; i < claimed; i++) {
+                done.countDown();
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "OpcodeCorpus [instructions=" + Arrays.stream(occurrences).sum() + "]";
+    }
+}
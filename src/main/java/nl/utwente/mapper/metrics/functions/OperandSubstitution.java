@@ -0,0 +1,418 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.metrics.functions;
+
+import nl.utwente.mapper.metrics.MethodSequence;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+import java.util.Collection;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * An adaptive substitution function which distinguishes instructions by their opcode and the class of their operand,
+ * so a call to a renamed method still matches a call of the same shape, while a call of a different shape does not.
+ * Instructions are encoded into tokens:
+ *
+ * <ul>
+ * <li>method calls by the kind of their return type and the amount of arguments, up to three,</li>
+ * <li>field instructions by the kind of the field type,</li>
+ * <li>constants by their kind, distinguishing class literals from method types,</li>
+ * <li>type instructions and {@code NEWARRAY} by the kind of the type,</li>
+ * <li>local variable instructions by whether they access slot zero, the receiver of instance methods.</li>
+ * </ul>
+ *
+ * Names and owners are ignored, so tokens survive renaming. All other instructions are encoded by their opcode alone.
+ * Every opcode owns a fixed range of tokens, so the alphabet is known up front and the substitution matrix is
+ * computed once, keeping the cost of a matrix cell a single array load.
+ *
+ * <p>
+ * The scores follow {@link AdaptiveSubstitution}, using the frequencies of the tokens: identical tokens score
+ * {@code 1 - frequency}, different opcodes score {@code -1 + frequency} of the source token. Identical opcodes with a
+ * different operand class score zero, halfway between the two.
+ *
+ * <p>
+ * This class is immutable and thread-safe.
+ */
+public final class OperandSubstitution implements BytecodeSubstitution {
+
+    private static final int OPCODES = MethodSequence.PSEUDO_OPCODE + 1;
+
+    /**
+     * The kinds of values, used to classify return, field, constant and array types.
+     */
+    private static final int VOID = 0;
+    private static final int INT = 1;
+    private static final int FLOAT = 2;
+    private static final int LONG = 3;
+    private static final int DOUBLE = 4;
+    private static final int STRING = 5;
+    private static final int OBJECT = 6;
+    private static final int ARRAY = 7;
+    private static final int KINDS = 8;
+
+    /**
+     * Argument counts from this value onwards share a method shape.
+     */
+    private static final int ARGUMENTS = 4;
+
+    /**
+     * The kinds of constants loaded by {@code LDC}.
+     */
+    private static final int CONSTANT_CLASS = 6;
+    private static final int CONSTANT_METHOD_TYPE = 7;
+    private static final int CONSTANT_HANDLE = 8;
+    private static final int CONSTANTS = 9;
+
+    /**
+     * The first token of every opcode.
+     */
+    private static final int[] BASE = new int[OPCODES + 1];
+
+    /**
+     * The opcode of every token.
+     */
+    private static final short[] OPCODE;
+
+    /**
+     * The amount of tokens produced by this substitution function.
+     */
+    public static final int SYMBOLS;
+
+    static {
+        int[] classes = new int[OPCODES];
+        for (int opcode = 0; opcode < OPCODES; opcode++) {
+            classes[opcode] = operandClasses(opcode);
+        }
+
+        for (int opcode = 0; opcode < OPCODES; opcode++) {
+            BASE[opcode + 1] = BASE[opcode] + classes[opcode];
+        }
+        SYMBOLS = BASE[OPCODES];
+
+        OPCODE = new short[SYMBOLS];
+        for (int opcode = 0; opcode < OPCODES; opcode++) {
+            for (int token = BASE[opcode]; token < BASE[opcode + 1]; token++) {
+                OPCODE[token] = (short) opcode;
+            }
+        }
+    }
+
+    private final float[][] scores = new float[SYMBOLS][SYMBOLS];
+
+    private float maxValue = Float.MIN_VALUE;
+    private float minValue = Float.MAX_VALUE;
+
+    /**
+     * Creates a new substitution function from the token frequencies of the given classes. Both the source and target
+     * classes should be included in the parameter of this constructor.
+     *
+     * @param classes a set of all classes to calculate the frequencies of each token from
+     */
+    public OperandSubstitution(Set<ClassNode> classes) {
+        this(countTokens(classes));
+    }
+
+    /**
+     * Creates a new substitution function from precomputed token occurrences.
+     *
+     * @param occurrences the amount of times each token occurred, as counted by {@link #countTokens(Collection)}
+     */
+    public OperandSubstitution(long[] occurrences) {
+        checkArgument(occurrences.length == SYMBOLS);
+
+        long total = 0;
+        for (long count : occurrences) {
+            total += count;
+        }
+
+        float[] frequencies = new float[SYMBOLS];
+        for (int token = 0; token < SYMBOLS; token++) {
+            if (occurrences[token] == 0) {
+                continue;
+            }
+
+            float frequency = (float) occurrences[token] / total;
+            maxValue = Math.max(maxValue, frequency);
+            minValue = Math.min(minValue, frequency);
+            frequencies[token] = frequency;
+        }
+
+        for (int source = 0; source < SYMBOLS; source++) {
+            for (int target = 0; target < SYMBOLS; target++) {
+                if (source == target) {
+                    scores[source][target] = 1 - frequencies[source];
+                } else if (OPCODE[source] == OPCODE[target]) {
+                    scores[source][target] = 0;
+                } else {
+                    scores[source][target] = -1 + frequencies[source];
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts how often each token occurs in the given classes.
+     *
+     * @param classes all classes to count the tokens of
+     * @return the amount of times each token occurred, indexed by token
+     */
+    public static long[] countTokens(Collection<ClassNode> classes) {
+        long[] occurrences = new long[SYMBOLS];
+
+        for (ClassNode classNode : classes) {
+            for (MethodNode methodNode : classNode.methods) {
+                for (AbstractInsnNode node = methodNode.instructions.getFirst(); node != null;
+                     node = node.getNext()) {
+                    occurrences[token(node)]++;
+                }
+            }
+        }
+
+        return occurrences;
+    }
+
+    /**
+     * Returns the token of an instruction.
+     *
+     * @param node the instruction
+     * @return the token, in the range {@code [0, SYMBOLS)}
+     */
+    public static int token(AbstractInsnNode node) {
+        return BASE[node.getOpcode() & MethodSequence.PSEUDO_OPCODE] + operandClass(node);
+    }
+
+    /**
+     * Returns the opcode a token was produced from.
+     *
+     * @param token the token
+     * @return the opcode of the token, with pseudo-instructions at {@link MethodSequence#PSEUDO_OPCODE}
+     */
+    public static int opcode(int token) {
+        return OPCODE[token];
+    }
+
+    /**
+     * Returns the amount of operand classes an opcode is split into.
+     */
+    private static int operandClasses(int opcode) {
+        switch (opcode) {
+            case Opcodes.INVOKEVIRTUAL:
+            case Opcodes.INVOKESPECIAL:
+            case Opcodes.INVOKESTATIC:
+            case Opcodes.INVOKEINTERFACE:
+            case Opcodes.INVOKEDYNAMIC:
+                return KINDS * ARGUMENTS;
+            case Opcodes.GETSTATIC:
+            case Opcodes.PUTSTATIC:
+            case Opcodes.GETFIELD:
+            case Opcodes.PUTFIELD:
+                return KINDS;
+            case Opcodes.LDC:
+                return CONSTANTS;
+            case Opcodes.NEW:
+            case Opcodes.ANEWARRAY:
+            case Opcodes.CHECKCAST:
+            case Opcodes.INSTANCEOF:
+            case Opcodes.NEWARRAY:
+                return KINDS;
+            case Opcodes.ILOAD:
+            case Opcodes.LLOAD:
+            case Opcodes.FLOAD:
+            case Opcodes.DLOAD:
+            case Opcodes.ALOAD:
+            case Opcodes.ISTORE:
+            case Opcodes.LSTORE:
+            case Opcodes.FSTORE:
+            case Opcodes.DSTORE:
+            case Opcodes.ASTORE:
+                return 2;
+            default:
+                return 1;
+        }
+    }
+
+    /**
+     * Classifies the operand of an instruction, in the range {@code [0, operandClasses(opcode))}.
+     */
+    private static int operandClass(AbstractInsnNode node) {
+        switch (node.getType()) {
+            case AbstractInsnNode.METHOD_INSN:
+                return shape(((MethodInsnNode) node).desc);
+            case AbstractInsnNode.INVOKE_DYNAMIC_INSN:
+                return shape(((InvokeDynamicInsnNode) node).desc);
+            case AbstractInsnNode.FIELD_INSN:
+                return kind(Type.getType(((FieldInsnNode) node).desc));
+            case AbstractInsnNode.LDC_INSN:
+                return constant(((LdcInsnNode) node).cst);
+            case AbstractInsnNode.TYPE_INSN:
+                String type = ((TypeInsnNode) node).desc;
+                return type.startsWith("[") ? ARRAY : type.equals("java/lang/String") ? STRING : OBJECT;
+            case AbstractInsnNode.INT_INSN:
+                return node.getOpcode() == Opcodes.NEWARRAY ? arrayKind(((IntInsnNode) node).operand) : 0;
+            case AbstractInsnNode.VAR_INSN:
+                return node.getOpcode() == Opcodes.RET || ((VarInsnNode) node).var == 0 ? 0 : 1;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Classifies a method descriptor by the kind of its return type and its amount of arguments.
+     */
+    private static int shape(String desc) {
+        int arguments = Math.min(Type.getArgumentTypes(desc).length, ARGUMENTS - 1);
+        return kind(Type.getReturnType(desc)) * ARGUMENTS + arguments;
+    }
+
+    private static int kind(Type type) {
+        switch (type.getSort()) {
+            case Type.VOID:
+                return VOID;
+            case Type.BOOLEAN:
+            case Type.CHAR:
+            case Type.BYTE:
+            case Type.SHORT:
+            case Type.INT:
+                return INT;
+            case Type.FLOAT:
+                return FLOAT;
+            case Type.LONG:
+                return LONG;
+            case Type.DOUBLE:
+                return DOUBLE;
+            case Type.ARRAY:
+                return ARRAY;
+            default:
+                return type.getInternalName().equals("java/lang/String") ? STRING : OBJECT;
+        }
+    }
+
+    /**
+     * Classifies the element type of a {@code NEWARRAY} instruction.
+     */
+    private static int arrayKind(int operand) {
+        switch (operand) {
+            case Opcodes.T_FLOAT:
+                return FLOAT;
+            case Opcodes.T_LONG:
+                return LONG;
+            case Opcodes.T_DOUBLE:
+                return DOUBLE;
+            default:
+                return INT;
+        }
+    }
+
+    private static int constant(Object constant) {
+        if (constant instanceof Integer) {
+            return INT;
+        } else if (constant instanceof Float) {
+            return FLOAT;
+        } else if (constant instanceof Long) {
+            return LONG;
+        } else if (constant instanceof Double) {
+            return DOUBLE;
+        } else if (constant instanceof String) {
+            return STRING;
+        } else if (constant instanceof Type) {
+            return ((Type) constant).getSort() == Type.METHOD ? CONSTANT_METHOD_TYPE : CONSTANT_CLASS;
+        } else if (constant instanceof Handle) {
+            return CONSTANT_HANDLE;
+        }
+        return VOID;
+    }
+
+    @Override
+    public float compare(MethodNode source, int sourceIndex, MethodNode target, int targetIndex) {
+        return scores[token(source.instructions.get(sourceIndex))][token(target.instructions.get(targetIndex))];
+    }
+
+    @Override
+    public float compare(int sourceSymbol, int targetSymbol) {
+        return scores[sourceSymbol][targetSymbol];
+    }
+
+    @Override
+    public int symbols() {
+        return SYMBOLS;
+    }
+
+    /**
+     * Encodes every instruction of a method into its token.
+     *
+     * @param owner the internal name of the class declaring the method
+     * @param method the method to encode
+     * @return the token sequence of the method
+     */
+    @Override
+    public MethodSequence encode(String owner, MethodNode method) {
+        short[] tokens = new short[method.instructions.size()];
+
+        int i = 0;
+        for (AbstractInsnNode node = method.instructions.getFirst(); node != null; node = node.getNext()) {
+            tokens[i++] = (short) token(node);
+        }
+
+        return new MethodSequence(owner, method.name, method.desc, tokens);
+    }
+
+    /**
+     * Returns the substitution matrix of this function. The returned array is shared and must not be modified.
+     *
+     * @return the substitution matrix indexed by source and target token
+     */
+    @Override
+    public float[][] table() {
+        return scores;
+    }
+
+    @Override
+    public float max() {
+        return 1 - maxValue;
+    }
+
+    @Override
+    public float min() {
+        return -1 + minValue;
+    }
+
+    @Override
+    public String toString() {
+        return "OperandSubstitution [symbols=" + SYMBOLS + "]";
+    }
+}
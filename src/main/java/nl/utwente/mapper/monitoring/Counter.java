@@ -0,0 +1,68 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.monitoring;
+
+/**
+ * The events counted during a mapping run.
+ */
+public enum Counter {
+
+    /**
+     * Classes read from a jar which declare at least one method with code. Classes without code, such as most
+     * interfaces, are not kept by the loaders and are therefore not counted.
+     */
+    CLASSES_LOADED,
+
+    /**
+     * Methods encoded into sequences for alignment.
+     */
+    METHODS_ENCODED,
+
+    /**
+     * Pairs of methods compared by a similarity metric.
+     */
+    ALIGNMENTS,
+
+    /**
+     * The nominal size of the alignment matrices of the compared pairs, the length of the source times the length of
+     * the target. Cells which were never filled, because an alignment stopped early, was banded or took a shortcut,
+     * are counted as well.
+     */
+    NOMINAL_CELLS,
+
+    /**
+     * Thresholded comparisons which returned a value below their threshold, and were therefore pruned.
+     */
+    REJECTED,
+
+    /**
+     * Comparisons answered by a cache.
+     */
+    CACHE_HITS,
+
+    /**
+     * Comparisons a cache could not answer, and passed on to the metric it wraps.
+     */
+    CACHE_MISSES
+}
@@ -0,0 +1,69 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.monitoring;
+
+/**
+ * Receives the events of a mapping run. All methods do nothing by default, so listeners only need to implement the
+ * events they are interested in. Listeners may be called from many threads at once and must be thread-safe.
+ *
+ * <p>
+ * Components which report events use {@link #NONE} unless a listener is given, in which case the only overhead is a
+ * call to an empty method.
+ */
+public interface MappingListener {
+
+    /**
+     * A listener which ignores all events.
+     */
+    MappingListener NONE = new MappingListener() {
+    };
+
+    /**
+     * Called when events have been counted.
+     *
+     * @param counter the counted event
+     * @param amount the amount of events
+     */
+    default void count(Counter counter, long amount) {
+    }
+
+    /**
+     * Called when a phase of a mapping run has completed.
+     *
+     * @param phase the completed phase
+     * @param nanos the wall-clock duration of the phase in nanoseconds
+     */
+    default void phase(Phase phase, long nanos) {
+    }
+
+    /**
+     * Called when a pair of methods has been compared.
+     *
+     * @param nominalCells the nominal amount of cells of the alignment matrix of the pair, see
+     *                     {@link Counter#NOMINAL_CELLS}
+     * @param nanos the duration of the comparison in nanoseconds
+     */
+    default void alignment(long nominalCells, long nanos) {
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.monitoring;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the events of mapping runs into counters, phase timings and a latency histogram of single comparisons.
+ * The collected metrics can be read directly, or through JMX after {@link #register(String) registering} them.
+ *
+ * <p>
+ * This class is thread-safe. Recording an event only updates striped counters, so it scales with the amount of
+ * scoring threads.
+ */
+public final class MappingMetrics implements MappingListener, MappingMetricsMXBean {
+
+    private static final String DOMAIN = "nl.utwente.mapper";
+
+    private final LongAdder[] counters = adders(Counter.values().length);
+    private final LongAdder[] phases = adders(Phase.values().length);
+    private final LongAdder alignmentNanos = new LongAdder();
+    private final LatencyHistogram alignmentLatency = new LatencyHistogram();
+
+    @Override
+    public void count(Counter counter, long amount) {
+        counters[counter.ordinal()].add(amount);
+    }
+
+    @Override
+    public void phase(Phase phase, long nanos) {
+        phases[phase.ordinal()].add(nanos);
+    }
+
+    @Override
+    public void alignment(long nominalCells, long nanos) {
+        counters[Counter.ALIGNMENTS.ordinal()].increment();
+        counters[Counter.NOMINAL_CELLS.ordinal()].add(nominalCells);
+        alignmentNanos.add(nanos);
+        alignmentLatency.record(nanos);
+    }
+
+    public long count(Counter counter) {
+        return counters[counter.ordinal()].sum();
+    }
+
+    public long phaseNanos(Phase phase) {
+        return phases[phase.ordinal()].sum();
+    }
+
+    public LatencyHistogram alignmentLatency() {
+        return alignmentLatency;
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Counter counter : Counter.values()) {
+            counts.put(counter.name(), count(counter));
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getPhaseNanos() {
+        Map<String, Long> nanos = new LinkedHashMap<>();
+        for (Phase phase : Phase.values()) {
+            nanos.put(phase.name(), phaseNanos(phase));
+        }
+        return nanos;
+    }
+
+    @Override
+    public Map<String, Long> getAlignmentLatencyNanos() {
+        Map<String, Long> latency = new LinkedHashMap<>();
+        latency.put("mean", Math.round(alignmentLatency.mean()));
+        latency.put("p50", alignmentLatency.percentile(50));
+        latency.put("p90", alignmentLatency.percentile(90));
+        latency.put("p99", alignmentLatency.percentile(99));
+        latency.put("max", alignmentLatency.max());
+        return latency;
+    }
+
+    @Override
+    public double getNominalCellsPerSecond() {
+        long nanos = alignmentNanos.sum();
+        return nanos == 0 ? 0 : count(Counter.NOMINAL_CELLS) * 1e9 / nanos;
+    }
+
+    @Override
+    public double getRejectionRate() {
+        return rate(count(Counter.REJECTED), count(Counter.ALIGNMENTS));
+    }
+
+    @Override
+    public double getCacheHitRate() {
+        long hits = count(Counter.CACHE_HITS);
+        return rate(hits, hits + count(Counter.CACHE_MISSES));
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder counter : counters) {
+            counter.reset();
+        }
+        for (LongAdder phase : phases) {
+            phase.reset();
+        }
+        alignmentNanos.reset();
+        alignmentLatency.reset();
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server.
+     *
+     * @param name the name distinguishing these metrics from those of other runs in the same JVM
+     * @return the name under which the metrics were registered
+     * @throws JMException in case the metrics could not be registered, for example because the name is taken
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName(DOMAIN + ":type=MappingMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    /**
+     * Removes these metrics from the platform MBean server.
+     *
+     * @param objectName the name returned when the metrics were registered
+     * @throws JMException in case the metrics were not registered under the given name
+     */
+    public void unregister(ObjectName objectName) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+    }
+
+    private static double rate(long count, long total) {
+        return total == 0 ? 0 : (double) count / total;
+    }
+
+    private static LongAdder[] adders(int size) {
+        LongAdder[] adders = new LongAdder[size];
+        for (int i = 0; i < size; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    @Override
+    public String toString() {
+        return "MappingMetrics [counters=" + getCounters() + ", phaseNanos=" + getPhaseNanos()
+                + ", nominalCellsPerSecond=" + getNominalCellsPerSecond() + ", alignmentLatency=" + alignmentLatency
+                + "]";
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.monitoring;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link MappingMetrics}, exposed through JMX.
+ */
+public interface MappingMetricsMXBean {
+
+    /**
+     * Returns the value of every counter.
+     *
+     * @return the counts, keyed by counter name
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * Returns the total duration of every phase.
+     *
+     * @return the durations in nanoseconds, keyed by phase name
+     */
+    Map<String, Long> getPhaseNanos();
+
+    /**
+     * Returns the latency distribution of single comparisons.
+     *
+     * @return the mean, median, 90th and 99th percentile and maximum in nanoseconds
+     */
+    Map<String, Long> getAlignmentLatencyNanos();
+
+    /**
+     * Returns the nominal amount of matrix cells compared per second of time spent comparing, summed over all threads.
+     * As pruned and banded alignments do not fill all of their cells, this is an upper bound of the cells filled.
+     *
+     * @return the nominal alignment throughput of a single thread
+     */
+    double getNominalCellsPerSecond();
+
+    /**
+     * Returns the fraction of comparisons which were pruned by their threshold.
+     *
+     * @return the pruning rate, or 0 if nothing was compared
+     */
+    double getRejectionRate();
+
+    /**
+     * Returns the fraction of cached comparisons which hit the cache.
+     *
+     * @return the cache hit rate, or 0 if no cache was used
+     */
+    double getCacheHitRate();
+
+    void reset();
+}
@@ -0,0 +1,323 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.server;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import nl.utwente.mapper.cli.BatchMapper;
+import nl.utwente.mapper.metrics.MethodSequence;
+import nl.utwente.mapper.metrics.functions.AdaptiveSubstitution;
+import nl.utwente.mapper.monitoring.Counter;
+import nl.utwente.mapper.monitoring.MappingListener;
+import nl.utwente.mapper.util.JarLoader;
+import nl.utwente.mapper.util.SequenceCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Keeps the encoded sequences and opcode counts of recently used jars in memory, so jobs on the same artifacts do
+ * not load them again. Jars are keyed by their canonical path, size and modification time, so a jar which changed on
+ * disk is loaded anew. Jars which are not in memory are loaded through a {@link SequenceCache} if one is given, so
+ * jars seen by an earlier run of the server are not parsed again.
+ *
+ * <p>
+ * The corpus is bounded by the estimated size of the loaded sequences and evicts the least recently used jars. The
+ * substitution functions derived from the jars of a job are cached as well, so repeated jobs on the same jars share
+ * them. Each of them holds a full substitution table of about a quarter megabyte, so they are bounded by the same
+ * memory budget: at most an eighth of it is set aside for them, and the jars get the rest.
+ *
+ * <p>
+ * This class is thread-safe. Concurrent requests for the same jar load it only once.
+ */
+public final class JarCorpus {
+
+    private static final int OPCODES = MethodSequence.PSEUDO_OPCODE + 1;
+    private static final int MAXIMUM_SUBSTITUTIONS = 64;
+
+    /**
+     * The estimated size of a cached substitution function: its table of scores with the array headers, and the
+     * scores of the single opcodes.
+     */
+    private static final long SUBSTITUTION_BYTES =
+            (long) OPCODES * (OPCODES * Float.BYTES + 16) + OPCODES * (8L + Float.BYTES);
+
+    private final Cache<Key, Jar> jars;
+    private final Cache<List<Key>, AdaptiveSubstitution> substitutions;
+    private final SequenceCache cache;
+
+    /**
+     * Constructs a new corpus.
+     *
+     * @param maximumBytes the estimated size of the loaded jars and substitution functions at which they are evicted
+     */
+    public JarCorpus(long maximumBytes) {
+        this(maximumBytes, null);
+    }
+
+    /**
+     * Constructs a new corpus which loads its jars through a persistent cache.
+     *
+     * @param maximumBytes the estimated size of the loaded jars and substitution functions at which they are evicted
+     * @param cache the cache to load the jars through, or null to parse every jar
+     */
+    public JarCorpus(long maximumBytes, SequenceCache cache) {
+        checkArgument(maximumBytes >= 0);
+        this.cache = cache;
+        long substitutionBytes = Math.min(maximumBytes / 8, MAXIMUM_SUBSTITUTIONS * SUBSTITUTION_BYTES);
+        this.jars = CacheBuilder.newBuilder()
+                .maximumWeight((maximumBytes - substitutionBytes) / 1024)
+                .weigher((Key key, Jar jar) -> (int) Math.min(Integer.MAX_VALUE, jar.bytes / 1024))
+                .recordStats()
+                .build();
+        this.substitutions = CacheBuilder.newBuilder()
+                .maximumWeight(substitutionBytes / 1024)
+                .weigher((List<Key> keys, AdaptiveSubstitution substitution) -> (int) (SUBSTITUTION_BYTES / 1024))
+                .build();
+    }
+
+    /**
+     * Returns a loaded jar, loading it if it is not in the corpus.
+     *
+     * @param file the jar
+     * @return the loaded jar
+     * @throws IOException in case the jar could not be loaded
+     */
+    public Jar get(File file) throws IOException {
+        return get(file, MappingListener.NONE);
+    }
+
+    /**
+     * Returns a loaded jar, loading it if it is not in the corpus and reporting the loaded classes to a listener.
+     *
+     * @param file the jar
+     * @param listener the listener to report the classes to if the jar is loaded
+     * @return the loaded jar
+     * @throws IOException in case the jar could not be loaded
+     */
+    public Jar get(File file, MappingListener listener) throws IOException {
+        Key key = new Key(file);
+        try {
+            return jars.get(key, () -> load(key, listener));
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (UncheckedExecutionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Returns the loaded jars denoted by a jar or a directory of jars, as accepted on the command line.
+     *
+     * @param file a jar or a directory of jars
+     * @return the loaded jars
+     * @throws IOException in case a jar could not be loaded
+     */
+    public List<Jar> load(File file) throws IOException {
+        return load(file, MappingListener.NONE);
+    }
+
+    /**
+     * Returns the loaded jars denoted by a jar or a directory of jars, reporting the classes of the jars which were
+     * not in the corpus to a listener.
+     *
+     * @param file a jar or a directory of jars
+     * @param listener the listener to report the loaded classes to
+     * @return the loaded jars
+     * @throws IOException in case a jar could not be loaded
+     */
+    public List<Jar> load(File file, MappingListener listener) throws IOException {
+        List<Jar> loaded = new ArrayList<>();
+        for (File jar : BatchMapper.jars(file)) {
+            loaded.add(get(jar, listener));
+        }
+        return loaded;
+    }
+
+    /**
+     * Returns the substitution function derived from the opcode counts of the given jars.
+     *
+     * @param sources the loaded source jars
+     * @param targets the loaded target jars
+     * @return the substitution function for mapping the sources onto the targets
+     */
+    public AdaptiveSubstitution substitution(List<Jar> sources, List<Jar> targets) {
+        List<Key> keys = new ArrayList<>(sources.size() + targets.size());
+        for (Jar jar : sources) {
+            keys.add(jar.key);
+        }
+        for (Jar jar : targets) {
+            keys.add(jar.key);
+        }
+
+        try {
+            return substitutions.get(keys, () -> new AdaptiveSubstitution(occurrences(sources, targets)));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Sums the opcode occurrences of the given jars.
+     *
+     * @param sources the loaded source jars
+     * @param targets the loaded target jars
+     * @return the occurrences of every opcode in all jars
+     */
+    public static long[] occurrences(List<Jar> sources, List<Jar> targets) {
+        long[] occurrences = new long[OPCODES];
+        for (List<Jar> jars : Arrays.asList(sources, targets)) {
+            for (Jar jar : jars) {
+                for (int i = 0; i < occurrences.length; i++) {
+                    occurrences[i] += jar.occurrences[i];
+                }
+            }
+        }
+        return occurrences;
+    }
+
+    /**
+     * Returns the estimated size of the loaded jars and the cached substitution functions.
+     *
+     * @return the estimated size in bytes
+     */
+    public long bytes() {
+        long bytes = substitutions.size() * SUBSTITUTION_BYTES;
+        for (Jar jar : jars.asMap().values()) {
+            bytes += jar.bytes;
+        }
+        return bytes;
+    }
+
+    public long size() {
+        return jars.size();
+    }
+
+    public CacheStats stats() {
+        return jars.stats();
+    }
+
+    public void invalidateAll() {
+        jars.invalidateAll();
+        substitutions.invalidateAll();
+    }
+
+    private Jar load(Key key, MappingListener listener) throws IOException {
+        if (cache != null) {
+            SequenceCache.CachedJar cached = cache.load(key.file);
+            listener.count(Counter.CLASSES_LOADED, BatchMapper.classes(cached.sequences()));
+            return new Jar(key, cached.sequences(), cached.occurrences(),
+                    BatchMapper.sequenceBytes(cached.sequences()));
+        }
+
+        List<MethodSequence> sequences = JarLoader.readSequences(key.file);
+        listener.count(Counter.CLASSES_LOADED, BatchMapper.classes(sequences));
+        return new Jar(key, sequences, AdaptiveSubstitution.countSequences(sequences),
+                BatchMapper.sequenceBytes(sequences));
+    }
+
+    /**
+     * The sequences and opcode counts of a single jar.
+     */
+    public static final class Jar {
+
+        private final Key key;
+        private final List<MethodSequence> sequences;
+        private final long[] occurrences;
+        private final long bytes;
+
+        private Jar(Key key, List<MethodSequence> sequences, long[] occurrences, long bytes) {
+            this.key = key;
+            this.sequences = Collections.unmodifiableList(sequences);
+            this.occurrences = occurrences;
+            this.bytes = bytes;
+        }
+
+        public File file() {
+            return key.file;
+        }
+
+        /**
+         * Returns the sequences of all methods with code in the jar, ordered by class name.
+         *
+         * @return the sequences of the jar
+         */
+        public List<MethodSequence> sequences() {
+            return sequences;
+        }
+
+        @Override
+        public String toString() {
+            return "Jar [file=" + key.file + ", sequences=" + sequences.size() + ", bytes=" + bytes + "]";
+        }
+    }
+
+    private static final class Key {
+
+        private final File file;
+        private final long length;
+        private final long lastModified;
+
+        private Key(File file) throws IOException {
+            this.file = file.getCanonicalFile();
+            this.length = this.file.length();
+            this.lastModified = this.file.lastModified();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) o;
+            return length == that.length && lastModified == that.lastModified && file.equals(that.file);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(file, length, lastModified);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "JarCorpus [size=" + jars.size() + ", stats=" + jars.stats() + "]";
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.server;
+
+import nl.utwente.mapper.cli.Options;
+import nl.utwente.mapper.mapping.MethodMatch;
+
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A mapping job submitted to a {@link MappingApi}. The state of a job is updated by the service running it, and can
+ * be read from any thread.
+ */
+public final class Job {
+
+    /**
+     * The states of a job. A job is queued until it is admitted by the scheduler, and is finished once it is done or
+     * has failed.
+     */
+    public enum State {
+        QUEUED, RUNNING, DONE, FAILED
+    }
+
+    private final String id;
+    private final Options options;
+    private final long submitted;
+
+    private volatile State state = State.QUEUED;
+    private volatile List<MethodMatch> matches;
+    private volatile String error;
+    private volatile long finished;
+
+    Job(String id, Options options) {
+        this.id = checkNotNull(id);
+        this.options = checkNotNull(options);
+        this.submitted = System.currentTimeMillis();
+    }
+
+    void running() {
+        state = State.RUNNING;
+    }
+
+    void done(List<MethodMatch> matches) {
+        this.matches = Collections.unmodifiableList(matches);
+        this.finished = System.currentTimeMillis();
+        this.state = State.DONE;
+    }
+
+    void failed(String error) {
+        this.error = error;
+        this.finished = System.currentTimeMillis();
+        this.state = State.FAILED;
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public Options options() {
+        return options;
+    }
+
+    public State state() {
+        return state;
+    }
+
+    public boolean finished() {
+        State state = this.state;
+        return state == State.DONE || state == State.FAILED;
+    }
+
+    /**
+     * Returns the assigned matches of a job which is done.
+     *
+     * @return the matches, sorted by descending score
+     * @throws IllegalStateException in case the job is not done
+     */
+    public List<MethodMatch> matches() {
+        checkState(state == State.DONE, "Job %s is %s", id, state);
+        return matches;
+    }
+
+    /**
+     * Returns the reason a job failed.
+     *
+     * @return the error message, or null if the job did not fail
+     */
+    public String error() {
+        return error;
+    }
+
+    /**
+     * Returns the time the job took from its submission until it finished.
+     *
+     * @return the duration in milliseconds, or -1 if the job is not finished
+     */
+    public long millis() {
+        return finished() ? finished - submitted : -1;
+    }
+
+    @Override
+    public String toString() {
+        return "Job [id=" + id + ", state=" + state + ", error=" + error + "]";
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.server;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Limits the jobs running at the same time by the processors and memory they need. Jobs acquire a {@link Permit}
+ * for their threads and estimated memory before they start, and wait until both are available. Waiting jobs are
+ * admitted in the order in which they arrived, so a large job cannot be starved by a stream of small ones.
+ *
+ * <p>
+ * This class is thread-safe.
+ */
+public final class JobScheduler {
+
+    private final int processors;
+    private final long memory;
+    private final Queue<Object> waiting = new ArrayDeque<>();
+
+    private int freeProcessors;
+    private long freeMemory;
+
+    /**
+     * Constructs a new scheduler.
+     *
+     * @param processors the amount of threads all running jobs may use together
+     * @param memory the amount of memory all running jobs may use together, in bytes
+     */
+    public JobScheduler(int processors, long memory) {
+        checkArgument(processors > 0);
+        checkArgument(memory > 0);
+        this.processors = processors;
+        this.memory = memory;
+        this.freeProcessors = processors;
+        this.freeMemory = memory;
+    }
+
+    /**
+     * Waits until the given resources are available and reserves them. Requests for more threads than the scheduler
+     * has are reduced to all of its threads.
+     *
+     * @param threads the amount of threads the job needs
+     * @param bytes the estimated memory the job needs
+     * @return the permit holding the reserved resources, to be closed when the job is done
+     * @throws InterruptedException in case the thread was interrupted while waiting
+     * @throws IllegalArgumentException in case the job needs more memory than the scheduler has
+     */
+    public Permit acquire(int threads, long bytes) throws InterruptedException {
+        checkArgument(threads > 0);
+        checkArgument(bytes >= 0);
+        checkArgument(bytes <= memory, "The job needs %s bytes, but only %s bytes are available to jobs", bytes,
+                memory);
+        int granted = Math.min(threads, processors);
+
+        Object ticket = new Object();
+        synchronized (this) {
+            waiting.add(ticket);
+            try {
+                while (waiting.peek() != ticket || freeProcessors < granted || freeMemory < bytes) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                waiting.remove(ticket);
+                notifyAll();
+                throw e;
+            }
+
+            waiting.remove();
+            freeProcessors -= granted;
+            freeMemory -= bytes;
+            notifyAll();
+        }
+        return new Permit(granted, bytes);
+    }
+
+    private synchronized void release(int threads, long bytes) {
+        freeProcessors += threads;
+        freeMemory += bytes;
+        notifyAll();
+    }
+
+    public int processors() {
+        return processors;
+    }
+
+    public long memory() {
+        return memory;
+    }
+
+    /**
+     * Returns the amount of jobs waiting for resources.
+     *
+     * @return the amount of waiting jobs
+     */
+    public synchronized int waiting() {
+        return waiting.size();
+    }
+
+    /**
+     * Resources reserved for a running job.
+     */
+    public final class Permit implements AutoCloseable {
+
+        private final int threads;
+        private final long bytes;
+        private boolean closed;
+
+        private Permit(int threads, long bytes) {
+            this.threads = threads;
+            this.bytes = bytes;
+        }
+
+        /**
+         * Returns the amount of threads the job may use, which may be less than it asked for.
+         *
+         * @return the amount of threads
+         */
+        public int threads() {
+            return threads;
+        }
+
+        @Override
+        public void close() {
+            synchronized (JobScheduler.this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            release(threads, bytes);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "JobScheduler [processors=" + processors + ", memory=" + memory + ", freeProcessors=" + freeProcessors
+                + ", freeMemory=" + freeMemory + ", waiting=" + waiting.size() + "]";
+    }
+}
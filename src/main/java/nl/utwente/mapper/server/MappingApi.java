@@ -0,0 +1,50 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.server;
+
+import nl.utwente.mapper.cli.Options;
+
+/**
+ * Submits mapping jobs and looks them up. The {@link MappingService} implements this interface in-process, and the
+ * {@link MappingServer} exposes it over HTTP.
+ */
+public interface MappingApi {
+
+    /**
+     * Submits a job mapping the source of the given options onto its target. The job runs asynchronously.
+     *
+     * @param options the options of the job, as accepted on the command line
+     * @return the submitted job
+     * @throws IllegalArgumentException in case the options are not supported by the service
+     */
+    Job submit(Options options);
+
+    /**
+     * Looks up a submitted job.
+     *
+     * @param id the id of the job
+     * @return the job, or null if the job is unknown or has been forgotten
+     */
+    Job job(String id);
+}
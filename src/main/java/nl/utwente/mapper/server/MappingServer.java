@@ -0,0 +1,349 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.server;
+
+import com.google.common.cache.CacheStats;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import nl.utwente.mapper.cli.MatchWriter;
+import nl.utwente.mapper.cli.Options;
+import nl.utwente.mapper.mapping.MethodMatch;
+import nl.utwente.mapper.util.SequenceCache;
+
+import javax.management.JMException;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Exposes a {@link MappingApi} over HTTP, so tools can map jars against a resident corpus without starting a JVM per
+ * run. The server binds to the loopback interface only. The endpoints are:
+ *
+ * <ul>
+ * <li>{@code POST /jobs?source=..&target=..} submits a job and answers {@code 202} with its status. Any other
+ * parameter is passed as the command line option of the same name, like {@code algorithm=global}. The parameters
+ * may also be sent as a form body.</li>
+ * <li>{@code GET /jobs/<id>} answers the status of a job as JSON.</li>
+ * <li>{@code GET /jobs/<id>/results?format=csv|jsonl} streams the matches of a job which is done, or answers
+ * {@code 409} while it is not.</li>
+ * <li>{@code GET /corpus} answers the size and cache statistics of the corpus and the scheduler.</li>
+ * </ul>
+ */
+public final class MappingServer implements Closeable {
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: mapper-server [options]",
+            "",
+            "Options:",
+            "  --port <port>            the loopback port to listen on (default: 8080)",
+            "  --corpus-memory <size>   the memory of the cached jars and substitutions (default: half the heap)",
+            "  --job-memory <size>      the memory of the running jobs together (default: half the heap)",
+            "  --processors <count>     the threads of the running jobs together (default: the amount of processors)",
+            "  --cache <dir>            keep the parsed sequences of every jar in this directory across restarts");
+
+    private final MappingApi api;
+    private final JarCorpus corpus;
+    private final JobScheduler scheduler;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    /**
+     * Constructs a new server for a mapping service. The server does not accept connections until it is started.
+     *
+     * @param service the service to expose
+     * @param port the loopback port to listen on, or 0 for any free port
+     * @throws IOException in case the port could not be bound
+     */
+    public MappingServer(MappingService service, int port) throws IOException {
+        this(service, service.corpus(), service.scheduler(), port);
+    }
+
+    MappingServer(MappingApi api, JarCorpus corpus, JobScheduler scheduler, int port) throws IOException {
+        this.api = checkNotNull(api);
+        this.corpus = checkNotNull(corpus);
+        this.scheduler = checkNotNull(scheduler);
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(executor);
+        server.createContext("/jobs", this::jobs);
+        server.createContext("/corpus", this::corpus);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public InetSocketAddress address() {
+        return server.getAddress();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void jobs(HttpExchange exchange) throws IOException {
+        try {
+            String[] path = exchange.getRequestURI().getPath().split("/");
+            String method = exchange.getRequestMethod();
+
+            if (path.length == 2 && method.equals("POST")) {
+                submit(exchange);
+            } else if (path.length == 3 && method.equals("GET")) {
+                Job job = api.job(path[2]);
+                if (job == null) {
+                    respond(exchange, 404, error("Unknown job " + path[2]));
+                } else {
+                    respond(exchange, 200, status(job));
+                }
+            } else if (path.length == 4 && path[3].equals("results") && method.equals("GET")) {
+                results(exchange, path[2]);
+            } else {
+                respond(exchange, 404, error("Not found"));
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void submit(HttpExchange exchange) throws IOException {
+        List<String> args = new ArrayList<>();
+        List<String> positional = new ArrayList<>(2);
+        String source = null;
+        String target = null;
+
+        String query = exchange.getRequestURI().getRawQuery();
+        String body = new String(read(exchange.getRequestBody()), StandardCharsets.UTF_8);
+        for (String parameters : new String[] {query, body}) {
+            if (parameters == null || parameters.isEmpty()) {
+                continue;
+            }
+            for (String parameter : parameters.split("&")) {
+                int equals = parameter.indexOf('=');
+                String name = decode(equals < 0 ? parameter : parameter.substring(0, equals));
+                String value = equals < 0 ? "" : decode(parameter.substring(equals + 1));
+                if (name.equals("source")) {
+                    source = value;
+                } else if (name.equals("target")) {
+                    target = value;
+                } else if (value.isEmpty()) {
+                    args.add("--" + name);
+                } else {
+                    args.add("--" + name + "=" + value);
+                }
+            }
+        }
+        if (source != null) {
+            positional.add(source);
+        }
+        if (target != null) {
+            positional.add(target);
+        }
+        args.addAll(positional);
+
+        Job job;
+        try {
+            job = api.submit(Options.parse(args.toArray(new String[0])));
+        } catch (IllegalArgumentException e) {
+            respond(exchange, 400, error(e.getMessage()));
+            return;
+        }
+        exchange.getResponseHeaders().set("Location", "/jobs/" + job.id());
+        respond(exchange, 202, status(job));
+    }
+
+    private void results(HttpExchange exchange, String id) throws IOException {
+        Job job = api.job(id);
+        if (job == null) {
+            respond(exchange, 404, error("Unknown job " + id));
+            return;
+        }
+        if (job.state() != Job.State.DONE) {
+            respond(exchange, 409, status(job));
+            return;
+        }
+
+        Options.Format format = job.options().format();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query != null && query.startsWith("format=")) {
+            try {
+                format = Options.Format.valueOf(decode(query.substring(7)).toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                respond(exchange, 400, error("Invalid format " + query.substring(7)));
+                return;
+            }
+        }
+
+        exchange.getResponseHeaders().set("Content-Type",
+                format == Options.Format.CSV ? "text/csv; charset=utf-8" : "application/x-ndjson; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        try (MatchWriter writer = new MatchWriter(new BufferedWriter(
+                new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8)), format)) {
+            for (MethodMatch match : job.matches()) {
+                writer.write(match.source(), match.target(), match.score());
+            }
+        }
+    }
+
+    private void corpus(HttpExchange exchange) throws IOException {
+        try {
+            CacheStats stats = corpus.stats();
+            respond(exchange, 200, "{\"jars\":" + corpus.size() + ",\"bytes\":" + corpus.bytes() + ",\"hits\":"
+                    + stats.hitCount() + ",\"misses\":" + stats.missCount() + ",\"evictions\":"
+                    + stats.evictionCount() + ",\"processors\":" + scheduler.processors() + ",\"memory\":"
+                    + scheduler.memory() + ",\"waiting\":" + scheduler.waiting() + "}");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static String status(Job job) {
+        Job.State state = job.state();
+        StringBuilder builder = new StringBuilder("{\"id\":").append(MatchWriter.json(job.id()))
+                .append(",\"state\":").append(MatchWriter.json(state.name().toLowerCase(Locale.ROOT)));
+        if (state == Job.State.DONE) {
+            builder.append(",\"matches\":").append(job.matches().size());
+        } else if (state == Job.State.FAILED) {
+            builder.append(",\"error\":").append(MatchWriter.json(job.error()));
+        }
+        if (job.finished()) {
+            builder.append(",\"millis\":").append(job.millis());
+        }
+        return builder.append('}').toString();
+    }
+
+    private static String error(String message) {
+        return "{\"error\":" + MatchWriter.json(message) + "}";
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = (json + '\n').getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int read; (read = in.read(buffer)) >= 0; ) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Starts a server on the loopback interface, as described by its usage. The server runs until the process is
+     * stopped.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = 8080;
+        long corpusMemory = Runtime.getRuntime().maxMemory() / 2;
+        long jobMemory = Runtime.getRuntime().maxMemory() / 2;
+        int processors = Runtime.getRuntime().availableProcessors();
+        SequenceCache cache = null;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String name = args[i];
+                if (name.equals("--help")) {
+                    System.out.println(USAGE);
+                    return;
+                }
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value for " + name);
+                }
+                String value = args[++i];
+                switch (name) {
+                    case "--port":
+                        port = Integer.parseInt(value);
+                        break;
+                    case "--corpus-memory":
+                        corpusMemory = Options.parseSize(name, value);
+                        break;
+                    case "--job-memory":
+                        jobMemory = Options.parseSize(name, value);
+                        break;
+                    case "--processors":
+                        processors = Integer.parseInt(value);
+                        break;
+                    case "--cache":
+                        cache = new SequenceCache(new File(value));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + name);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("error: " + e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        MappingService service = new MappingService(new JarCorpus(corpusMemory, cache),
+                new JobScheduler(processors, jobMemory));
+        try {
+            service.metrics().register("server");
+        } catch (JMException e) {
+            System.err.println("Could not register the metrics with JMX: " + e.getMessage());
+        }
+
+        MappingServer server = new MappingServer(service, port);
+        server.start();
+        System.err.println("Listening on " + server.address());
+    }
+
+    @Override
+    public String toString() {
+        return "MappingServer [address=" + server.getAddress() + "]";
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.server;
+
+import nl.utwente.mapper.cli.BatchMapper;
+import nl.utwente.mapper.cli.Options;
+import nl.utwente.mapper.mapping.JarMapper;
+import nl.utwente.mapper.mapping.MethodMatch;
+import nl.utwente.mapper.mapping.ParallelScorer;
+import nl.utwente.mapper.metrics.InstrumentedSimilarity;
+import nl.utwente.mapper.metrics.MethodSequence;
+import nl.utwente.mapper.metrics.MethodSimilarity;
+import nl.utwente.mapper.metrics.functions.AdaptiveSubstitution;
+import nl.utwente.mapper.monitoring.MappingMetrics;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Runs mapping jobs in-process against a shared {@link JarCorpus}, admitting them through a {@link JobScheduler}.
+ * Jars used by several jobs are loaded and counted only once, as long as they stay in the corpus.
+ *
+ * <p>
+ * A job first loads its jars on a single thread reserved from the scheduler, so no more jars are loaded at once than
+ * the scheduler has processors, and the loaded jars are bounded by the corpus. It then releases that thread and waits
+ * for the threads it asked for and the memory of its candidates and scoring threads. The memory option of a job is
+ * ignored, as the memory is budgeted by the scheduler. The most recent jobs are retained so their results can be
+ * fetched; older finished jobs are forgotten. The comparisons and phases of all jobs are collected in a single
+ * {@link MappingMetrics}.
+ *
+ * <p>
+ * This class is thread-safe.
+ */
+public final class MappingService implements MappingApi, Closeable {
+
+    private static final int RETAINED_JOBS = 256;
+
+    private final JarCorpus corpus;
+    private final JobScheduler scheduler;
+    private final MappingMetrics metrics = new MappingMetrics();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final AtomicLong ids = new AtomicLong();
+    private final Map<String, Job> jobs = new LinkedHashMap<String, Job>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Job> eldest) {
+            return size() > RETAINED_JOBS && eldest.getValue().finished();
+        }
+    };
+
+    /**
+     * Constructs a new mapping service.
+     *
+     * @param corpus the corpus to load the jars from
+     * @param scheduler the scheduler admitting the jobs
+     */
+    public MappingService(JarCorpus corpus, JobScheduler scheduler) {
+        this.corpus = checkNotNull(corpus);
+        this.scheduler = checkNotNull(scheduler);
+    }
+
+    @Override
+    public Job submit(Options options) {
+        checkArgument(!options.help(), "--help is not supported by the service");
+        checkArgument(!options.pairs(), "--pairs is not supported by the service");
+        checkArgument(options.output() == null, "--output is not supported by the service");
+        checkArgument(!options.operands(), "--operands is not supported by the service");
+        checkArgument(!options.history(), "--history is not supported by the service");
+
+        Job job = new Job(Long.toString(ids.incrementAndGet()), options);
+        synchronized (jobs) {
+            jobs.put(job.id(), job);
+        }
+        executor.execute(() -> run(job));
+        return job;
+    }
+
+    @Override
+    public Job job(String id) {
+        synchronized (jobs) {
+            return jobs.get(id);
+        }
+    }
+
+    private void run(Job job) {
+        Options options = job.options();
+        try {
+            List<JarCorpus.Jar> sourceJars;
+            List<JarCorpus.Jar> targetJars;
+            AdaptiveSubstitution substitution;
+            JobScheduler.Permit loading = scheduler.acquire(1, 0);
+            try {
+                sourceJars = corpus.load(options.source(), metrics);
+                targetJars = corpus.load(options.target(), metrics);
+                substitution = corpus.substitution(sourceJars, targetJars);
+            } finally {
+                loading.close();
+            }
+            List<MethodSequence> sources = sequences(sourceJars);
+            List<MethodSequence> targets = sequences(targetJars);
+
+            long[] occurrences = JarCorpus.occurrences(sourceJars, targetJars);
+            int threads = Math.min(options.threads(), scheduler.processors());
+            long bytes = BatchMapper.candidateBytes(options, sources) + BatchMapper.scoreCacheBytes(options)
+                    + threads * BatchMapper.threadBytes(options, sources, targets, occurrences, threads);
+
+            try (JobScheduler.Permit permit = scheduler.acquire(threads, bytes)) {
+                job.running();
+                ExecutorService pool = Executors.newFixedThreadPool(permit.threads());
+                try {
+                    MethodSimilarity similarity = BatchMapper.cached(options, new InstrumentedSimilarity(
+                            BatchMapper.similarity(options, substitution, pool, permit.threads()), metrics), metrics);
+                    ParallelScorer scorer = new ParallelScorer(similarity, pool, permit.threads());
+                    List<MethodMatch> matches = new JarMapper(scorer, options.candidates(), metrics)
+                            .map(sources, targets);
+                    job.done(matches);
+                } finally {
+                    pool.shutdownNow();
+                }
+            }
+        } catch (InterruptedException e) {
+            job.failed("Interrupted");
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            job.failed(e.getMessage() == null ? e.toString() : e.getMessage());
+        } catch (Error e) {
+            job.failed(e.toString());
+            throw e;
+        }
+    }
+
+    private static List<MethodSequence> sequences(List<JarCorpus.Jar> jars) {
+        List<MethodSequence> sequences = new ArrayList<>();
+        for (JarCorpus.Jar jar : jars) {
+            sequences.addAll(jar.sequences());
+        }
+        return sequences;
+    }
+
+    public JarCorpus corpus() {
+        return corpus;
+    }
+
+    public JobScheduler scheduler() {
+        return scheduler;
+    }
+
+    public MappingMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Stops the running jobs, which fail as interrupted.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return "MappingService [corpus=" + corpus + ", scheduler=" + scheduler + "]";
+    }
+}
@@ -23,18 +23,37 @@
  */
 package nl.utwente.mapper.util;
 
+import com.google.common.io.ByteStreams;
+import nl.utwente.mapper.metrics.MethodSequence;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.ClassReader;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 public class JarLoader {
 
+    private static final int PARSING_OPTIONS = ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES;
+
     /**
      * Loads the classes of the jar into a map. The keys of the map correspond to the name of the
      * class, while the values correspond to the ClassNodes themselves.
@@ -46,22 +65,282 @@ public class JarLoader {
     public static Map<String, ClassNode> readJar(File jar) throws IOException {
         Map<String, ClassNode> classes = new HashMap<>();
 
-        JarFile jarFile = new JarFile(jar);
-        Enumeration<JarEntry> entries = jarFile.entries();
-
-        while (entries.hasMoreElements()) {
-            JarEntry entry = entries.nextElement();
-            String name = entry.getName();
-            if (name.endsWith(".class")) {
-                try (InputStream inputStream = jarFile.getInputStream(entry)) {
-                    ClassReader reader = new ClassReader(inputStream);
-                    ClassNode node = new ClassNode();
-                    reader.accept(node, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
-                    classes.put(node.name, node);
+        try (JarFile jarFile = new JarFile(jar)) {
+            Enumeration<JarEntry> entries = jarFile.entries();
+
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                if (isClass(entry)) {
+                    try (InputStream inputStream = jarFile.getInputStream(entry)) {
+                        ClassNode node = parse(ByteStreams.toByteArray(inputStream));
+                        classes.put(node.name, node);
+                    }
                 }
             }
         }
 
         return classes;
     }
+
+    /**
+     * Loads the classes of the jar into a map, parsing the classes in parallel on the given executor.
+     *
+     * @param jar the File corresponding to the jar to load
+     * @param executor the executor to parse the classes on
+     * @return a map of all classes in the specified jar
+     * @throws IOException in case the file could not be loaded
+     */
+    public static Map<String, ClassNode> readJar(File jar, ExecutorService executor) throws IOException {
+        Map<String, ClassNode> classes = new ConcurrentHashMap<>();
+        readJar(jar, executor, false, node -> classes.put(node.name, node));
+        return classes;
+    }
+
+    /**
+     * Loads the classes of the jar, passing every class to the consumer as soon as it has been parsed. The classes
+     * are parsed in parallel on the given executor, so the consumer is called concurrently and must be thread-safe.
+     * This allows processing to start before the whole jar has been parsed.
+     *
+     * <p>
+     * The entries are inflated sequentially by the calling thread and only their parsing is handed to the executor,
+     * so the tasks never touch the archive. When {@code mapped} is set, the archive is memory-mapped, which avoids a
+     * system call per read. This method returns once all classes have been passed to the consumer, and all files are
+     * closed by then.
+     *
+     * @param jar the File corresponding to the jar to load
+     * @param executor the executor to parse the classes on
+     * @param mapped whether to memory-map the archive
+     * @param consumer the consumer receiving the parsed classes
+     * @throws IOException in case the file could not be loaded
+     */
+    public static void readJar(File jar, ExecutorService executor, boolean mapped, Consumer<ClassNode> consumer)
+            throws IOException {
+        read(jar, executor, mapped, bytes -> consumer.accept(parse(bytes)));
+    }
+
+    /**
+     * Loads the opcode sequences of all methods with code in the jar, without building ClassNodes. Labels, frames and
+     * line numbers are skipped entirely, so the sequences only contain real instructions. This uses a fraction of
+     * the memory of {@link #readJar(File)} for large jars. The sequences are ordered by class name.
+     *
+     * @param jar the File corresponding to the jar to load
+     * @return the opcode sequences of all methods in the specified jar
+     * @throws IOException in case the file could not be loaded
+     */
+    public static List<MethodSequence> readSequences(File jar) throws IOException {
+        Map<String, List<MethodSequence>> classes = new TreeMap<>();
+
+        try (JarFile jarFile = new JarFile(jar)) {
+            Enumeration<JarEntry> entries = jarFile.entries();
+
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                if (isClass(entry)) {
+                    try (InputStream inputStream = jarFile.getInputStream(entry)) {
+                        addSequences(classes, ByteStreams.toByteArray(inputStream));
+                    }
+                }
+            }
+        }
+
+        return flatten(classes);
+    }
+
+    /**
+     * Loads the opcode sequences of all methods with code in the jar like {@link #readSequences(File)}, parsing the
+     * classes in parallel on the given executor.
+     *
+     * @param jar the File corresponding to the jar to load
+     * @param executor the executor to parse the classes on
+     * @return the opcode sequences of all methods in the specified jar
+     * @throws IOException in case the file could not be loaded
+     */
+    public static List<MethodSequence> readSequences(File jar, ExecutorService executor) throws IOException {
+        Map<String, List<MethodSequence>> classes = new ConcurrentSkipListMap<>();
+        read(jar, executor, false, bytes -> addSequences(classes, bytes));
+        return flatten(classes);
+    }
+
+    /**
+     * Reads the bytes of every class in the jar and passes them to the consumer, on the calling thread and in the
+     * order of the entries. This allows callers to skip parsing classes they have seen before.
+     *
+     * @param jar the File corresponding to the jar to load
+     * @param consumer the consumer receiving the bytes of every class file
+     * @throws IOException in case the file could not be loaded
+     */
+    public static void readClassFiles(File jar, Consumer<byte[]> consumer) throws IOException {
+        try (JarFile jarFile = new JarFile(jar)) {
+            Enumeration<JarEntry> entries = jarFile.entries();
+
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                if (isClass(entry)) {
+                    try (InputStream inputStream = jarFile.getInputStream(entry)) {
+                        consumer.accept(ByteStreams.toByteArray(inputStream));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads the opcode sequences of all methods with code in a single class file, like {@link #readSequences(File)}.
+     *
+     * @param classFile the bytes of the class file
+     * @return the opcode sequences of the methods of the class, in declaration order
+     */
+    public static List<MethodSequence> readSequences(byte[] classFile) {
+        SequenceClassVisitor visitor = new SequenceClassVisitor();
+        new ClassReader(classFile).accept(visitor, PARSING_OPTIONS);
+        return visitor.sequences();
+    }
+
+    /**
+     * Reads the bytes of all classes in the jar on the calling thread and passes them to the consumer on the given
+     * executor. The tasks only receive the bytes, so the archive can be closed as soon as it has been read, even when
+     * a task fails.
+     */
+    private static void read(File jar, ExecutorService executor, boolean mapped, Consumer<byte[]> consumer)
+            throws IOException {
+        List<Future<?>> futures = new ArrayList<>();
+
+        try {
+            if (mapped) {
+                try (FileChannel channel = FileChannel.open(jar.toPath(), StandardOpenOption.READ)) {
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+                    try (ZipInputStream zip = new ZipInputStream(new ByteBufferInputStream(buffer))) {
+                        ZipEntry entry;
+                        while ((entry = zip.getNextEntry()) != null) {
+                            if (isClass(entry)) {
+                                final byte[] bytes = ByteStreams.toByteArray(zip);
+                                futures.add(executor.submit(() -> consumer.accept(bytes)));
+                            }
+                        }
+                    }
+                }
+            } else {
+                readClassFiles(jar, bytes -> futures.add(executor.submit(() -> consumer.accept(bytes))));
+            }
+            await(futures);
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Returns a lazily populated stream of the classes in the jar. The stream may be made parallel, in which case
+     * the classes are parsed concurrently. The stream must be closed to release the jar.
+     *
+     * @param jar the File corresponding to the jar to load
+     * @return a stream of all classes in the specified jar
+     * @throws IOException in case the file could not be opened
+     */
+    public static Stream<ClassNode> streamJar(File jar) throws IOException {
+        JarFile jarFile = new JarFile(jar);
+
+        return jarFile.stream()
+                .filter(JarLoader::isClass)
+                .map(entry -> {
+                    try (InputStream inputStream = jarFile.getInputStream(entry)) {
+                        return parse(ByteStreams.toByteArray(inputStream));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                })
+                .onClose(() -> {
+                    try {
+                        jarFile.close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+
+    private static boolean isClass(ZipEntry entry) {
+        return entry.getName().endsWith(".class");
+    }
+
+    private static ClassNode parse(byte[] bytes) {
+        ClassReader reader = new ClassReader(bytes);
+        ClassNode node = new ClassNode();
+        reader.accept(node, PARSING_OPTIONS);
+        return node;
+    }
+
+    private static void addSequences(Map<String, List<MethodSequence>> classes, byte[] bytes) {
+        ClassReader reader = new ClassReader(bytes);
+        SequenceClassVisitor visitor = new SequenceClassVisitor();
+        reader.accept(visitor, PARSING_OPTIONS);
+        classes.put(reader.getClassName(), visitor.sequences());
+    }
+
+    private static List<MethodSequence> flatten(Map<String, List<MethodSequence>> classes) {
+        List<MethodSequence> sequences = new ArrayList<>();
+        for (List<MethodSequence> methods : classes.values()) {
+            sequences.addAll(methods);
+        }
+        return sequences;
+    }
+
+    private static void await(List<Future<?>> futures) throws IOException {
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading classes");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * An input stream reading from a byte buffer, used to inflate a memory-mapped archive.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
 }
@@ -0,0 +1,296 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.util;
+
+import com.google.common.hash.Hashing;
+import nl.utwente.mapper.metrics.MethodSequence;
+import nl.utwente.mapper.metrics.functions.AdaptiveSubstitution;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A persistent cache of the opcode sequences and opcode occurrences of jars, so that repeated runs over the same
+ * artifacts do not have to parse them again. Entries are keyed by the SHA-256 hash of the contents of the jar, and
+ * stored as one file per jar. An entry is read into memory in one go and copied out into the sequences, so no
+ * mapping or handle of the file outlives the read and the entry can be replaced at any time.
+ *
+ * <p>
+ * The file format is a big-endian sequence of: the magic number, the format version, the amount of opcodes followed
+ * by the occurrence count of every opcode, and the amount of methods followed by every method as its owner, name and
+ * descriptor (each an int length followed by UTF-8 bytes) and its opcodes (an int length followed by shorts). Files
+ * with another magic number or version are ignored and rewritten, as are damaged files: every length is checked against
+ * the remaining bytes and every opcode against the range of symbols before anything is allocated.
+ *
+ * <p>
+ * The sequences are loaded with {@link JarLoader#readSequences(File)}, so they do not contain pseudo-instructions.
+ * This class is thread-safe; concurrent writers of the same entry replace each other atomically.
+ */
+public final class SequenceCache {
+
+    private static final int MAGIC = 0x4D534551;
+
+    /**
+     * The version of the file format and of the encoding of the sequences. Must be increased whenever either changes.
+     */
+    private static final int VERSION = 1;
+
+    private static final String EXTENSION = ".seq";
+
+    private final File directory;
+
+    /**
+     * Constructs a new cache storing its entries in the given directory, which is created if needed.
+     *
+     * @param directory the directory containing the cache files
+     */
+    public SequenceCache(File directory) {
+        this.directory = checkNotNull(directory);
+    }
+
+    /**
+     * Returns the sequences and opcode occurrences of the given jar, parsing it only if it is not cached yet.
+     *
+     * @param jar the File corresponding to the jar to load
+     * @return the cached contents of the jar
+     * @throws IOException in case the jar could not be loaded or the cache could not be written
+     */
+    public CachedJar load(File jar) throws IOException {
+        return load(jar, null);
+    }
+
+    /**
+     * Returns the sequences and opcode occurrences of the given jar, parsing it on the given executor only if it is
+     * not cached yet.
+     *
+     * @param jar the File corresponding to the jar to load
+     * @param executor the executor to parse the classes on, or null to parse them on the calling thread
+     * @return the cached contents of the jar
+     * @throws IOException in case the jar could not be loaded or the cache could not be written
+     */
+    public CachedJar load(File jar, ExecutorService executor) throws IOException {
+        String hash = com.google.common.io.Files.asByteSource(jar).hash(Hashing.sha256()).toString();
+        Path path = new File(directory, hash + EXTENSION).toPath();
+
+        if (Files.isRegularFile(path)) {
+            CachedJar cached = read(path);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        List<MethodSequence> sequences = executor == null
+                ? JarLoader.readSequences(jar)
+                : JarLoader.readSequences(jar, executor);
+        CachedJar loaded = new CachedJar(sequences, AdaptiveSubstitution.countSequences(sequences));
+        write(path, loaded);
+        return loaded;
+    }
+
+    /**
+     * Sums the opcode occurrences of several jars, for creating a substitution function over all of them.
+     *
+     * @param jars the cached jars
+     * @return the total occurrences of every opcode
+     */
+    public static long[] merge(Collection<CachedJar> jars) {
+        long[] occurrences = new long[MethodSequence.PSEUDO_OPCODE + 1];
+        for (CachedJar jar : jars) {
+            for (int i = 0; i < occurrences.length; i++) {
+                occurrences[i] += jar.occurrences[i];
+            }
+        }
+        return occurrences;
+    }
+
+    /**
+     * Reads a cache file, returning null if it has an unknown format, is damaged or cannot be read. The entry is then
+     * treated as missing and written anew.
+     */
+    private static CachedJar read(Path path) {
+        try {
+            if (Files.size(path) > Integer.MAX_VALUE - 8) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+
+            if (buffer.getInt() != MethodSequence.PSEUDO_OPCODE + 1) {
+                return null;
+            }
+            long[] occurrences = new long[MethodSequence.PSEUDO_OPCODE + 1];
+            for (int i = 0; i < occurrences.length; i++) {
+                occurrences[i] = buffer.getLong();
+                if (occurrences[i] < 0) {
+                    return null;
+                }
+            }
+
+            // Every method takes at least the four lengths of its strings and opcodes.
+            int methods = readLength(buffer, 4 * Integer.BYTES);
+            List<MethodSequence> sequences = new ArrayList<>(methods);
+            for (int i = 0; i < methods; i++) {
+                String owner = readString(buffer);
+                String name = readString(buffer);
+                String desc = readString(buffer);
+
+                short[] opcodes = new short[readLength(buffer, Short.BYTES)];
+                buffer.asShortBuffer().get(opcodes);
+                buffer.position(buffer.position() + opcodes.length * Short.BYTES);
+                for (short opcode : opcodes) {
+                    if (opcode < 0 || opcode > MethodSequence.PSEUDO_OPCODE) {
+                        return null;
+                    }
+                }
+
+                sequences.add(new MethodSequence(owner, name, desc, opcodes));
+            }
+
+            return buffer.hasRemaining() ? null : new CachedJar(sequences, occurrences);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the length of an array, making sure the buffer holds at least that many elements of the given size.
+     */
+    private static int readLength(ByteBuffer buffer, int elementBytes) {
+        int length = buffer.getInt();
+        if (length < 0 || (long) length * elementBytes > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        return length;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[readLength(buffer, Byte.BYTES)];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a cache file to a temporary file first, so readers never observe a partially written entry.
+     */
+    private void write(Path path, CachedJar jar) throws IOException {
+        Files.createDirectories(directory.toPath());
+        Path temporary = Files.createTempFile(directory.toPath(), "entry", ".tmp");
+
+        try {
+            try (OutputStream file = Files.newOutputStream(temporary);
+                 DataOutputStream output = new DataOutputStream(new BufferedOutputStream(file))) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+
+                output.writeInt(jar.occurrences.length);
+                for (long count : jar.occurrences) {
+                    output.writeLong(count);
+                }
+
+                output.writeInt(jar.sequences.size());
+                for (MethodSequence sequence : jar.sequences) {
+                    writeString(output, sequence.owner());
+                    writeString(output, sequence.name());
+                    writeString(output, sequence.desc());
+
+                    output.writeInt(sequence.size());
+                    for (short opcode : sequence.symbols()) {
+                        output.writeShort(opcode);
+                    }
+                }
+            }
+
+            try {
+                Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    /**
+     * The cached contents of a single jar.
+     */
+    public static final class CachedJar {
+
+        private final List<MethodSequence> sequences;
+        private final long[] occurrences;
+
+        private CachedJar(List<MethodSequence> sequences, long[] occurrences) {
+            this.sequences = Collections.unmodifiableList(sequences);
+            this.occurrences = occurrences;
+        }
+
+        /**
+         * Returns the opcode sequences of all methods with code, ordered by class name.
+         *
+         * @return the sequences of the jar
+         */
+        public List<MethodSequence> sequences() {
+            return sequences;
+        }
+
+        /**
+         * Returns the amount of times each opcode occurs in the jar. The returned array must not be modified.
+         *
+         * @return the opcode occurrences of the jar
+         */
+        public long[] occurrences() {
+            return occurrences;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SequenceCache [directory=" + directory + "]";
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.util;
+
+import nl.utwente.mapper.metrics.MethodSequence;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A class visitor which records the opcodes of every method with code straight into a {@link MethodSequence},
+ * without building the instruction lists of a ClassNode. Only real instructions are recorded: labels, frames, line
+ * numbers and other pseudo-instructions are skipped.
+ */
+final class SequenceClassVisitor extends ClassVisitor {
+
+    private final List<MethodSequence> sequences = new ArrayList<>();
+    private String owner;
+
+    SequenceClassVisitor() {
+        super(Opcodes.ASM5);
+    }
+
+    List<MethodSequence> sequences() {
+        return sequences;
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName,
+                      String[] interfaces) {
+        this.owner = name;
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+        return new SequenceMethodVisitor(name, desc);
+    }
+
+    private final class SequenceMethodVisitor extends MethodVisitor {
+
+        private final String name;
+        private final String desc;
+
+        private short[] opcodes = new short[16];
+        private int size;
+        private boolean code;
+
+        private SequenceMethodVisitor(String name, String desc) {
+            super(Opcodes.ASM5);
+            this.name = name;
+            this.desc = desc;
+        }
+
+        private void add(int opcode) {
+            if (size == opcodes.length) {
+                opcodes = Arrays.copyOf(opcodes, size * 2);
+            }
+            opcodes[size++] = (short) opcode;
+        }
+
+        @Override
+        public void visitCode() {
+            code = true;
+        }
+
+        @Override
+        public void visitInsn(int opcode) {
+            add(opcode);
+        }
+
+        @Override
+        public void visitIntInsn(int opcode, int operand) {
+            add(opcode);
+        }
+
+        @Override
+        public void visitVarInsn(int opcode, int var) {
+            add(opcode);
+        }
+
+        @Override
+        public void visitTypeInsn(int opcode, String type) {
+            add(opcode);
+        }
+
+        @Override
+        public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+            add(opcode);
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+            add(opcode);
+        }
+
+        @Override
+        public void visitInvokeDynamicInsn(String name, String desc, Handle bsm, Object... bsmArgs) {
+            add(Opcodes.INVOKEDYNAMIC);
+        }
+
+        @Override
+        public void visitJumpInsn(int opcode, Label label) {
+            add(opcode);
+        }
+
+        @Override
+        public void visitLdcInsn(Object cst) {
+            add(Opcodes.LDC);
+        }
+
+        @Override
+        public void visitIincInsn(int var, int increment) {
+            add(Opcodes.IINC);
+        }
+
+        @Override
+        public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+            add(Opcodes.TABLESWITCH);
+        }
+
+        @Override
+        public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+            add(Opcodes.LOOKUPSWITCH);
+        }
+
+        @Override
+        public void visitMultiANewArrayInsn(String desc, int dims) {
+            add(Opcodes.MULTIANEWARRAY);
+        }
+
+        @Override
+        public void visitEnd() {
+            if (code) {
+                sequences.add(new MethodSequence(owner, name, desc, Arrays.copyOf(opcodes, size)));
+            }
+        }
+    }
+}
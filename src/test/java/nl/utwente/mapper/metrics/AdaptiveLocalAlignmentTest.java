@@ -0,0 +1,207 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.metrics;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import nl.utwente.mapper.metrics.functions.AdaptiveSubstitution;
+import nl.utwente.mapper.metrics.functions.BytecodeSubstitution;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Checks the query-profile kernel of {@link AdaptiveLocalAlignment} against the scalar recurrence it replaced, which
+ * fills every cell from its three neighbours in a single pass.
+ */
+public class AdaptiveLocalAlignmentTest {
+
+    private static final float GAP = -0.5f;
+    private static final float[] THRESHOLDS = {0.1f, 0.3f, 0.5f, 0.7f, 0.9f};
+
+    private Random random;
+    private BytecodeSubstitution substitution;
+    private AdaptiveLocalAlignment metric;
+
+    @Before
+    public void setUp() {
+        random = new Random(42);
+        long[] occurrences = new long[MethodSequence.PSEUDO_OPCODE + 1];
+        for (int i = 0; i < occurrences.length; i++) {
+            occurrences[i] = 1 + random.nextInt(10000);
+        }
+        substitution = new AdaptiveSubstitution(occurrences);
+        metric = new AdaptiveLocalAlignment(GAP, substitution);
+    }
+
+    @Test
+    public void randomSequences() {
+        for (int i = 0; i < 200; i++) {
+            check(random(1 + random.nextInt(300)), random(1 + random.nextInt(300)));
+        }
+    }
+
+    @Test
+    public void mutatedSequences() {
+        for (int i = 0; i < 200; i++) {
+            short[] source = random(1 + random.nextInt(300));
+            check(source, mutate(source, random.nextFloat() * 0.5f));
+        }
+    }
+
+    @Test
+    public void singleSymbols() {
+        check(new short[] {1}, new short[] {1, 2, 3});
+        check(new short[] {1, 2, 3}, new short[] {3});
+        check(new short[] {MethodSequence.PSEUDO_OPCODE}, new short[] {4});
+    }
+
+    /**
+     * Scores very large pairs on the same executor which runs the comparisons, with every thread of the executor busy
+     * comparing, so the tiles must be filled by the comparing threads themselves.
+     */
+    @Test(timeout = 60000)
+    public void wavefrontOnSharedExecutor() throws Exception {
+        short[] source = random(4500);
+        short[] target = mutate(source, 0.1f);
+        assertTrue(Wavefront.worthwhile(source.length, target.length));
+        MethodSequence s = new MethodSequence("A", "a", "()V", source);
+        MethodSequence t = new MethodSequence("B", "b", "()V", target);
+        float expected = metric.compare(s, t);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            AdaptiveLocalAlignment parallel = new AdaptiveLocalAlignment(GAP, GAP, substitution, executor, 2);
+            List<Future<Float>> scores = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                scores.add(executor.submit(() -> parallel.compare(s, t)));
+            }
+            for (Future<Float> score : scores) {
+                assertEquals(expected, score.get(), 0.0f);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Compares the kernel to the reference without a threshold, and with several thresholds: a score which reaches
+     * the threshold must be exact, any other result must stay below the threshold.
+     */
+    private void check(short[] source, short[] target) {
+        MethodSequence s = new MethodSequence("A", "a", "()V", source);
+        MethodSequence t = new MethodSequence("B", "b", "()V", target);
+        if (s.contentEquals(t)) {
+            return;
+        }
+
+        float maxDistance = min(source.length, target.length) * max(substitution.max(), GAP);
+        float expected = reference(source, target) / maxDistance;
+        assertEquals(expected, metric.compare(s, t), 0.0f);
+
+        for (float threshold : THRESHOLDS) {
+            float bounded = metric.compare(s, t, threshold);
+            if (expected >= threshold) {
+                assertEquals(expected, bounded, 0.0f);
+            } else {
+                assertTrue(bounded + " should be below " + threshold, bounded < threshold);
+            }
+        }
+    }
+
+    /**
+     * The recurrence used before the query-profile kernel.
+     */
+    private float reference(short[] source, short[] target) {
+        float[][] table = substitution.table();
+        float[] v0 = new float[target.length];
+        float[] v1 = new float[target.length];
+
+        float[] row = table[source[0]];
+        float max = v0[0] = Math.max(0, GAP, row[target[0]]);
+        for (int j = 1; j < v0.length; j++) {
+            v0[j] = Math.max(0, v0[j - 1] + GAP, row[target[j]]);
+            max = max(max, v0[j]);
+        }
+
+        for (int i = 1; i < source.length; i++) {
+            row = table[source[i]];
+            v1[0] = Math.max(0, v0[0] + GAP, row[target[0]]);
+            max = max(max, v1[0]);
+            for (int j = 1; j < v0.length; j++) {
+                v1[j] = Math.max(0, v0[j] + GAP, v1[j - 1] + GAP, v0[j - 1] + row[target[j]]);
+                max = max(max, v1[j]);
+            }
+
+            final float[] swap = v0; v0 = v1; v1 = swap;
+        }
+
+        return max;
+    }
+
+    private short[] random(int length) {
+        short[] symbols = new short[length];
+        for (int i = 0; i < length; i++) {
+            symbols[i] = symbol();
+        }
+        return symbols;
+    }
+
+    /**
+     * Substitutes, inserts and removes symbols, each with the given rate.
+     */
+    private short[] mutate(short[] source, float rate) {
+        short[] target = new short[source.length * 2 + 1];
+        int length = 0;
+        for (short symbol : source) {
+            if (random.nextFloat() < rate) {
+                target[length++] = symbol();
+            }
+            if (random.nextFloat() >= rate) {
+                target[length++] = random.nextFloat() < rate ? symbol() : symbol;
+            }
+        }
+        if (length == 0) {
+            target[length++] = symbol();
+        }
+        return Arrays.copyOf(target, length);
+    }
+
+    /**
+     * Returns a random opcode, or sometimes a pseudo-instruction.
+     */
+    private short symbol() {
+        return (short) (random.nextInt(8) == 0 ? MethodSequence.PSEUDO_OPCODE : random.nextInt(200));
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.metrics;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static org.junit.Assert.assertEquals;
+
+import nl.utwente.mapper.metrics.functions.AdaptiveSubstitution;
+import nl.utwente.mapper.metrics.functions.BytecodeSubstitution;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks the affine gap penalties of {@link AdaptiveLocalAlignment} and {@link NeedlemanWunsch} against Gotoh's
+ * recurrence with three full matrices: the best score of every cell, of every cell ending in a horizontal gap and of
+ * every cell ending in a vertical gap. With equal open and extend penalties, the recurrence must reproduce the scores
+ * of the linear gap penalties.
+ */
+public class AffineGapTest {
+
+    private static final float[][] GAPS = {{-1.0f, -0.5f}, {-2.0f, -0.25f}, {-0.6f, -0.5f}};
+    private static final float[] LINEAR_GAPS = {-0.5f, -1.0f, -2.0f};
+
+    private Random random;
+    private BytecodeSubstitution substitution;
+    private float[][] table;
+
+    @Before
+    public void setUp() {
+        random = new Random(42);
+        long[] occurrences = new long[MethodSequence.PSEUDO_OPCODE + 1];
+        for (int i = 0; i < occurrences.length; i++) {
+            occurrences[i] = 1 + random.nextInt(10000);
+        }
+        substitution = new AdaptiveSubstitution(occurrences);
+        table = substitution.table();
+    }
+
+    @Test
+    public void localAffine() {
+        for (float[] gap : GAPS) {
+            AdaptiveLocalAlignment metric = new AdaptiveLocalAlignment(gap[0], gap[1], substitution);
+            for (int i = 0; i < 100; i++) {
+                short[] source = random(1 + random.nextInt(200));
+                short[] target = i % 2 == 0 ? random(1 + random.nextInt(200)) : mutate(source, 0.3f);
+                MethodSequence s = sequence(source);
+                MethodSequence t = sequence(target);
+                if (s.contentEquals(t)) {
+                    continue;
+                }
+
+                float maxDistance = min(source.length, target.length) * max(substitution.max(), gap[1]);
+                float expected = local(source, target, gap[0], gap[1]) / maxDistance;
+                assertEquals(expected, metric.compare(s, t), 0.0f);
+                assertEquals(expected, metric.compare(s, t, 0.5f), 0.0f);
+            }
+        }
+    }
+
+    @Test
+    public void globalAffine() {
+        for (float[] gap : GAPS) {
+            NeedlemanWunsch metric = new NeedlemanWunsch(gap[0], gap[1], substitution);
+            for (int i = 0; i < 100; i++) {
+                short[] source = random(1 + random.nextInt(200));
+                short[] target = i % 2 == 0 ? random(1 + random.nextInt(200)) : mutate(source, 0.3f);
+                MethodSequence s = sequence(source);
+                MethodSequence t = sequence(target);
+                if (s.contentEquals(t)) {
+                    continue;
+                }
+
+                float expected = global(source, target, gap[0], gap[1]);
+                assertEquals(expected, metric.compare(s, t), 0.0f);
+                assertEquals(expected, metric.compare(s, t, 0.5f), 0.0f);
+            }
+        }
+    }
+
+    /**
+     * With the open penalty equal to the extend penalty, Gotoh's recurrence must give the scores of the linear gap
+     * penalties, and so must the metrics constructed with such penalties.
+     */
+    @Test
+    public void equalPenaltiesAreLinear() {
+        for (float gap : LINEAR_GAPS) {
+            AdaptiveLocalAlignment local = new AdaptiveLocalAlignment(gap, substitution);
+            AdaptiveLocalAlignment localAffine = new AdaptiveLocalAlignment(gap, gap, substitution);
+            NeedlemanWunsch global = new NeedlemanWunsch(gap, substitution);
+            NeedlemanWunsch globalAffine = new NeedlemanWunsch(gap, gap, substitution);
+            for (int i = 0; i < 100; i++) {
+                short[] source = random(1 + random.nextInt(200));
+                short[] target = i % 2 == 0 ? random(1 + random.nextInt(200)) : mutate(source, 0.3f);
+                MethodSequence s = sequence(source);
+                MethodSequence t = sequence(target);
+                if (s.contentEquals(t)) {
+                    continue;
+                }
+
+                float maxDistance = min(source.length, target.length) * max(substitution.max(), gap);
+                float linear = local.compare(s, t);
+                assertEquals(linear, local(source, target, gap, gap) / maxDistance, 0.0f);
+                assertEquals(linear, localAffine.compare(s, t), 0.0f);
+
+                linear = global.compare(s, t);
+                assertEquals(linear, global(source, target, gap, gap), 0.0f);
+                assertEquals(linear, globalAffine.compare(s, t), 0.0f);
+            }
+        }
+    }
+
+    /**
+     * Gotoh's local recurrence over full matrices, where a gap of k instructions scores
+     * {@code open + (k - 1) * extend} and every cell may start a new alignment at zero.
+     */
+    private float local(short[] source, short[] target, float open, float extend) {
+        int n = source.length;
+        int m = target.length;
+        float[][] best = new float[n + 1][m + 1];
+        float[][] horizontal = new float[n + 1][m + 1];
+        float[][] vertical = new float[n + 1][m + 1];
+        for (int i = 0; i <= n; i++) {
+            Arrays.fill(horizontal[i], Float.NEGATIVE_INFINITY);
+            Arrays.fill(vertical[i], Float.NEGATIVE_INFINITY);
+        }
+
+        float max = 0;
+        for (int i = 1; i <= n; i++) {
+            for (int j = 1; j <= m; j++) {
+                horizontal[i][j] = max(best[i][j - 1] + open, horizontal[i][j - 1] + extend);
+                vertical[i][j] = max(best[i - 1][j] + open, vertical[i - 1][j] + extend);
+                float diagonal = best[i - 1][j - 1] + table[source[i - 1]][target[j - 1]];
+                best[i][j] = max(max(0, diagonal), max(horizontal[i][j], vertical[i][j]));
+                max = max(max, best[i][j]);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Gotoh's global recurrence over full matrices, minimizing a penalty. Like in {@link NeedlemanWunsch}, every step
+     * along the first row or column costs one, and the similarity is normalized by the penalties of the longest
+     * sequence with the best and the worst scores of a symbol or gap.
+     */
+    private float global(short[] source, short[] target, float open, float extend) {
+        int n = source.length;
+        int m = target.length;
+        float[][] best = new float[n + 1][m + 1];
+        float[][] horizontal = new float[n + 1][m + 1];
+        float[][] vertical = new float[n + 1][m + 1];
+        for (int i = 0; i <= n; i++) {
+            Arrays.fill(horizontal[i], Float.POSITIVE_INFINITY);
+            Arrays.fill(vertical[i], Float.POSITIVE_INFINITY);
+            best[i][0] = i;
+        }
+        for (int j = 0; j <= m; j++) {
+            best[0][j] = j;
+        }
+
+        for (int i = 1; i <= n; i++) {
+            for (int j = 1; j <= m; j++) {
+                horizontal[i][j] = min(best[i][j - 1] - open, horizontal[i][j - 1] - extend);
+                vertical[i][j] = min(best[i - 1][j] - open, vertical[i - 1][j] - extend);
+                float diagonal = best[i - 1][j - 1] - table[source[i - 1]][target[j - 1]];
+                best[i][j] = min(diagonal, min(horizontal[i][j], vertical[i][j]));
+            }
+        }
+
+        float maxDistance = max(n, m) * max(substitution.max(), extend);
+        float minDistance = max(n, m) * min(substitution.min(), open);
+        return (-best[n][m] - minDistance) / (maxDistance - minDistance);
+    }
+
+    private static MethodSequence sequence(short[] symbols) {
+        return new MethodSequence("A", "a", "()V", symbols);
+    }
+
+    private short[] random(int length) {
+        short[] symbols = new short[length];
+        for (int i = 0; i < length; i++) {
+            symbols[i] = symbol();
+        }
+        return symbols;
+    }
+
+    /**
+     * Substitutes, inserts and removes symbols, each with the given rate.
+     */
+    private short[] mutate(short[] source, float rate) {
+        short[] target = new short[source.length * 2 + 1];
+        int length = 0;
+        for (short symbol : source) {
+            if (random.nextFloat() < rate) {
+                target[length++] = symbol();
+            }
+            if (random.nextFloat() >= rate) {
+                target[length++] = random.nextFloat() < rate ? symbol() : symbol;
+            }
+        }
+        if (length == 0) {
+            target[length++] = symbol();
+        }
+        return Arrays.copyOf(target, length);
+    }
+
+    /**
+     * Returns a random opcode, or sometimes a pseudo-instruction.
+     */
+    private short symbol() {
+        return (short) (random.nextInt(8) == 0 ? MethodSequence.PSEUDO_OPCODE : random.nextInt(200));
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.metrics;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import nl.utwente.mapper.metrics.functions.AdaptiveSubstitution;
+import nl.utwente.mapper.metrics.functions.BytecodeSubstitution;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks the alignments recovered by {@link Hirschberg} through the metrics which use it: scoring the returned path
+ * must give the similarity the metric computes with its own matrix, up to rounding. The sequences include regions
+ * above the size which is aligned with a full matrix, so the divide-and-conquer splits are covered as well.
+ */
+public class HirschbergTest {
+
+    private static final float[] GAPS = {-0.5f, -2.0f};
+
+    /**
+     * The largest difference allowed between the similarity of a path and the similarity computed by the metric. The
+     * path may be another optimal path than the one the matrix followed, whose score sums the same floats in another
+     * order and can therefore differ in its last bits.
+     */
+    private static final float ROUNDING = 1e-5f;
+
+    private Random random;
+    private BytecodeSubstitution substitution;
+    private float[][] table;
+
+    @Before
+    public void setUp() {
+        random = new Random(42);
+        long[] occurrences = new long[MethodSequence.PSEUDO_OPCODE + 1];
+        for (int i = 0; i < occurrences.length; i++) {
+            occurrences[i] = 1 + random.nextInt(10000);
+        }
+        substitution = new AdaptiveSubstitution(occurrences);
+        table = substitution.table();
+    }
+
+    @Test
+    public void globalRandomSequences() {
+        for (float gap : GAPS) {
+            NeedlemanWunsch metric = new NeedlemanWunsch(gap, substitution);
+            for (int i = 0; i < 100; i++) {
+                checkGlobal(metric, gap, random(1 + random.nextInt(300)), random(1 + random.nextInt(300)));
+            }
+        }
+    }
+
+    @Test
+    public void globalMutatedSequences() {
+        for (float gap : GAPS) {
+            NeedlemanWunsch metric = new NeedlemanWunsch(gap, substitution);
+            for (int i = 0; i < 100; i++) {
+                short[] source = random(1 + random.nextInt(300));
+                checkGlobal(metric, gap, source, mutate(source, random.nextFloat() * 0.5f));
+            }
+        }
+    }
+
+    @Test
+    public void globalLargeSequences() {
+        for (float gap : GAPS) {
+            NeedlemanWunsch metric = new NeedlemanWunsch(gap, substitution);
+            short[] source = random(1500);
+            checkGlobal(metric, gap, source, mutate(source, 0.2f));
+            checkGlobal(metric, gap, random(1000), random(2000));
+        }
+    }
+
+    @Test
+    public void localRandomSequences() {
+        for (float gap : GAPS) {
+            AdaptiveLocalAlignment metric = new AdaptiveLocalAlignment(gap, substitution);
+            for (int i = 0; i < 100; i++) {
+                checkLocal(metric, gap, random(1 + random.nextInt(300)), random(1 + random.nextInt(300)));
+            }
+        }
+    }
+
+    @Test
+    public void localMutatedSequences() {
+        for (float gap : GAPS) {
+            AdaptiveLocalAlignment metric = new AdaptiveLocalAlignment(gap, substitution);
+            for (int i = 0; i < 100; i++) {
+                short[] source = random(1 + random.nextInt(300));
+                checkLocal(metric, gap, source, mutate(source, random.nextFloat() * 0.5f));
+            }
+        }
+    }
+
+    /**
+     * Embeds a mutated copy of a part of the source in unrelated symbols, so the local alignment spans a region of
+     * more than a few thousand cells somewhere inside both methods.
+     */
+    @Test
+    public void localLargeSequences() {
+        for (float gap : GAPS) {
+            AdaptiveLocalAlignment metric = new AdaptiveLocalAlignment(gap, substitution);
+            short[] source = random(1500);
+            short[] part = mutate(Arrays.copyOfRange(source, 300, 1200), 0.1f);
+            short[] target = concat(random(400), part, random(400));
+            checkLocal(metric, gap, source, target);
+            checkLocal(metric, gap, random(1000), random(2000));
+        }
+    }
+
+    /**
+     * Scores the path of a global alignment like the matrix of {@link NeedlemanWunsch} would: gaps before the first
+     * pair start along the first row or column of the matrix, where they cost one, every other gap costs the gap
+     * penalty.
+     */
+    private void checkGlobal(NeedlemanWunsch metric, float gap, short[] source, short[] target) {
+        MethodSequence s = new MethodSequence("A", "a", "()V", source);
+        MethodSequence t = new MethodSequence("B", "b", "()V", target);
+        if (s.contentEquals(t)) {
+            return;
+        }
+
+        Alignment alignment = metric.align(s, t);
+        assertEquals(0, alignment.sourceStart());
+        assertEquals(source.length, alignment.sourceEnd());
+        assertEquals(0, alignment.targetStart());
+        assertEquals(target.length, alignment.targetEnd());
+        checkPairs(alignment);
+
+        // The gaps leading to the first pair, or to the end if there is none, take the cheapest way off the edges.
+        int i = alignment.size() == 0 ? source.length : alignment.sourceIndex(0);
+        int j = alignment.size() == 0 ? target.length : alignment.targetIndex(0);
+        float penalty;
+        if (i == 0 || j == 0) {
+            penalty = i + j;
+        } else if (-gap < 1.0f) {
+            penalty = 1.0f;
+            for (int k = 1; k < i + j; k++) {
+                penalty -= gap;
+            }
+        } else {
+            penalty = max(i, j);
+            for (int k = 0; k < min(i, j); k++) {
+                penalty -= gap;
+            }
+        }
+
+        for (int p = 0; p < alignment.size(); p++) {
+            int si = alignment.sourceIndex(p);
+            int ti = alignment.targetIndex(p);
+            for (int k = 0; k < si - i + ti - j && p > 0; k++) {
+                penalty -= gap;
+            }
+            penalty -= table[source[si]][target[ti]];
+            i = si + 1;
+            j = ti + 1;
+        }
+        for (int k = 0; k < source.length - i + target.length - j && alignment.size() > 0; k++) {
+            penalty -= gap;
+        }
+
+        float maxDistance = max(source.length, target.length) * max(substitution.max(), gap);
+        float minDistance = max(source.length, target.length) * min(substitution.min(), gap);
+        float expected = metric.compare(s, t);
+        assertEquals(expected, alignment.similarity(), 0.0f);
+        assertEquals(expected, (-penalty - minDistance) / (maxDistance - minDistance), ROUNDING);
+    }
+
+    /**
+     * Scores the path of a local alignment within its region, where every gap costs the gap penalty.
+     */
+    private void checkLocal(AdaptiveLocalAlignment metric, float gap, short[] source, short[] target) {
+        MethodSequence s = new MethodSequence("A", "a", "()V", source);
+        MethodSequence t = new MethodSequence("B", "b", "()V", target);
+        if (s.contentEquals(t)) {
+            return;
+        }
+
+        Alignment alignment = metric.align(s, t);
+        checkPairs(alignment);
+
+        float score = 0;
+        int i = alignment.sourceStart();
+        int j = alignment.targetStart();
+        for (int p = 0; p < alignment.size(); p++) {
+            int si = alignment.sourceIndex(p);
+            int ti = alignment.targetIndex(p);
+            for (int k = 0; k < si - i + ti - j; k++) {
+                score += gap;
+            }
+            score += table[source[si]][target[ti]];
+            i = si + 1;
+            j = ti + 1;
+        }
+        for (int k = 0; k < alignment.sourceEnd() - i + alignment.targetEnd() - j; k++) {
+            score += gap;
+        }
+
+        float maxDistance = min(source.length, target.length) * max(substitution.max(), gap);
+        float expected = metric.compare(s, t);
+        assertEquals(expected, alignment.similarity(), 0.0f);
+        assertEquals(expected, score / maxDistance, ROUNDING);
+    }
+
+    /**
+     * Checks that the pairs lie within the aligned region and strictly increase in both sequences.
+     */
+    private static void checkPairs(Alignment alignment) {
+        int i = alignment.sourceStart() - 1;
+        int j = alignment.targetStart() - 1;
+        for (int p = 0; p < alignment.size(); p++) {
+            assertTrue(alignment.sourceIndex(p) > i && alignment.targetIndex(p) > j);
+            i = alignment.sourceIndex(p);
+            j = alignment.targetIndex(p);
+        }
+        assertTrue(i < alignment.sourceEnd() && j < alignment.targetEnd());
+    }
+
+    private static short[] concat(short[]... parts) {
+        int length = 0;
+        for (short[] part : parts) {
+            length += part.length;
+        }
+        short[] symbols = new short[length];
+        int offset = 0;
+        for (short[] part : parts) {
+            System.arraycopy(part, 0, symbols, offset, part.length);
+            offset += part.length;
+        }
+        return symbols;
+    }
+
+    private short[] random(int length) {
+        short[] symbols = new short[length];
+        for (int i = 0; i < length; i++) {
+            symbols[i] = symbol();
+        }
+        return symbols;
+    }
+
+    /**
+     * Substitutes, inserts and removes symbols, each with the given rate.
+     */
+    private short[] mutate(short[] source, float rate) {
+        short[] target = new short[source.length * 2 + 1];
+        int length = 0;
+        for (short symbol : source) {
+            if (random.nextFloat() < rate) {
+                target[length++] = symbol();
+            }
+            if (random.nextFloat() >= rate) {
+                target[length++] = random.nextFloat() < rate ? symbol() : symbol;
+            }
+        }
+        if (length == 0) {
+            target[length++] = symbol();
+        }
+        return Arrays.copyOf(target, length);
+    }
+
+    /**
+     * Returns a random opcode, or sometimes a pseudo-instruction.
+     */
+    private short symbol() {
+        return (short) (random.nextInt(8) == 0 ? MethodSequence.PSEUDO_OPCODE : random.nextInt(200));
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import nl.utwente.mapper.metrics.functions.AdaptiveSubstitution;
+import nl.utwente.mapper.metrics.functions.BytecodeSubstitution;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks the banded and the thresholded computations of {@link NeedlemanWunsch} against the full matrix. Both must
+ * return exactly the score of the full matrix, unless a thresholded score stays below its threshold.
+ */
+public class NeedlemanWunschTest {
+
+    private static final float GAP = -0.5f;
+    private static final int BAND = 4;
+    private static final float[] THRESHOLDS = {0.1f, 0.3f, 0.5f, 0.7f, 0.9f};
+
+    private Random random;
+    private NeedlemanWunsch full;
+    private NeedlemanWunsch banded;
+
+    @Before
+    public void setUp() {
+        random = new Random(42);
+        long[] occurrences = new long[MethodSequence.PSEUDO_OPCODE + 1];
+        for (int i = 0; i < occurrences.length; i++) {
+            occurrences[i] = 1 + random.nextInt(10000);
+        }
+        BytecodeSubstitution substitution = new AdaptiveSubstitution(occurrences);
+        full = new NeedlemanWunsch(GAP, substitution);
+        banded = new NeedlemanWunsch(GAP, substitution, BAND);
+    }
+
+    @Test
+    public void randomSequences() {
+        for (int i = 0; i < 200; i++) {
+            check(random(1 + random.nextInt(300)), random(1 + random.nextInt(300)));
+        }
+    }
+
+    @Test
+    public void mutatedSequences() {
+        for (int i = 0; i < 200; i++) {
+            short[] source = random(1 + random.nextInt(300));
+            check(source, mutate(source, random.nextFloat() * 0.3f));
+        }
+    }
+
+    /**
+     * Shifts the target along the source by more than the initial band while keeping both equally long, so the
+     * diagonal through both corners is far from the optimal path and the band has to be widened to reach it.
+     */
+    @Test
+    public void shiftedSequences() {
+        for (int i = 0; i < 200; i++) {
+            short[] source = random(50 + random.nextInt(250));
+            int shift = BAND + 1 + random.nextInt(source.length / 4);
+            check(source, shift(source, shift));
+            check(shift(source, shift), source);
+        }
+    }
+
+    /**
+     * Removes a block longer than the initial band from the middle of the source, so the optimal path leaves the band
+     * around the diagonal halfway.
+     */
+    @Test
+    public void removedBlocks() {
+        for (int i = 0; i < 200; i++) {
+            short[] source = random(50 + random.nextInt(250));
+            int length = BAND + 1 + random.nextInt(source.length / 4);
+            int from = random.nextInt(source.length - length);
+            short[] target = new short[source.length - length];
+            System.arraycopy(source, 0, target, 0, from);
+            System.arraycopy(source, from + length, target, from, target.length - from);
+            check(source, mutate(target, 0.05f));
+            check(mutate(target, 0.05f), source);
+        }
+    }
+
+    @Test
+    public void singleSymbols() {
+        check(new short[] {1}, new short[] {1, 2, 3});
+        check(new short[] {1, 2, 3}, new short[] {3});
+        check(new short[] {MethodSequence.PSEUDO_OPCODE}, new short[] {4});
+    }
+
+    /**
+     * Compares the banded score and the thresholded scores to the score of the full matrix: a score which reaches
+     * the threshold must be exact, any other result must stay below the threshold.
+     */
+    private void check(short[] source, short[] target) {
+        MethodSequence s = new MethodSequence("A", "a", "()V", source);
+        MethodSequence t = new MethodSequence("B", "b", "()V", target);
+        if (s.contentEquals(t)) {
+            return;
+        }
+
+        float expected = full.compare(s, t);
+        assertEquals(expected, banded.compare(s, t), 0.0f);
+
+        for (float threshold : THRESHOLDS) {
+            float bounded = full.compare(s, t, threshold);
+            if (expected >= threshold) {
+                assertEquals(expected, bounded, 0.0f);
+            } else {
+                assertTrue(bounded + " should be below " + threshold, bounded < threshold);
+            }
+            assertEquals(expected, banded.compare(s, t, threshold), 0.0f);
+        }
+    }
+
+    private short[] random(int length) {
+        short[] symbols = new short[length];
+        for (int i = 0; i < length; i++) {
+            symbols[i] = symbol();
+        }
+        return symbols;
+    }
+
+    /**
+     * Prepends the given amount of random symbols to the source and drops as many from its end.
+     */
+    private short[] shift(short[] source, int shift) {
+        short[] target = new short[source.length];
+        for (int i = 0; i < shift; i++) {
+            target[i] = symbol();
+        }
+        System.arraycopy(source, 0, target, shift, source.length - shift);
+        return target;
+    }
+
+    /**
+     * Substitutes, inserts and removes symbols, each with the given rate.
+     */
+    private short[] mutate(short[] source, float rate) {
+        short[] target = new short[source.length * 2 + 1];
+        int length = 0;
+        for (short symbol : source) {
+            if (random.nextFloat() < rate) {
+                target[length++] = symbol();
+            }
+            if (random.nextFloat() >= rate) {
+                target[length++] = random.nextFloat() < rate ? symbol() : symbol;
+            }
+        }
+        if (length == 0) {
+            target[length++] = symbol();
+        }
+        return Arrays.copyOf(target, length);
+    }
+
+    /**
+     * Returns a random opcode, or sometimes a pseudo-instruction.
+     */
+    private short symbol() {
+        return (short) (random.nextInt(8) == 0 ? MethodSequence.PSEUDO_OPCODE : random.nextInt(200));
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Tom Leemreize <t.leemreize@student.utwente.nl>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package nl.utwente.mapper.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import nl.utwente.mapper.metrics.functions.AdaptiveSubstitution;
+import nl.utwente.mapper.metrics.functions.BytecodeSubstitution;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that {@link QuantizedLocalAlignment} and {@link QuantizedNeedlemanWunsch} stay within their maximum
+ * deviation from the floating point algorithms, and that pairs which could overflow an int are scored in floating
+ * point instead.
+ */
+public class QuantizedAlignmentTest {
+
+    private static final float GAP = -0.5f;
+
+    /**
+     * A scale at which every step of an alignment is about a million, so pairs of a few thousand instructions would
+     * overflow an int.
+     */
+    private static final int LARGE_SCALE = 1 << 20;
+
+    private Random random;
+    private BytecodeSubstitution substitution;
+
+    @Before
+    public void setUp() {
+        random = new Random(42);
+        long[] occurrences = new long[MethodSequence.PSEUDO_OPCODE + 1];
+        for (int i = 0; i < occurrences.length; i++) {
+            occurrences[i] = 1 + random.nextInt(10000);
+        }
+        substitution = new AdaptiveSubstitution(occurrences);
+    }
+
+    @Test
+    public void localWithinMaxDeviation() {
+        QuantizedLocalAlignment quantized = new QuantizedLocalAlignment(GAP, substitution);
+        AdaptiveLocalAlignment exact = new AdaptiveLocalAlignment(GAP, substitution);
+        for (int i = 0; i < 200; i++) {
+            MethodSequence s = sequence(random(1 + random.nextInt(300)));
+            MethodSequence t = sequence(i % 2 == 0 ? random(1 + random.nextInt(300)) : mutate(s.symbols(), 0.3f));
+            float deviation = quantized.maxDeviation(s, t);
+            assertTrue(deviation > 0);
+            assertEquals(exact.compare(s, t), quantized.compare(s, t), deviation);
+        }
+    }
+
+    @Test
+    public void globalWithinMaxDeviation() {
+        QuantizedNeedlemanWunsch quantized = new QuantizedNeedlemanWunsch(GAP, substitution);
+        NeedlemanWunsch exact = new NeedlemanWunsch(GAP, substitution);
+        for (int i = 0; i < 200; i++) {
+            MethodSequence s = sequence(random(1 + random.nextInt(300)));
+            MethodSequence t = sequence(i % 2 == 0 ? random(1 + random.nextInt(300)) : mutate(s.symbols(), 0.3f));
+            float deviation = quantized.maxDeviation(s, t);
+            assertTrue(deviation > 0);
+            assertEquals(exact.compare(s, t), quantized.compare(s, t), deviation);
+        }
+    }
+
+    /**
+     * Scores near-identical pairs whose local alignment would exceed the range of an int at a large scale.
+     */
+    @Test
+    public void localLargeScaleFallsBack() {
+        QuantizedLocalAlignment quantized = new QuantizedLocalAlignment(GAP, substitution, LARGE_SCALE);
+        AdaptiveLocalAlignment exact = new AdaptiveLocalAlignment(GAP, substitution);
+
+        MethodSequence s = sequence(random(3000));
+        MethodSequence t = sequence(mutate(s.symbols(), 0.05f));
+        assertEquals(exact.compare(s, t), quantized.compare(s, t), 0.0f);
+        assertEquals(0.0f, quantized.maxDeviation(s, t), 0.0f);
+        assertEquals(exact.selfScore(s), quantized.selfScore(s), 0.0f);
+
+        MethodSequence small = sequence(random(200));
+        MethodSequence other = sequence(mutate(small.symbols(), 0.05f));
+        assertEquals(exact.compare(small, other), quantized.compare(small, other),
+                quantized.maxDeviation(small, other));
+    }
+
+    /**
+     * Scores dissimilar pairs whose global penalty would exceed the range of an int at a large scale.
+     */
+    @Test
+    public void globalLargeScaleFallsBack() {
+        QuantizedNeedlemanWunsch quantized = new QuantizedNeedlemanWunsch(GAP, substitution, LARGE_SCALE);
+        NeedlemanWunsch exact = new NeedlemanWunsch(GAP, substitution);
+
+        MethodSequence s = sequence(random(3000));
+        MethodSequence t = sequence(random(3000));
+        assertEquals(exact.compare(s, t), quantized.compare(s, t), 0.0f);
+        assertEquals(0.0f, quantized.maxDeviation(s, t), 0.0f);
+        assertEquals(exact.selfScore(s), quantized.selfScore(s), 0.0f);
+
+        MethodSequence small = sequence(random(200));
+        MethodSequence other = sequence(random(200));
+        assertEquals(exact.compare(small, other), quantized.compare(small, other),
+                quantized.maxDeviation(small, other));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void localRejectsOversizedScale() {
+        new QuantizedLocalAlignment(GAP, substitution, Integer.MAX_VALUE);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void globalRejectsOversizedScale() {
+        new QuantizedNeedlemanWunsch(GAP, substitution, Integer.MAX_VALUE);
+    }
+
+    private static MethodSequence sequence(short[] symbols) {
+        return new MethodSequence("A", "a", "()V", symbols);
+    }
+
+    private short[] random(int length) {
+        short[] symbols = new short[length];
+        for (int i = 0; i < length; i++) {
+            symbols[i] = symbol();
+        }
+        return symbols;
+    }
+
+    /**
+     * Substitutes, inserts and removes symbols, each with the given rate.
+     */
+    private short[] mutate(short[] source, float rate) {
+        short[] target = new short[source.length * 2 + 1];
+        int length = 0;
+        for (short symbol : source) {
+            if (random.nextFloat() < rate) {
+                target[length++] = symbol();
+            }
+            if (random.nextFloat() >= rate) {
+                target[length++] = random.nextFloat() < rate ? symbol() : symbol;
+            }
+        }
+        if (length == 0) {
+            target[length++] = symbol();
+        }
+        return Arrays.copyOf(target, length);
+    }
+
+    /**
+     * Returns a random opcode, or sometimes a pseudo-instruction.
+     */
+    private short symbol() {
+        return (short) (random.nextInt(8) == 0 ? MethodSequence.PSEUDO_OPCODE : random.nextInt(200));
+    }
+}